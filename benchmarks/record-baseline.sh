@@ -0,0 +1,26 @@
+#!/bin/sh
+# Runs the full benchmark suite and appends the results to the baseline section of README.md,
+# together with the machine, JVM and TrainCarts commit they were taken on.
+# Build the benchmarks jar first, see README.md. Extra arguments are passed on to JMH.
+set -e
+cd "$(dirname "$0")"
+if [ ! -f target/benchmarks.jar ]; then
+    echo "target/benchmarks.jar not found, build the benchmarks first" >&2
+    exit 1
+fi
+
+java -jar target/benchmarks.jar -rf text -rff target/baseline.txt "$@"
+
+cpu=$(grep -m 1 "model name" /proc/cpuinfo 2>/dev/null | cut -d ':' -f 2 | sed 's/^ *//')
+jvm=$(java -version 2>&1 | head -n 2 | tail -n 1)
+{
+    echo
+    echo "### $(git rev-parse --short HEAD) ($(date +%Y-%m-%d))"
+    echo "- Machine: ${cpu:-$(uname -m)}, $(nproc) cores, $(uname -s) $(uname -r)"
+    echo "- JVM: $jvm"
+    echo
+    echo '```'
+    cat target/baseline.txt
+    echo '```'
+} >> README.md
+echo "Results were added to README.md"
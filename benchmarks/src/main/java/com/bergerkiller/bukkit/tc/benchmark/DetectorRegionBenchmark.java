@@ -0,0 +1,76 @@
+package com.bergerkiller.bukkit.tc.benchmark;
+
+import com.bergerkiller.bukkit.common.bases.IntVector3;
+import com.bergerkiller.bukkit.tc.controller.MinecartMember;
+import com.bergerkiller.bukkit.tc.detector.DetectorRegion;
+import com.bergerkiller.bukkit.tc.harness.TestWorld;
+import com.bergerkiller.bukkit.tc.harness.UnloadedMember;
+import org.bukkit.block.Block;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link DetectorRegion#handleMove(MinecartMember, Block, Block, java.util.Collection)} of a minecart
+ * moving one block along a line of detector regions, as done for every cart that moves to a new block.
+ * The regions are 8 blocks long with a gap of 8 blocks in between, so half the moves enter or leave a region.<br>
+ * <br>
+ * The minecart is an {@link UnloadedMember}, so that entering a region does not look up its train.
+ * No listeners are registered, so only the region lookup and membership changes are measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class DetectorRegionBenchmark {
+    private static final int REGION_LENGTH = 8;
+
+    /** Amount of detector regions along the line */
+    @Param({"10", "1000"})
+    public int regionCount;
+
+    private MinecartMember<?> member;
+    private Block[] blocks;
+    private List<DetectorRegion> regionsAtTo = new ArrayList<>();
+    private int index = 0;
+
+    @Setup
+    public void setup() {
+        // Regions are stored by world name, so every parameter gets its own world
+        TestWorld world = new TestWorld("detector" + this.regionCount);
+        for (int i = 0; i < this.regionCount; i++) {
+            Set<IntVector3> coordinates = new HashSet<>();
+            for (int x = 0; x < REGION_LENGTH; x++) {
+                coordinates.add(new IntVector3(i * REGION_LENGTH * 2 + x, 64, 0));
+            }
+            DetectorRegion.create(world.getWorld(), coordinates);
+        }
+        this.blocks = new Block[this.regionCount * REGION_LENGTH * 2];
+        for (int x = 0; x < this.blocks.length; x++) {
+            this.blocks[x] = world.getBlockAt(x, 64, 0);
+        }
+
+        this.member = new UnloadedMember();
+    }
+
+    @Benchmark
+    public int handleMove() {
+        Block from = this.blocks[this.index];
+        if (++this.index == this.blocks.length) {
+            this.index = 0;
+        }
+        this.regionsAtTo.clear();
+        DetectorRegion.handleMove(this.member, from, this.blocks[this.index], this.regionsAtTo);
+        return this.regionsAtTo.size();
+    }
+}
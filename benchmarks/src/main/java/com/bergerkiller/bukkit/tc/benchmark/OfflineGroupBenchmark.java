@@ -0,0 +1,89 @@
+package com.bergerkiller.bukkit.tc.benchmark;
+
+import com.bergerkiller.bukkit.tc.storage.OfflineGroup;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writing and reading the stored trains in the format of the groupdata file and its journal.
+ * The data is kept in memory, so this measures the encoding and the chunk bookkeeping
+ * of the offline groups, not the disk.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class OfflineGroupBenchmark {
+
+    /** Amount of stored trains */
+    @Param({"100", "1000", "5000"})
+    public int groupCount;
+
+    /** Amount of carts of every train */
+    @Param({"3"})
+    public int cartCount;
+
+    private OfflineGroup[] groups;
+    private byte[] data;
+
+    @Setup
+    public void setup() throws IOException {
+        // Groups can only be created from a live train or a stream, so generate the stream
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream stream = new DataOutputStream(bytes);
+        for (int g = 0; g < this.groupCount; g++) {
+            stream.writeInt(this.cartCount);
+            for (int m = 0; m < this.cartCount; m++) {
+                stream.writeLong(g);
+                stream.writeLong(m);
+                stream.writeDouble(0.0);
+                stream.writeDouble(0.0);
+                stream.writeInt((g * 3) + (m >> 2));
+                stream.writeInt(g & 0xFF);
+            }
+            stream.writeUTF("train" + g);
+        }
+        stream.close();
+        this.data = bytes.toByteArray();
+        this.groups = this.read(this.data);
+    }
+
+    @Benchmark
+    public int save() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(this.data.length);
+        DataOutputStream stream = new DataOutputStream(bytes);
+        for (OfflineGroup group : this.groups) {
+            group.writeTo(stream);
+        }
+        stream.close();
+        return bytes.size();
+    }
+
+    @Benchmark
+    public OfflineGroup[] load() throws IOException {
+        return this.read(this.data);
+    }
+
+    private OfflineGroup[] read(byte[] data) throws IOException {
+        DataInputStream stream = new DataInputStream(new ByteArrayInputStream(data));
+        OfflineGroup[] result = new OfflineGroup[this.groupCount];
+        for (int g = 0; g < this.groupCount; g++) {
+            result[g] = OfflineGroup.readFrom(stream);
+            result[g].worldUUID = UUID.nameUUIDFromBytes("world".getBytes());
+        }
+        return result;
+    }
+}
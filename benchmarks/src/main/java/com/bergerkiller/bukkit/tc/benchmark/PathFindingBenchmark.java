@@ -0,0 +1,71 @@
+package com.bergerkiller.bukkit.tc.benchmark;
+
+import com.bergerkiller.bukkit.common.BlockLocation;
+import com.bergerkiller.bukkit.tc.pathfinding.PathConnection;
+import com.bergerkiller.bukkit.tc.pathfinding.PathNode;
+import org.bukkit.block.BlockFace;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Route finding with {@link PathNode#findConnection(PathNode)} on a generated square grid of switchers,
+ * connected both ways to their neighbours. Routes are found from one corner to the opposite corner.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PathFindingBenchmark {
+    private static final int NODE_SPACING = 32;
+
+    /** Amount of nodes along each side of the grid */
+    @Param({"4", "8", "12"})
+    public int gridSize;
+
+    private PathNode start;
+    private PathNode destination;
+
+    @Setup
+    public void setup() {
+        PathNode.clearAll();
+        PathNode[][] grid = new PathNode[this.gridSize][this.gridSize];
+        for (int x = 0; x < this.gridSize; x++) {
+            for (int z = 0; z < this.gridSize; z++) {
+                BlockLocation location = new BlockLocation("world", x * NODE_SPACING, 64, z * NODE_SPACING);
+                grid[x][z] = PathNode.getOrCreate("node_" + x + "_" + z, location);
+            }
+        }
+        for (int x = 0; x < this.gridSize; x++) {
+            for (int z = 0; z < this.gridSize; z++) {
+                if (x > 0) {
+                    grid[x][z].addNeighbour(grid[x - 1][z], NODE_SPACING, BlockFace.WEST);
+                    grid[x - 1][z].addNeighbour(grid[x][z], NODE_SPACING, BlockFace.EAST);
+                }
+                if (z > 0) {
+                    grid[x][z].addNeighbour(grid[x][z - 1], NODE_SPACING, BlockFace.NORTH);
+                    grid[x][z - 1].addNeighbour(grid[x][z], NODE_SPACING, BlockFace.SOUTH);
+                }
+            }
+        }
+        this.start = grid[0][0];
+        this.destination = grid[this.gridSize - 1][this.gridSize - 1];
+    }
+
+    @TearDown
+    public void teardown() {
+        PathNode.clearAll();
+    }
+
+    @Benchmark
+    public PathConnection findConnection() {
+        return this.start.findConnection(this.destination);
+    }
+}
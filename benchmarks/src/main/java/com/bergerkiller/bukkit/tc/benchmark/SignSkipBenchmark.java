@@ -0,0 +1,77 @@
+package com.bergerkiller.bukkit.tc.benchmark;
+
+import com.bergerkiller.bukkit.tc.controller.components.BlockTracker;
+import com.bergerkiller.bukkit.tc.controller.components.BlockTracker.TrackedSign;
+import com.bergerkiller.bukkit.tc.harness.TestWorld;
+import com.bergerkiller.bukkit.tc.utils.SignSkipOptions;
+import org.bukkit.block.Block;
+import org.bukkit.block.BlockFace;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Filtering of the signs tracked by a cart with {@link SignSkipOptions#filterSigns(List)}.
+ * The inactive case is what every cart without skip options pays each tick, the active
+ * case skips half of the signs.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SignSkipBenchmark {
+
+    /** Amount of signs tracked by the cart */
+    @Param({"4", "16", "64"})
+    public int signCount;
+
+    private List<TrackedSign> signs;
+    private SignSkipOptions inactive;
+
+    @Setup
+    public void setup() {
+        TestWorld world = new TestWorld("signs");
+        BlockTracker tracker = new BlockTracker() {
+            @Override
+            public boolean isOnRails(Block railsBlock) {
+                return true;
+            }
+
+            @Override
+            protected void onSignChange(TrackedSign signblock, boolean active) {
+            }
+        };
+        this.signs = new ArrayList<>(this.signCount);
+        for (int i = 0; i < this.signCount; i++) {
+            world.setRails(i, 64, 0, BlockFace.EAST, false);
+            world.setSign(i, 62, 0, "[train]", "station");
+            this.signs.add(tracker.new TrackedSign(world.getBlockAt(i, 62, 0), world.getBlockAt(i, 64, 0)));
+        }
+        this.inactive = new SignSkipOptions();
+        this.inactive.filterSigns(new ArrayList<>(this.signs));
+    }
+
+    @Benchmark
+    public int filterInactive() {
+        List<TrackedSign> result = new ArrayList<>(this.signs);
+        this.inactive.filterSigns(result);
+        return result.size();
+    }
+
+    @Benchmark
+    public int filterSkipping() {
+        SignSkipOptions options = new SignSkipOptions();
+        options.skipCtr = this.signCount / 2;
+        List<TrackedSign> result = new ArrayList<>(this.signs);
+        options.filterSigns(result);
+        return result.size();
+    }
+}
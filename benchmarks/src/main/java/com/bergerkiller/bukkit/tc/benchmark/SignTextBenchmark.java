@@ -0,0 +1,75 @@
+package com.bergerkiller.bukkit.tc.benchmark;
+
+import com.bergerkiller.bukkit.tc.SignActionHeader;
+import com.bergerkiller.bukkit.tc.Util;
+import com.bergerkiller.bukkit.tc.statements.Statement;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Text handling done for every sign a train passes: parsing the sign header,
+ * matching tags and names against expressions, and finding the statement of a switcher expression.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SignTextBenchmark {
+    private static final String[] HEADERS = {"[train]", "[+cart]", "[!train:rising]", "(train)", "[rc:express]", "station"};
+
+    /** Amount of tags a train has, matched against every expression */
+    @Param({"1", "8", "32"})
+    public int tagCount;
+
+    /** Switcher expression, using the statement and wildcard forms seen on servers */
+    @Param({"d@central", "t@express*", "!*freight", "n@line*_east", "velocity>4"})
+    public String expression;
+
+    private List<String> tags;
+
+    @Setup
+    public void setup() {
+        Statement.init();
+        this.tags = new ArrayList<>(this.tagCount);
+        for (int i = 0; i < this.tagCount; i++) {
+            this.tags.add("tag" + i + "_line" + (i % 4));
+        }
+    }
+
+    @TearDown
+    public void teardown() {
+        Statement.deinit();
+    }
+
+    @Benchmark
+    public int parseHeaders() {
+        int valid = 0;
+        for (String line : HEADERS) {
+            if (SignActionHeader.parse(line).isValid()) {
+                valid++;
+            }
+        }
+        return valid;
+    }
+
+    @Benchmark
+    public boolean matchText() {
+        return Util.matchText(this.tags, this.expression);
+    }
+
+    // No train is given, so this measures the shortcut replacement and statement lookup only
+    @Benchmark
+    public boolean statementLookup() {
+        return Statement.has(null, null, this.expression, null);
+    }
+}
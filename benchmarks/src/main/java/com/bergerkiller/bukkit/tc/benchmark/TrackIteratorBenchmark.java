@@ -0,0 +1,70 @@
+package com.bergerkiller.bukkit.tc.benchmark;
+
+import com.bergerkiller.bukkit.tc.harness.TestRailType;
+import com.bergerkiller.bukkit.tc.harness.TestWorld;
+import com.bergerkiller.bukkit.tc.harness.TrackBuilder;
+import com.bergerkiller.bukkit.tc.utils.TrackIterator;
+import org.bukkit.block.Block;
+import org.bukkit.block.BlockFace;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Walking the track with a {@link TrackIterator}, as done by the waiter signs, path finding and
+ * rails commands. The rails are read from a test world through the {@link TestRailType},
+ * so the cost of reading rails block data from a server world is not included.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TrackIteratorBenchmark {
+
+    /** Amount of blocks walked */
+    @Param({"100", "1000", "10000"})
+    public int distance;
+
+    private TestRailType railType;
+    private Block start;
+    private Block destination;
+
+    @Setup
+    public void setup() {
+        TestWorld world = new TestWorld("track");
+        TrackBuilder builder = new TrackBuilder(world, 0, 64, 0, BlockFace.EAST);
+        // Turn every 50 blocks, so that curves are walked as well
+        for (int i = 0; i < this.distance; i += 100) {
+            builder.straight(50).turn(BlockFace.SOUTH).straight(50).turn(BlockFace.EAST);
+        }
+        this.start = builder.getPlaced().get(0);
+        this.destination = builder.getPlaced().get(this.distance - 1);
+        this.railType = TestRailType.install(world);
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.railType.uninstall();
+    }
+
+    @Benchmark
+    public double walk() {
+        TrackIterator iter = new TrackIterator(this.start, BlockFace.EAST, this.distance, false);
+        while (iter.hasNext()) {
+            iter.next();
+        }
+        return iter.getCartDistance();
+    }
+
+    @Benchmark
+    public boolean canReach() {
+        return TrackIterator.canReach(this.start, BlockFace.EAST, this.destination);
+    }
+}
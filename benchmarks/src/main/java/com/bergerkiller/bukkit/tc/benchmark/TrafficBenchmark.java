@@ -0,0 +1,66 @@
+package com.bergerkiller.bukkit.tc.benchmark;
+
+import com.bergerkiller.bukkit.tc.harness.NetworkGenerator;
+import com.bergerkiller.bukkit.tc.harness.SyntheticNetwork;
+import com.bergerkiller.bukkit.tc.harness.TrafficPattern;
+import com.bergerkiller.bukkit.tc.harness.TrafficSimulation;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tick cost of a generated network with all trains of a traffic pattern running on it.
+ * All trains are spawned before measuring, so every measured tick moves the same amount of trains.
+ * Trains are routed by the path finding at every switcher they pass, and wait for the trains in front
+ * of them, see {@link TrafficSimulation}. The carts move with the model of the harness, so this does not
+ * include the physics of TrainCarts.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TrafficBenchmark {
+
+    @Param({"GRID", "RING", "LINE", "YARD"})
+    public NetworkGenerator.Layout layout;
+
+    /** Amount of trains running on the network, the smallest network can not hold many more */
+    @Param({"25", "50", "100"})
+    public int trainCount;
+
+    private TrafficSimulation traffic;
+
+    @Setup
+    public void setup() {
+        NetworkGenerator generator = new NetworkGenerator();
+        generator.switcherCount = 16;
+        generator.destinationCount = 32;
+        SyntheticNetwork network = generator.generate(this.layout);
+
+        TrafficPattern pattern = new TrafficPattern();
+        pattern.maxTrains = this.trainCount;
+        pattern.minCarts = 1;
+        pattern.maxCarts = 8;
+        this.traffic = new TrafficSimulation(network, pattern);
+        this.traffic.spawnAll();
+        this.traffic.run(100); // Warm up the spacing
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.traffic.close();
+    }
+
+    @Benchmark
+    public long tick() {
+        this.traffic.tick();
+        return this.traffic.getArrivalCount();
+    }
+}
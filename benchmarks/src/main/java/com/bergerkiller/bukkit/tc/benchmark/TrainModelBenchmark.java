@@ -0,0 +1,161 @@
+package com.bergerkiller.bukkit.tc.benchmark;
+
+import com.bergerkiller.bukkit.common.utils.FaceUtil;
+import com.bergerkiller.bukkit.tc.TrainCarts;
+import com.bergerkiller.bukkit.tc.controller.components.PhysicsBuffer;
+import com.bergerkiller.bukkit.tc.harness.TestWorld;
+import com.bergerkiller.bukkit.tc.harness.TrackBuilder;
+import com.bergerkiller.bukkit.tc.harness.TrainModel;
+import org.bukkit.Location;
+import org.bukkit.block.Block;
+import org.bukkit.block.BlockFace;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Track walking and cart spacing of moving trains, using the simplified train model of the test harness.
+ * This does not measure the physics of real trains, only the parts of it the model shares with them.
+ * The trains run on a ring, so they never reach the end of the track. The spacing math of a single
+ * train is measured separately using the {@link PhysicsBuffer} directly, next to the same math done
+ * on a location and direction object per cart. That loop is only an approximation of the code before the
+ * buffer was added: it has no member and entity objects to go through, so it does not measure the speedup
+ * of the buffer in a server.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TrainModelBenchmark {
+    private static final int MIN_RING_SIDE = 256;
+
+    /** Amount of trains on the ring */
+    @Param({"1", "10", "100"})
+    public int trainCount;
+
+    /** Amount of carts of every train */
+    @Param({"5", "100"})
+    public int cartCount;
+
+    private TrainModel model;
+    private PhysicsBuffer buffer;
+    private Cart[] carts;
+    private double[] wrapperSpeedFactors;
+
+    @Setup
+    public void setup() {
+        TestWorld world = new TestWorld("ring");
+        int trainLength = (int) Math.ceil(this.cartCount * TrainCarts.cartDistance) + 1;
+        // Trains can not be spawned on top of each other, so the ring is made long enough for all of them
+        int side = Math.max(MIN_RING_SIDE, (this.trainCount * (trainLength + 2)) / 4 + 2);
+        TrackBuilder ring = new TrackBuilder(world, 0, 64, 0, BlockFace.EAST).ring(side, side);
+        List<Block> rails = ring.getPlaced();
+        this.model = new TrainModel(world);
+        for (int i = 0; i < this.trainCount; i++) {
+            int head = (trainLength + (i * rails.size()) / this.trainCount) % rails.size();
+            this.model.spawn(rails.get(head), ring.getPlacedDirections().get(head), this.cartCount, TrainCarts.cartDistance);
+        }
+        this.model.run(100); // Warm up the spacing
+
+        this.carts = new Cart[this.cartCount];
+        for (int i = 0; i < this.cartCount; i++) {
+            // Every 7th cart is turned relative to the cart after it
+            BlockFace direction = ((i % 7) == 6) ? BlockFace.SOUTH : BlockFace.EAST;
+            this.carts[i] = new Cart(new Location(world.getWorld(), i * 1.45, 64.0, 0.5), direction, 0.4);
+        }
+        this.wrapperSpeedFactors = new double[this.cartCount];
+        this.buffer = new PhysicsBuffer();
+        this.loadBuffer();
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.model.close();
+    }
+
+    @Benchmark
+    public long tick() {
+        this.model.tick();
+        return this.model.getMovedCarts();
+    }
+
+    @Benchmark
+    public double computeSpeedFactors() {
+        this.buffer.computeSpeedFactors(TrainCarts.cartDistance, TrainCarts.cartDistanceForcer,
+                TrainCarts.turnedCartDistance, TrainCarts.turnedCartDistanceForcer, TrainCarts.nearCartDistanceFactor);
+        return this.buffer.getSpeedFactor(0);
+    }
+
+    /**
+     * Loads the buffer from the carts before computing, which the train does every physics step
+     */
+    @Benchmark
+    public double loadAndComputeSpeedFactors() {
+        this.loadBuffer();
+        return this.computeSpeedFactors();
+    }
+
+    /**
+     * Approximation of the spacing math before the buffer: done on the location and direction of every cart,
+     * without looking these up through the member and entity of the cart
+     */
+    @Benchmark
+    public double wrapperSpeedFactors() {
+        double distance, threshold, forcer;
+        for (int i = 0; i < this.carts.length; i++) {
+            if (i == this.carts.length - 1) {
+                this.wrapperSpeedFactors[i] = 1.0;
+                break;
+            }
+            Cart cart = this.carts[i];
+            Cart after = this.carts[i + 1];
+            distance = cart.loc.distance(after.loc);
+            if (cart.isTurned(after)) {
+                threshold = TrainCarts.turnedCartDistance;
+                forcer = TrainCarts.turnedCartDistanceForcer;
+            } else {
+                threshold = TrainCarts.cartDistance;
+                forcer = TrainCarts.cartDistanceForcer;
+            }
+            if (distance < threshold) {
+                forcer *= TrainCarts.nearCartDistanceFactor;
+            }
+            this.wrapperSpeedFactors[i] = 1 + (forcer * (threshold - distance));
+        }
+        return this.wrapperSpeedFactors[0];
+    }
+
+    private void loadBuffer() {
+        this.buffer.resize(this.carts.length);
+        for (int i = this.carts.length - 1; i >= 0; i--) {
+            Cart cart = this.carts[i];
+            boolean turned = (i < this.carts.length - 1) && cart.isTurned(this.carts[i + 1]);
+            this.buffer.set(i, cart.loc.getX(), cart.loc.getY(), cart.loc.getZ(), cart.force, turned);
+        }
+    }
+
+    private static class Cart {
+        public final Location loc;
+        public final BlockFace direction;
+        public final double force;
+
+        public Cart(Location loc, BlockFace direction, double force) {
+            this.loc = loc;
+            this.direction = direction;
+            this.force = force;
+        }
+
+        public boolean isTurned(Cart after) {
+            return FaceUtil.getFaceYawDifference(this.direction, after.direction) >= 45
+                    || Math.abs(this.loc.getPitch() - after.loc.getPitch()) > 10;
+        }
+    }
+}
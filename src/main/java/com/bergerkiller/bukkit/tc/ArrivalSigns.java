@@ -9,6 +9,7 @@ import com.bergerkiller.bukkit.common.utils.MathUtil;
 import com.bergerkiller.bukkit.common.utils.ParseUtil;
 import com.bergerkiller.bukkit.sl.API.Variables;
 import com.bergerkiller.bukkit.tc.controller.MinecartMember;
+import com.bergerkiller.bukkit.tc.storage.SaveQueue;
 import org.bukkit.ChatColor;
 import org.bukkit.block.Block;
 import org.bukkit.block.Sign;
@@ -20,9 +21,10 @@ public class ArrivalSigns {
     private static HashMap<String, TimeSign> timerSigns = new HashMap<>();
     private static BlockMap<TimeCalculation> timeCalculations = new BlockMap<>();
     private static Task updateTask;
+    private static String unloadedFile = null; // File the arrival times are loaded from when first used
 
     public static TimeSign getTimer(String name) {
-        TimeSign t = timerSigns.get(name);
+        TimeSign t = getTimerSigns().get(name);
         if (t == null) {
             t = new TimeSign();
             t.name = name;
@@ -31,6 +33,15 @@ public class ArrivalSigns {
         return t;
     }
 
+    private static HashMap<String, TimeSign> getTimerSigns() {
+        if (unloadedFile != null) {
+            String filename = unloadedFile;
+            unloadedFile = null;
+            load(filename);
+        }
+        return timerSigns;
+    }
+
     public static boolean isTrigger(Sign sign) {
         SignActionHeader header = SignActionHeader.parseFromSign(sign);
         return header.isValid() && Util.getCleanLine(sign, 1).equalsIgnoreCase("trigger");
@@ -61,14 +72,28 @@ public class ArrivalSigns {
     }
 
     public static void updateAll() {
-        for (TimeSign t : timerSigns.values()) {
+        for (TimeSign t : getTimerSigns().values()) {
             if (!t.update()) {
                 return;
             }
         }
     }
 
+    /**
+     * Sets the file to load the arrival times from. The file is only read once
+     * the arrival times are first used, as they are not needed without SignLink.
+     *
+     * @param filename to load from
+     */
     public static void init(String filename) {
+        if (timerSigns == null) {
+            timerSigns = new HashMap<>();
+            timeCalculations = new BlockMap<>();
+        }
+        unloadedFile = filename;
+    }
+
+    private static void load(String filename) {
         FileConfiguration config = new FileConfiguration(filename);
         config.load();
         for (String key : config.getKeys()) {
@@ -82,14 +107,18 @@ public class ArrivalSigns {
     }
 
     public static void save(String filename) {
-        FileConfiguration config = new FileConfiguration(filename);
+        if (unloadedFile != null) {
+            return; // Never used, the file is unchanged
+        }
+        FileConfiguration config = SaveQueue.createConfig(filename);
         for (TimeSign sign : timerSigns.values()) {
             config.set(sign.name, sign.getDuration());
         }
-        config.save();
+        SaveQueue.writeConfig("arrival times", filename, config);
     }
 
     public static void deinit() {
+        unloadedFile = null;
         timerSigns.clear();
         timerSigns = null;
         timeCalculations.clear();
@@ -34,6 +34,8 @@ public class Permission extends PermissionEnum {
     public static final Permission COMMAND_DISPLAYNAME = new Permission("train.command.displayname", PermissionDefault.TRUE, "The player can change the display name of his owned trains");
     public static final Permission COMMAND_MANUALMOVE = new Permission("train.command.manualmove", PermissionDefault.TRUE, "Whether the player can change if trains can be moved by damaging them");
     public static final Permission COMMAND_SAVEALL = new Permission("train.command.saveall", PermissionDefault.OP, "Whether the player can save all TrainCarts stored information to file");
+    public static final Permission COMMAND_COMPACTPROPERTIES = new Permission("train.command.compactproperties", PermissionDefault.OP, "Whether the player can remove the stored properties of trains that no longer exist");
+    public static final Permission COMMAND_STATS = new Permission("train.command.stats", PermissionDefault.OP, "Whether the player can view statistics about the trains on the server");
     public static final Permission COMMAND_MESSAGE = new Permission("train.command.message", PermissionDefault.OP, "Whether the player can add message shortcuts");
     public static final Permission COMMAND_PATHINFO = new Permission("train.command.pathinfo", PermissionDefault.OP, "Whether the player can view the route the train is following to reach the destination");
     public static final Permission COMMAND_PLAYERTAKE = new Permission("train.command.playertake", PermissionDefault.OP, "Whether the player can change if players take Minecarts with them when they leave");
@@ -1,116 +1,236 @@
 package com.bergerkiller.bukkit.tc;
 
+import com.bergerkiller.bukkit.common.Task;
 import com.bergerkiller.bukkit.common.collections.BlockSet;
-import com.bergerkiller.bukkit.common.collections.CollectionBasics;
 import com.bergerkiller.bukkit.common.utils.*;
+import com.bergerkiller.bukkit.common.wrappers.LongHashSet;
+import com.bergerkiller.bukkit.common.wrappers.LongHashSet.LongIterator;
 import com.bergerkiller.bukkit.tc.events.SignActionEvent;
 import com.bergerkiller.bukkit.tc.signactions.SignAction;
 import com.bergerkiller.bukkit.tc.signactions.SignActionType;
+import com.bergerkiller.bukkit.tc.utils.SignPowerMap;
+import org.bukkit.Chunk;
 import org.bukkit.Material;
 import org.bukkit.World;
 import org.bukkit.block.Block;
 import org.bukkit.block.BlockFace;
-import org.bukkit.block.BlockState;
-import org.bukkit.block.Sign;
 import org.bukkit.event.EventHandler;
 import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
 import org.bukkit.event.block.BlockPhysicsEvent;
 import org.bukkit.event.block.BlockRedstoneEvent;
 import org.bukkit.event.world.ChunkLoadEvent;
+import org.bukkit.event.world.ChunkUnloadEvent;
+import org.bukkit.event.world.WorldUnloadEvent;
 
-import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.logging.Level;
 
 /**
  * Keeps track of Redstone Power for signs, raising proper Sign redstone events in the process
  */
 public class RedstoneTracker implements Listener {
+    private static final int MAX_POWER_INIT_PER_TICK = 2; // Maximum time in Ms per tick spent reading initial sign power
     private final BlockSet ignoredSigns = new BlockSet();
-    private BlockSet poweredBlocks = new BlockSet();
+    private final SignPowerMap poweredSigns = new SignPowerMap();
+    private final ArrayDeque<Chunk> pendingChunks = new ArrayDeque<Chunk>();
+    private Task pendingChunksTask = null;
 
     /* ============= Handles raw block physics in a cached manner to reduce overhead ============ */
-    private HashSet<Block> nextTickPhysicsBlocks = new HashSet<Block>();
+    private Map<World, WorldChanges> nextTickChanges = new HashMap<World, WorldChanges>();
+    private Map<World, WorldChanges> handledChanges = new HashMap<World, WorldChanges>();
     private boolean nextTickQueued = false;
     private final Runnable nextTickPhysicsHandler = new Runnable() {
-        private final ArrayList<Block> pending = new ArrayList<Block>();
-
         @Override
         public void run() {
-            CollectionBasics.setAll(this.pending, nextTickPhysicsBlocks);
-            nextTickPhysicsBlocks.clear();
+            // Swap the buffers, physics changes caused by the sign actions are handled next tick
+            Map<World, WorldChanges> changes = nextTickChanges;
+            nextTickChanges = handledChanges;
+            handledChanges = changes;
             nextTickQueued = false;
 
-            for (final Block block : this.pending) {
-                final Material type = block.getType();
-                if (MaterialUtil.ISSIGN.get(type)) {
-                    if (Util.isSupported(block)) {
-                        // Check for potential redstone changes
-                        updateRedstonePower(block);
-                    } else {
-                        // Remove from block power storage
-                        poweredBlocks.remove(block);
-                    }
-                } else if (MaterialUtil.ISREDSTONETORCH.get(type)) {
-                    // Send proper update events for all signs around this power source
-                    for (BlockFace face : FaceUtil.RADIAL) {
-                        final Block rel = block.getRelative(face);
-                        if (MaterialUtil.ISSIGN.get(rel)) {
-                            updateRedstonePower(rel);
-                        }
+            for (Map.Entry<World, WorldChanges> entry : changes.entrySet()) {
+                handleChanges(entry.getKey(), entry.getValue());
+            }
+            changes.clear();
+        }
+    };
+
+    /**
+     * Finds the signs affected by the physics changes in a world, and updates the power of every sign once
+     *
+     * @param world the changes happened in
+     * @param changes in the world
+     */
+    private void handleChanges(World world, WorldChanges changes) {
+        LongIterator iter = changes.blocks.longIterator();
+        while (iter.hasNext()) {
+            long key = iter.next();
+            int x = unpackX(key), y = unpackY(key), z = unpackZ(key);
+            Material type = WorldUtil.getBlockType(world, x, y, z);
+            if (MaterialUtil.ISSIGN.get(type)) {
+                changes.signs.add(key);
+            } else if (MaterialUtil.ISREDSTONETORCH.get(type)) {
+                // Send proper update events for all signs around this power source
+                for (BlockFace face : FaceUtil.RADIAL) {
+                    int rx = x + face.getModX();
+                    int rz = z + face.getModZ();
+                    if (MaterialUtil.ISSIGN.get(WorldUtil.getBlockType(world, rx, y, rz))) {
+                        changes.signs.add(pack(rx, y, rz));
                     }
                 }
             }
         }
-    };
+
+        iter = changes.signs.longIterator();
+        while (iter.hasNext()) {
+            long key = iter.next();
+            Block block = world.getBlockAt(unpackX(key), unpackY(key), unpackZ(key));
+            if (!MaterialUtil.ISSIGN.get(block)) {
+                // Removed by a sign action handled before
+                poweredSigns.remove(block);
+            } else if (Util.isSupported(block)) {
+                // Check for potential redstone changes
+                updateRedstonePower(block);
+            } else {
+                // Remove from block power storage
+                poweredSigns.remove(block);
+            }
+        }
+        changes.blocks.clear();
+        changes.signs.clear();
+        changes.chunks.clear();
+    }
 
     public RedstoneTracker() {
         initPowerLevels();
     }
 
+    private final Runnable pendingChunksHandler = new Runnable() {
+        @Override
+        public void run() {
+            final long startTime = System.currentTimeMillis();
+            Chunk chunk;
+            while ((chunk = pendingChunks.poll()) != null) {
+                if (chunk.isLoaded()) {
+                    initChunk(chunk);
+                }
+                if ((System.currentTimeMillis() - startTime) > MAX_POWER_INIT_PER_TICK) {
+                    break;
+                }
+            }
+            if (pendingChunks.isEmpty()) {
+                Task.stop(pendingChunksTask);
+                pendingChunksTask = null;
+            }
+        }
+    };
+
     @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
     public void onBlockPhysics(BlockPhysicsEvent event) {
-        nextTickPhysicsBlocks.add(event.getBlock());
+        Block block = event.getBlock();
+        WorldChanges changes = nextTickChanges.get(block.getWorld());
+        if (changes == null) {
+            changes = new WorldChanges();
+            nextTickChanges.put(block.getWorld(), changes);
+        }
+        changes.blocks.add(pack(block.getX(), block.getY(), block.getZ()));
+        changes.chunks.add(MathUtil.longHashToLong(block.getX() >> 4, block.getZ() >> 4));
         if (!nextTickQueued) {
+            nextTickQueued = true;
             CommonUtil.nextTick(nextTickPhysicsHandler);
         }
     }
 
     /**
-     * Initializes the power levels of all signs on a server.
-     * Should be called only once, ever, as this method is quite slow.
+     * Gets whether a sign is powered by redstone. The power state stored for the sign is used,
+     * unless blocks close to the sign changed this tick, and the new power state is not yet known.
+     *
+     * @param signBlock to check
+     * @param inverted power - True to invert the power as a result, False to get the normal result
+     * @return True if powered when not inverted, or not powered and inverted
+     */
+    public boolean isSignPowered(Block signBlock, boolean inverted) {
+        if (hasPendingChanges(signBlock)) {
+            return PowerState.isSignPowered(signBlock, inverted);
+        } else {
+            return poweredSigns.isPowered(signBlock) != inverted;
+        }
+    }
+
+    private boolean hasPendingChanges(Block signBlock) {
+        if (this.nextTickChanges.isEmpty()) {
+            return false;
+        }
+        WorldChanges changes = this.nextTickChanges.get(signBlock.getWorld());
+        if (changes == null) {
+            return false;
+        }
+        // Signs can be powered by blocks up to two blocks away
+        int x = signBlock.getX(), z = signBlock.getZ();
+        for (int cx = (x - 2) >> 4; cx <= ((x + 2) >> 4); cx++) {
+            for (int cz = (z - 2) >> 4; cz <= ((z + 2) >> 4); cz++) {
+                if (changes.chunks.contains(MathUtil.longHashToLong(cx, cz))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Schedules reading the initial power levels of the signs in all chunks currently loaded.
+     * This is done a few chunks every tick, chunks used before then are read right away.
      */
     public void initPowerLevels() {
         for (World world : WorldUtil.getWorlds()) {
-            try {
-                for (BlockState state : WorldUtil.getBlockStates(world)) {
-                    if (state instanceof Sign) {
-                        Block block = state.getBlock();
-                        LogicUtil.addOrRemove(poweredBlocks, block, PowerState.isSignPowered(block));
-                    }
-                }
-            } catch (Throwable t) {
-                TrainCarts.plugin.getLogger().log(Level.SEVERE, "Error while initializing sign power states in world " + world.getName(), t);
+            for (Chunk chunk : WorldUtil.getChunks(world)) {
+                queueChunk(chunk);
             }
         }
     }
 
+    private void queueChunk(Chunk chunk) {
+        this.pendingChunks.add(chunk);
+        if (this.pendingChunksTask == null) {
+            this.pendingChunksTask = new Task(TrainCarts.plugin) {
+                public void run() {
+                    pendingChunksHandler.run();
+                }
+            }.start(1, 1);
+        }
+    }
+
+    private void initChunk(Chunk chunk) {
+        try {
+            poweredSigns.initChunk(chunk);
+        } catch (Throwable t) {
+            TrainCarts.plugin.getLogger().log(Level.SEVERE, "Error while initializing sign power states in chunk " + chunk.getX() + "/" + chunk.getZ(), t);
+        }
+    }
+
     @EventHandler(priority = EventPriority.MONITOR)
     public void onChunkLoad(ChunkLoadEvent event) {
-        // Set the initial power state of all signs within this Chunk
+        // Find the TrainCarts signs within this Chunk and read their power before any physics happen
         try {
-            for (BlockState state : WorldUtil.getBlockStates(event.getChunk())) {
-                if (state instanceof Sign) {
-                    Block block = state.getBlock();
-                    LogicUtil.addOrRemove(poweredBlocks, block, PowerState.isSignPowered(block));
-                }
-            }
+            poweredSigns.indexChunk(event.getChunk());
         } catch (Throwable t) {
-            TrainCarts.plugin.getLogger().log(Level.SEVERE, "Error while initializing sign power states in chunk " + event.getChunk().getX() + "/" + event.getChunk().getZ(), t);
+            TrainCarts.plugin.getLogger().log(Level.SEVERE, "Error while finding signs in chunk " + event.getChunk().getX() + "/" + event.getChunk().getZ(), t);
         }
     }
 
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onChunkUnload(ChunkUnloadEvent event) {
+        poweredSigns.removeChunk(event.getChunk());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onWorldUnload(WorldUnloadEvent event) {
+        poweredSigns.removeWorld(event.getWorld());
+    }
+
     @EventHandler(priority = EventPriority.HIGHEST)
     public void onBlockRedstoneChange(BlockRedstoneEvent event) {
         if (TrainCarts.isWorldDisabled(event)) {
@@ -171,9 +291,36 @@ public class RedstoneTracker implements Listener {
         setRedstonePower(signblock, isPowered);
     }
 
+    private static long pack(int x, int y, int z) {
+        return ((long) (x & 0x3FFFFFF) << 38) | ((long) (z & 0x3FFFFFF) << 12) | (long) (y & 0xFFF);
+    }
+
+    private static int unpackX(long key) {
+        return (int) (key >> 38);
+    }
+
+    private static int unpackY(long key) {
+        return (int) (key & 0xFFF);
+    }
+
+    private static int unpackZ(long key) {
+        return (int) ((key << 26) >> 38);
+    }
+
+    /**
+     * Physics changes in a single world, which are handled the next tick
+     */
+    private static final class WorldChanges {
+        public final LongHashSet blocks = new LongHashSet();
+        public final LongHashSet signs = new LongHashSet();
+        public final LongHashSet chunks = new LongHashSet();
+    }
+
     public void setRedstonePower(final Block signblock, boolean newPowerState) {
         // Do not proceed if the sign disallows on/off changes
         if (ignoredSigns.remove(signblock)) {
+            // Remember the new power state so sign actions read the right power
+            poweredSigns.setPowered(signblock, newPowerState);
             return;
         }
 
@@ -181,12 +328,14 @@ public class RedstoneTracker implements Listener {
         SignActionEvent info = new SignActionEvent(signblock);
         SignActionType type = info.getHeader().getRedstoneAction(newPowerState);
         if (type == SignActionType.NONE) {
-            LogicUtil.addOrRemove(poweredBlocks, info.getBlock(), newPowerState);
+            if (info.getHeader().isValid()) {
+                poweredSigns.setPowered(info.getBlock(), newPowerState);
+            }
             return;
         }
 
         // Change in redstone power?
-        if (!LogicUtil.addOrRemove(poweredBlocks, info.getBlock(), newPowerState)) {
+        if (!poweredSigns.setPowered(info.getBlock(), newPowerState)) {
 
             // No change in redstone power, but a redstone change nevertheless
             SignAction.executeAll(info, SignActionType.REDSTONE_CHANGE);
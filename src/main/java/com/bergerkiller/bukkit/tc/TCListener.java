@@ -11,6 +11,7 @@ import com.bergerkiller.bukkit.common.protocol.PacketType;
 import com.bergerkiller.bukkit.common.utils.*;
 import com.bergerkiller.bukkit.common.wrappers.BlockData;
 import com.bergerkiller.bukkit.common.wrappers.HumanHand;
+import com.bergerkiller.bukkit.tc.controller.ChunkLeaseManager;
 import com.bergerkiller.bukkit.tc.controller.MinecartGroup;
 import com.bergerkiller.bukkit.tc.controller.MinecartMember;
 import com.bergerkiller.bukkit.tc.controller.MinecartMemberStore;
@@ -23,6 +24,7 @@ import com.bergerkiller.bukkit.tc.properties.CartPropertiesStore;
 import com.bergerkiller.bukkit.tc.rails.type.RailType;
 import com.bergerkiller.bukkit.tc.rails.type.RailTypeRegular;
 import com.bergerkiller.bukkit.tc.signactions.SignAction;
+import com.bergerkiller.bukkit.tc.signactions.spawner.SpawnScheduler;
 import com.bergerkiller.bukkit.tc.storage.OfflineGroupManager;
 import com.bergerkiller.bukkit.tc.tickets.TicketStore;
 import com.bergerkiller.bukkit.tc.utils.TrackMap;
@@ -97,6 +99,11 @@ public class TCListener implements Listener {
 
     @EventHandler(priority = EventPriority.LOWEST, ignoreCancelled = true)
     public void onChunkUnloadLow(ChunkUnloadEvent event) {
+        // Chunks leased by trains that keep chunks loaded
+        if (ChunkLeaseManager.isLeased(event.getChunk())) {
+            event.setCancelled(true);
+            return;
+        }
         synchronized (this.expectUnload) {
             this.expectUnload.clear();
             for (MinecartGroup mg : MinecartGroup.getGroupsUnsafe()) {
@@ -147,7 +154,9 @@ public class TCListener implements Listener {
 
     @EventHandler(priority = EventPriority.MONITOR)
     public void onChunkLoad(ChunkLoadEvent event) {
+        MinecartMemberStore.convertPendingChunk(event.getChunk());
         OfflineGroupManager.loadChunk(event.getChunk());
+        SpawnScheduler.loadChunk(event.getChunk());
     }
 
     @EventHandler(priority = EventPriority.MONITOR)
@@ -10,6 +10,7 @@ import com.bergerkiller.bukkit.common.inventory.ItemParser;
 import com.bergerkiller.bukkit.common.protocol.PacketType;
 import com.bergerkiller.bukkit.common.utils.*;
 import com.bergerkiller.bukkit.sl.API.Variables;
+import com.bergerkiller.bukkit.tc.actions.ActionTimerWheel;
 import com.bergerkiller.bukkit.tc.commands.Commands;
 import com.bergerkiller.bukkit.tc.controller.*;
 import com.bergerkiller.bukkit.tc.detector.DetectorRegion;
@@ -24,7 +25,10 @@ import com.bergerkiller.bukkit.tc.signactions.SignActionDetector;
 import com.bergerkiller.bukkit.tc.signactions.SignActionSpawn;
 import com.bergerkiller.bukkit.tc.statements.Statement;
 import com.bergerkiller.bukkit.tc.storage.OfflineGroupManager;
+import com.bergerkiller.bukkit.tc.storage.SaveQueue;
+import com.bergerkiller.bukkit.tc.storage.StoreLoader;
 import com.bergerkiller.bukkit.tc.tickets.TicketStore;
+import com.bergerkiller.bukkit.tc.utils.PlayerIndex;
 import com.bergerkiller.mountiplex.conversion.Conversion;
 
 import org.bukkit.Material;
@@ -33,6 +37,7 @@ import org.bukkit.block.Block;
 import org.bukkit.command.CommandSender;
 import org.bukkit.entity.Entity;
 import org.bukkit.entity.Player;
+import org.bukkit.event.Listener;
 import org.bukkit.event.block.BlockEvent;
 import org.bukkit.plugin.Plugin;
 import org.bukkit.plugin.java.JavaPlugin;
@@ -49,12 +54,13 @@ public class TrainCarts extends PluginBase {
      */
     public static double maxVelocity;
     public static double maxEjectDistance;
-    public static double cartDistance;
-    public static double turnedCartDistance;
-    public static double cartDistanceForcer;
-    public static double turnedCartDistanceForcer;
-    public static double nearCartDistanceFactor;
+    public static double cartDistance = 1.5;
+    public static double turnedCartDistance = 1.6;
+    public static double cartDistanceForcer = 0.1;
+    public static double turnedCartDistanceForcer = 0.2;
+    public static double nearCartDistanceFactor = 1.2;
     public static double maxCartDistance;
+    public static int rigidCouplingMinCarts;
     public static boolean breakCombinedCarts;
     public static double poweredCartBoost;
     public static double poweredRailBoost;
@@ -65,6 +71,8 @@ public class TrainCarts extends PluginBase {
     public static boolean useCoalFromStorageCart;
     public static boolean setOwnerOnPlacement;
     public static boolean keepChunksLoadedOnlyWhenMoving;
+    public static int maxRestoredMinecartsPerTick;
+    public static int maxSpawnedTrainsPerTick;
     public static boolean playSoundAtStation;
     public static int maxDetectorLength;
     public static int maxMinecartStackSize;
@@ -82,8 +90,16 @@ public class TrainCarts extends PluginBase {
     public static double manualMovementSpeed;
     public static boolean allMinecartsAreTrainCarts;
     public static boolean useNetworkSynchronizer;
+    public static double networkSyncNearDistance;
+    public static double networkSyncFarDistance;
+    public static int networkSyncReducedInterval;
+    public static int networkSyncCoarseInterval;
+    public static double networkSyncReducedTolerance;
+    public static double networkSyncCoarseTolerance;
+    public static boolean networkSyncTrainsAsUnit;
     public static boolean allowVerticalPitch;
     public static boolean allowNetherTeleport;
+    public static int trainPropertiesShards;
     public static boolean enableCeilingBlockCollision = true; // whether to allow blocks above the minecart to collide
     public static int collisionReEnterDelay = 100; // Delay before letting mobs/player enter again
     public static boolean EssentialsEnabled = false;
@@ -95,6 +111,7 @@ public class TrainCarts extends PluginBase {
     public static int tickUpdateDivider = 1; // allows slowing down of minecart physics globally (debugging!)
     public static int tickUpdateNow = 0; // forces update ticks
     private static int autoSaveInterval = 30 * 20; // autosave every 30 seconds
+    private static final int SLOW_SAVE_SNAPSHOT_TIME = 50; // snapshots taking longer than this many Ms are logged
     public static TrainCarts plugin;
     private static String currencyFormat;
     private static Task fixGroupTickTask;
@@ -103,6 +120,7 @@ public class TrainCarts extends PluginBase {
     private Task signtask;
     private Task autosaveTask;
     private TCPacketListener packetListener;
+    private RedstoneTracker redstoneTracker;
     private FileConfiguration config;
     private Map<String, ItemParser[]> parsers = new HashMap<>();
 
@@ -260,6 +278,11 @@ public class TrainCarts extends PluginBase {
         config.setHeader("maxCartDistance", "\nThe maximum allowed cart distance, after this distance the carts break apart");
         maxCartDistance = config.get("maxCartDistance", 4.0);
 
+        config.setHeader("rigidCouplingMinCarts", "\nTrains with at least this many carts move as one rigid body while fully on rails");
+        config.addHeader("rigidCouplingMinCarts", "Only the head cart is moved by physics, the other carts follow it at cartDistance along the track");
+        config.addHeader("rigidCouplingMinCarts", "This greatly reduces the cost of long trains. Set to 0 to move every cart by physics");
+        rigidCouplingMinCarts = config.get("rigidCouplingMinCarts", 0);
+
         config.setHeader("breakCombinedCarts", "\nWhether or not the combined carts (powered/storage minecarts) break up into two items");
         breakCombinedCarts = config.get("breakCombinedCarts", false);
 
@@ -325,6 +348,14 @@ public class TrainCarts extends PluginBase {
         config.setHeader("keepChunksLoadedOnlyWhenMoving", "\nWhether or not chunks are only kept loaded when the train is moving");
         keepChunksLoadedOnlyWhenMoving = config.get("keepChunksLoadedOnlyWhenMoving", false);
 
+        config.setHeader("maxRestoredMinecartsPerTick", "\nThe maximum number of unloaded Minecarts restored every tick once their chunks are loaded");
+        config.addHeader("maxRestoredMinecartsPerTick", "Trains closest to players are restored first, at least one train is restored every tick");
+        maxRestoredMinecartsPerTick = Math.max(1, config.get("maxRestoredMinecartsPerTick", 50));
+
+        config.setHeader("maxSpawnedTrainsPerTick", "\nThe maximum number of trains spawned by automatic spawn signs every tick");
+        config.addHeader("maxSpawnedTrainsPerTick", "Spawn signs due at the same time spawn in the ticks that follow");
+        maxSpawnedTrainsPerTick = Math.max(1, config.get("maxSpawnedTrainsPerTick", 2));
+
         config.setHeader("enableCeilingBlockCollision", "\nWhether to enable or cancel collisions with blocks above minecarts");
         config.addHeader("enableCeilingBlockCollision", "Some constructions depend on these block collisions to block minecarts");
         config.addHeader("enableCeilingBlockCollision", "If these collisions are unwanted, they can be turned off here");
@@ -335,6 +366,22 @@ public class TrainCarts extends PluginBase {
         config.addHeader("useNetworkSynchronizer", "With this disabled, no smoothing is applied. Only disable it if it causes problems/incompatibility");
         useNetworkSynchronizer = config.get("useNetworkSynchronizer", true);
 
+        config.setHeader("networkSyncDistance", "\nAdvanced: How often players far away from a train are sent its movement (requires useNetworkSynchronizer)");
+        config.addHeader("networkSyncDistance", "Players within the near distance are sent every movement");
+        config.addHeader("networkSyncDistance", "Players up to the far distance are sent the location every reducedInterval ticks");
+        config.addHeader("networkSyncDistance", "Players further away are sent the location every coarseInterval ticks, with less precise rotation");
+        config.addHeader("networkSyncDistance", "Set the near distance to 0 to send every movement to all players");
+        config.addHeader("networkSyncDistance", "With trainsAsUnit, all carts of a train are sent together, and only once a cart moved");
+        config.addHeader("networkSyncDistance", "further than the reducedTolerance or coarseTolerance (in blocks) from where the player last saw it");
+        ConfigurationNode networkSync = config.getNode("networkSyncDistance");
+        networkSyncNearDistance = networkSync.get("near", 32.0);
+        networkSyncFarDistance = Math.max(networkSyncNearDistance, networkSync.get("far", 64.0));
+        networkSyncReducedInterval = Math.max(1, networkSync.get("reducedInterval", 2));
+        networkSyncCoarseInterval = Math.max(1, networkSync.get("coarseInterval", 8));
+        networkSyncTrainsAsUnit = networkSync.get("trainsAsUnit", true);
+        networkSyncReducedTolerance = networkSync.get("reducedTolerance", 0.1);
+        networkSyncCoarseTolerance = networkSync.get("coarseTolerance", 0.5);
+
         config.setHeader("maxDetectorLength", "\nThe maximum length a detector region (between two detectors) can be");
         maxDetectorLength = config.get("maxDetectorLength", 2000);
 
@@ -380,6 +427,13 @@ public class TrainCarts extends PluginBase {
         config.setHeader("allowNetherTeleport", "\nWhether trains can be teleported to the nether (or back) when rails are laid close to the portals");
         allowNetherTeleport = config.get("allowNetherTeleport", true);
 
+        config.setHeader("trainPropertiesShards", "\nThe number of files the properties of all trains are stored in");
+        config.addHeader("trainPropertiesShards", "With 1, all properties are stored in TrainProperties.yml");
+        config.addHeader("trainPropertiesShards", "With more, they are spread over files in the trainproperties folder, and autosave only rewrites the files that changed");
+        config.addHeader("trainPropertiesShards", "Servers with many trains should use a higher number, such as 256. Takes effect after a restart");
+        config.addHeader("trainPropertiesShards", "With more than 1, only the properties of loaded and recently used unloaded trains are kept in memory");
+        trainPropertiesShards = Math.max(1, config.get("trainPropertiesShards", 1));
+
         config.setHeader("collisionReEnterDelay", "\nThe delay (in ticks) between ejecting and re-entering by collision (e.g. mobs auto-entering carts)");
         collisionReEnterDelay = config.get("collisionReEnterDelay", collisionReEnterDelay);
 
@@ -521,19 +575,80 @@ public class TrainCarts extends PluginBase {
         return Common.VERSION;
     }
 
+    /**
+     * Gets the tracker that stores the redstone power state of signs
+     *
+     * @return redstone tracker, null if the plugin is not enabled
+     */
+    public RedstoneTracker getRedstoneTracker() {
+        return this.redstoneTracker;
+    }
+
     public void enable() {
         plugin = this;
 
         //registering
         this.register(packetListener = new TCPacketListener(), PacketType.IN_STEER_VEHICLE);
         this.register(TCListener.class);
-        this.register(RedstoneTracker.class);
+        this.register((Listener) (redstoneTracker = new RedstoneTracker()));
         this.register("train", "cart");
         Conversion.registerConverters(MinecartMemberStore.class);
 
         //Load configuration
         loadConfig();
 
+        //Start writing saved data in the background
+        SaveQueue.init();
+        final StoreLoader loader = new StoreLoader(Math.min(4, Runtime.getRuntime().availableProcessors()));
+        loader.stageDone("config");
+
+        //Read the stores on worker threads, these only touch their own data
+        //Load properties
+        loader.loadAsync("properties", new Runnable() {
+            public void run() {
+                TrainProperties.load();
+            }
+        });
+
+        //Load tickets
+        loader.loadAsync("tickets", new Runnable() {
+            public void run() {
+                TicketStore.load();
+            }
+        });
+
+        //Load groups
+        loader.loadAsync("offline trains", new Runnable() {
+            public void run() {
+                OfflineGroupManager.init(getDataFolder() + File.separator + "trains.groupdata");
+            }
+        });
+
+        //Load destinations
+        loader.loadAsync("destinations", new Runnable() {
+            public void run() {
+                PathNode.init(getDataFolder() + File.separator + "destinations.dat");
+            }
+        });
+
+        //Load detector regions and the sign locations, which refer to the regions
+        loader.loadAsync("detectors", new Runnable() {
+            public void run() {
+                DetectorRegion.init(getDataFolder() + File.separator + "detectorregions.dat");
+                SignActionDetector.INSTANCE.init(getDataFolder() + File.separator + "detectorsigns.dat");
+            }
+        });
+
+        //Load spawn sign locations
+        loader.loadAsync("spawn signs", new Runnable() {
+            public void run() {
+                SignActionSpawn.init(getDataFolder() + File.separator + "spawnsigns.dat");
+            }
+        });
+
+        //Arrival times are loaded when first used
+        ArrivalSigns.init(getDataFolder() + File.separator + "arrivaltimes.txt");
+
         //update max item stack
         if (maxMinecartStackSize != 1) {
             for (Material material : Material.values()) {
@@ -548,102 +663,111 @@ public class TrainCarts extends PluginBase {
 
         //Init signs
         SignAction.init();
+        loader.stageDone("signs and statements");
 
-        //Load properties
-        TrainProperties.load();
-
-        //Load tickets
-        TicketStore.load();
-
-        //Load groups
-        OfflineGroupManager.init(getDataFolder() + File.separator + "trains.groupdata");
-
-        //Convert Minecarts
-        MinecartMemberStore.convertAll();
+        //Everything below uses the loaded stores
+        loader.waitForLoads();
 
-        //Load destinations
-        PathNode.init(getDataFolder() + File.separator + "destinations.dat");
-
-        //Load arrival times
-        ArrivalSigns.init(getDataFolder() + File.separator + "arrivaltimes.txt");
-
-        //Load detector regions
-        DetectorRegion.init(getDataFolder() + File.separator + "detectorregions.dat");
+        //Convert Minecarts in the chunks that are already loaded, a few chunks every tick
+        MinecartMemberStore.convertAllLater();
 
-        //Load detector sign locations
-        SignActionDetector.INSTANCE.init(getDataFolder() + File.separator + "detectorsigns.dat");
-        
-        //Load spawn sign locations
-        SignActionSpawn.init(getDataFolder() + File.separator + "spawnsigns.dat");
+        //Start the spawn sign timers
+        SignActionSpawn.startAll();
 
         //Restore carts where possible
         TrainCarts.plugin.log(Level.INFO, "Restoring trains and loading nearby chunks...");
         OfflineGroupManager.refresh();
+        loader.stageDone("restore trains");
 
-        // Start the path finding task
-        PathProvider.init();
+        // Start the path finding task, resuming pending operations
+        PathProvider.init(getDataFolder() + File.separator + "pendingpaths.dat");
 
         //Activate all detector regions with trains that are on it
         DetectorRegion.detectAllMinecarts();
+        loader.stageDone("path finding and detectors");
+        loader.finish();
 
         // Hackish fix the chunk persistence failing
         fixGroupTickTask = new TrainUpdateTask(this).start(1, 1);
 
+        // Players near trains, signs and effects are looked up by chunk
+        PlayerIndex.init();
+
         // Routinely saves TrainCarts changed state information to disk (autosave=true)
         autosaveTask = new AutosaveTask(this).start(autoSaveInterval, autoSaveInterval);
-
-        //Properly dispose of partly-referenced carts
-        CommonUtil.nextTick(new Runnable() {
-            public void run() {
-                for (World world : WorldUtil.getWorlds()) {
-                    OfflineGroupManager.removeBuggedMinecarts(world);
-                }
-            }
-        });
     }
 
     /**
-     * Saves all traincarts related information to file
+     * Saves all traincarts related information to file.
+     * A snapshot of each store is made right away, the files are written in the background.
+     * The time it took to make each snapshot is logged.
      */
     public void save(boolean autosave) {
+        final long startTime = System.nanoTime();
+        long[] times = new long[7];
+
         //Save properties
         TrainProperties.save(autosave);
+        times[0] = System.nanoTime();
 
         //Save Train tickets
         TicketStore.save(autosave);
+        times[1] = System.nanoTime();
 
         //Save destinations
         PathNode.save(autosave, getDataFolder() + File.separator + "destinations.dat");
+        times[2] = System.nanoTime();
 
         //Save arrival times
         if (!autosave) {
             ArrivalSigns.save(getDataFolder() + File.separator + "arrivaltimes.txt");
         }
+        times[3] = System.nanoTime();
 
         //Save spawn sign locations
         SignActionSpawn.save(autosave, getDataFolder() + File.separator + "spawnsigns.dat");
+        times[4] = System.nanoTime();
 
         //Save detector sign locations
         SignActionDetector.INSTANCE.save(autosave, getDataFolder() + File.separator + "detectorsigns.dat");
+        times[5] = System.nanoTime();
 
         //Save detector regions
         DetectorRegion.save(autosave, getDataFolder() + File.separator + "detectorregions.dat");
+        times[6] = System.nanoTime();
 
         // Save train information
-        if (!autosave) {
-            OfflineGroupManager.save(getDataFolder() + File.separator + "trains.groupdata");
+        OfflineGroupManager.save(autosave);
+
+        // Log the time spent on the main thread
+        final String[] names = {"properties", "tickets", "destinations", "arrivaltimes", "spawnsigns", "detectorsigns", "detectorregions"};
+        StringBuilder msg = new StringBuilder();
+        msg.append(autosave ? "Autosave" : "Save").append(" snapshot took ");
+        msg.append(MathUtil.round((System.nanoTime() - startTime) / 1.0E6, 2)).append(" ms (");
+        long lastTime = startTime;
+        for (int i = 0; i < names.length; i++) {
+            if (i > 0) {
+                msg.append(", ");
+            }
+            msg.append(names[i]).append(": ").append(MathUtil.round((times[i] - lastTime) / 1.0E6, 2)).append(" ms");
+            lastTime = times[i];
         }
+        msg.append(")");
+        boolean slow = (System.nanoTime() - startTime) >= SLOW_SAVE_SNAPSHOT_TIME * 1000000L;
+        log((!autosave || slow) ? Level.INFO : Level.FINE, msg.toString());
     }
 
     public void disable() {
         //Unregister listeners
         this.unregister(packetListener);
         packetListener = null;
+        redstoneTracker = null;
 
         //Stop tasks
         Task.stop(signtask);
         Task.stop(fixGroupTickTask);
         Task.stop(autosaveTask);
+        MinecartMemberStore.cancelConversion();
 
         //update max item stack
         if (maxMinecartStackSize != 1) {
@@ -672,6 +796,9 @@ public class TrainCarts extends PluginBase {
             }
         }
 
+        // Finish (or store) path finding before destinations are saved
+        PathProvider.deinit(getDataFolder() + File.separator + "pendingpaths.dat");
+
         //save all data to disk (autosave=false)
         save(false);
 
@@ -683,7 +810,13 @@ public class TrainCarts extends PluginBase {
         SignAction.deinit();
         ItemAnimation.deinit();
         OfflineGroupManager.deinit();
-        PathProvider.deinit();
+        ChunkLeaseManager.deinit();
+        TrackOccupancy.deinit();
+        PlayerIndex.deinit();
+        ActionTimerWheel.clear();
+
+        // Wait for all data to be written to disk
+        SaveQueue.deinit();
     }
 
     public boolean command(CommandSender sender, String cmd, String[] args) {
@@ -726,6 +859,7 @@ public class TrainCarts extends PluginBase {
             }
             if (tickUpdateNow > 0) {
                 tickUpdateNow--;
+                ActionTimerWheel.advance();
                 MinecartGroupStore.doFixedTick(tickUpdateDivider != 1);
             }
         }
@@ -7,8 +7,14 @@ public class Action {
     private final ToggledState started = new ToggledState();
     private int _timeTicks = 0;
     private long _startTimeMillis = 0;
+    private ActionTimerWheel.Timer _suspendTimer = null;
+    private long _suspendTick = 0;
 
     public boolean doTick() {
+        if (this._suspendTimer != null) {
+            // Suspended until the timer wheel wakes this action up
+            return false;
+        }
         if (this.started.set()) {
             this._startTimeMillis = System.currentTimeMillis();
             this.start();
@@ -18,9 +24,65 @@ public class Action {
         if (group == null || group.isLastUpdateStep()) {
             this._timeTicks++;
         }
+        if (!result) {
+            int suspendTicks = this.getSuspendTicks();
+            if (suspendTicks > 0) {
+                this._suspendTick = ActionTimerWheel.getCurrentTick();
+                this._suspendTimer = ActionTimerWheel.schedule(this, suspendTicks);
+            }
+        }
         return result;
     }
 
+    /**
+     * Gets whether this action is suspended, and is not updated until its deadline
+     *
+     * @return True if suspended, False if not
+     */
+    public final boolean isSuspended() {
+        return this._suspendTimer != null;
+    }
+
+    /**
+     * Wakes this action up if it is suspended, so it is updated again the next tick.
+     * This is done automatically when the action is removed before its deadline.
+     */
+    public final void cancelSuspend() {
+        if (this._suspendTimer != null) {
+            ActionTimerWheel.cancel(this._suspendTimer);
+            this.wake(this._suspendTimer);
+        }
+    }
+
+    final void wake(ActionTimerWheel.Timer timer) {
+        if (this._suspendTimer == timer) {
+            this._suspendTimer = null;
+            // Count the ticks in between the update before suspending and the update now
+            int skippedTicks = Math.max(0, (int) (ActionTimerWheel.getCurrentTick() - this._suspendTick) - 1);
+            this._timeTicks += skippedTicks;
+            this.onResume(skippedTicks);
+        }
+    }
+
+    /**
+     * Gets the number of ticks this action can be left alone after an update that did not finish it.
+     * Time-based wait actions return the time left until they finish, so that they are not
+     * updated every tick in between. By default 0 is returned, and the action is updated every tick.
+     *
+     * @return number of ticks to suspend this action for
+     */
+    public int getSuspendTicks() {
+        return 0;
+    }
+
+    /**
+     * Called when this action is updated again after having been suspended
+     *
+     * @param skippedTicks the number of ticks in which the action was not updated
+     */
+    protected void onResume(int skippedTicks) {
+    }
+
     /**
      * Gets the Minecart Group that applies to this Action.
      * For some actions, this may return null when no group is involved.
@@ -62,4 +124,12 @@ public class Action {
     public void start() {
         // Default implementation does nothing here
     }
+
+    /**
+     * Called when this Action is removed from the group or member, either because it finished
+     * or because it was cancelled
+     */
+    public void unbind() {
+        this.cancelSuspend();
+    }
 }
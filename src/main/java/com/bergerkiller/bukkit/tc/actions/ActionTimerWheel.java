@@ -0,0 +1,167 @@
+package com.bergerkiller.bukkit.tc.actions;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Wakes up suspended actions once their deadline is reached, so that waiting trains do not
+ * have their actions updated every tick.<br>
+ * <br>
+ * This is a hierarchical timer wheel: three levels of 64 slots, each slot of a level covering
+ * 64 times the ticks of a slot of the level below. Actions are put in the slot of the level that matches
+ * how far away their deadline is, and move down a level as their deadline comes closer.
+ * Scheduling, cancelling and advancing the wheel take constant time, no matter how many actions are waiting.
+ */
+public class ActionTimerWheel {
+    private static final int SLOT_BITS = 6;
+    private static final int SLOT_COUNT = 1 << SLOT_BITS;
+    private static final int SLOT_MASK = SLOT_COUNT - 1;
+    private static final int LEVEL_COUNT = 3;
+    private static final List<List<Timer>> slots = new ArrayList<>(LEVEL_COUNT * SLOT_COUNT);
+    private static final List<Timer> overflow = new ArrayList<>();
+    private static long currentTick = 0;
+    private static int scheduledCount = 0;
+
+    static {
+        for (int i = 0; i < (LEVEL_COUNT * SLOT_COUNT); i++) {
+            slots.add(new ArrayList<Timer>());
+        }
+    }
+
+    /**
+     * Gets the current tick of the wheel, which is advanced once every physics tick
+     *
+     * @return current tick
+     */
+    public static long getCurrentTick() {
+        return currentTick;
+    }
+
+    /**
+     * Gets the amount of actions currently suspended
+     *
+     * @return suspended action count
+     */
+    public static int getScheduledCount() {
+        return scheduledCount;
+    }
+
+    /**
+     * Schedules an action to be woken up after a number of ticks
+     *
+     * @param action to wake up
+     * @param ticks to wait, at least 1
+     * @return timer that can be cancelled
+     */
+    public static Timer schedule(Action action, int ticks) {
+        Timer timer = new Timer(action, currentTick + Math.max(1, ticks));
+        insert(timer);
+        scheduledCount++;
+        return timer;
+    }
+
+    /**
+     * Cancels a timer, so that the action is not woken up by it
+     *
+     * @param timer to cancel
+     */
+    public static void cancel(Timer timer) {
+        if (timer != null && !timer.cancelled) {
+            timer.cancelled = true;
+            scheduledCount--;
+        }
+    }
+
+    /**
+     * Advances the wheel by one tick, waking up all actions whose deadline is reached
+     */
+    public static void advance() {
+        currentTick++;
+
+        // Move the timers of higher levels down once the lower level wrapped around
+        if ((currentTick & SLOT_MASK) == 0) {
+            long level1 = currentTick >> SLOT_BITS;
+            if ((level1 & SLOT_MASK) == 0) {
+                long level2 = level1 >> SLOT_BITS;
+                cascade(overflow);
+                cascade(slots.get(2 * SLOT_COUNT + (int) (level2 & SLOT_MASK)));
+            }
+            cascade(slots.get(SLOT_COUNT + (int) (level1 & SLOT_MASK)));
+        }
+
+        // Wake up the actions of the current slot
+        List<Timer> slot = slots.get((int) (currentTick & SLOT_MASK));
+        if (slot.isEmpty()) {
+            return;
+        }
+        List<Timer> due = new ArrayList<>(slot);
+        slot.clear();
+        for (Timer timer : due) {
+            if (timer.cancelled) {
+                continue;
+            }
+            if (timer.wakeTick > currentTick) {
+                insert(timer);
+                continue;
+            }
+            timer.cancelled = true;
+            scheduledCount--;
+            timer.action.wake(timer);
+        }
+    }
+
+    /**
+     * Cancels all timers
+     */
+    public static void clear() {
+        for (List<Timer> slot : slots) {
+            slot.clear();
+        }
+        overflow.clear();
+        scheduledCount = 0;
+    }
+
+    private static void cascade(List<Timer> slot) {
+        if (slot.isEmpty()) {
+            return;
+        }
+        List<Timer> timers = new ArrayList<>(slot);
+        slot.clear();
+        for (Timer timer : timers) {
+            if (!timer.cancelled) {
+                insert(timer);
+            }
+        }
+    }
+
+    private static void insert(Timer timer) {
+        long delta = timer.wakeTick - currentTick;
+        if (delta < SLOT_COUNT) {
+            slots.get((int) (timer.wakeTick & SLOT_MASK)).add(timer);
+        } else if (delta < (1L << (2 * SLOT_BITS))) {
+            slots.get(SLOT_COUNT + (int) ((timer.wakeTick >> SLOT_BITS) & SLOT_MASK)).add(timer);
+        } else if (delta < (1L << (3 * SLOT_BITS))) {
+            slots.get(2 * SLOT_COUNT + (int) ((timer.wakeTick >> (2 * SLOT_BITS)) & SLOT_MASK)).add(timer);
+        } else {
+            overflow.add(timer);
+        }
+    }
+
+    /**
+     * A scheduled wake-up of a suspended action
+     */
+    public static final class Timer {
+        private final Action action;
+        private final long wakeTick;
+        private boolean cancelled = false;
+
+        private Timer(Action action, long wakeTick) {
+            this.action = action;
+            this.wakeTick = wakeTick;
+        }
+
+        public long getWakeTick() {
+            return this.wakeTick;
+        }
+    }
+}
@@ -16,4 +16,14 @@ public class GroupActionWaitTicks extends GroupActionWaitForever {
             return super.update();
         }
     }
+
+    @Override
+    public int getSuspendTicks() {
+        return this.ticks;
+    }
+
+    @Override
+    protected void onResume(int skippedTicks) {
+        this.ticks = Math.max(0, this.ticks - skippedTicks);
+    }
 }
@@ -15,4 +15,11 @@ public class GroupActionWaitTill extends GroupActionWaitForever {
     public boolean update() {
         return this.finishtime <= System.currentTimeMillis() || super.update();
     }
+
+    @Override
+    public int getSuspendTicks() {
+        // Ticks can take longer than 50 ms when the server lags, so only sleep half of the
+        // remaining time. The clock is checked again when woken up, and suspended again if needed.
+        return (int) ((this.finishtime - System.currentTimeMillis()) / 100);
+    }
 }
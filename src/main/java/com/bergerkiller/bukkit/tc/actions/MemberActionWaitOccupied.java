@@ -1,12 +1,23 @@
 package com.bergerkiller.bukkit.tc.actions;
 
+import com.bergerkiller.bukkit.tc.controller.MinecartGroup;
 import com.bergerkiller.bukkit.tc.controller.MinecartMember;
-import com.bergerkiller.bukkit.tc.controller.MinecartMemberStore;
+import com.bergerkiller.bukkit.tc.controller.TrackOccupancy;
 import com.bergerkiller.bukkit.tc.utils.TrackIterator;
 import org.bukkit.block.Block;
 import org.bukkit.block.BlockFace;
 
-public class MemberActionWaitOccupied extends MemberAction implements WaitAction {
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Waits until the track ahead of a member is no longer occupied by other trains.<br>
+ * <br>
+ * While occupied, the action is suspended and subscribed to the sections of the track ahead.
+ * It is woken up when a train leaves one of these sections, or after a while in case the track itself changed.
+ */
+public class MemberActionWaitOccupied extends MemberAction implements WaitAction, TrackOccupancy.SectionListener {
+    private static final int FALLBACK_INTERVAL = 100; // Ticks between full checks of the track ahead while waiting
     private final int maxsize;
     private final long delay;
     private final double launchDistance;
@@ -15,7 +26,8 @@ public class MemberActionWaitOccupied extends MemberAction implements WaitAction
     private BlockFace direction;
     private Block start;
     private double launchforce;
-    private int counter = 20;
+    private final List<Block> path = new ArrayList<>();
+    private boolean sectionChanged = false;
     private boolean breakCode = false;
 
     public MemberActionWaitOccupied(final int maxsize, final long delay, final double launchDistance, BlockFace launchDirection, Double launchVelocity) {
@@ -27,16 +39,25 @@ public class MemberActionWaitOccupied extends MemberAction implements WaitAction
     }
 
     public static boolean handleOccupied(Block start, BlockFace direction, MinecartMember<?> ignore, int maxdistance) {
+        return handleOccupied(start, direction, ignore, maxdistance, null);
+    }
+
+    private static boolean handleOccupied(Block start, BlockFace direction, MinecartMember<?> ignore, int maxdistance, List<Block> path) {
+        final MinecartGroup ignoreGroup = ignore.getGroup();
         TrackIterator iter = new TrackIterator(start, direction);
+        boolean occupied = false;
         while (iter.hasNext() && --maxdistance >= 0) {
-            MinecartMember<?> mm = MinecartMemberStore.getAt(iter.next());
-            if (mm != null && mm.getGroup() != ignore.getGroup()) {
-                ignore.setIgnoreCollisions(true);
-                return true;
+            Block block = iter.next();
+            if (path != null) {
+                path.add(block);
+            }
+            if (TrackOccupancy.isOccupied(block, ignoreGroup)) {
+                occupied = true;
+                break;
             }
         }
-        ignore.setIgnoreCollisions(false);
-        return false;
+        ignore.setIgnoreCollisions(occupied);
+        return occupied;
     }
 
     @Override
@@ -50,40 +71,83 @@ public class MemberActionWaitOccupied extends MemberAction implements WaitAction
     public void start() {
         if (this.handleOccupied()) {
             this.getGroup().stop(true);
+            // The track was just walked, the first update only has to look at the rails found
+            this.sectionChanged = true;
         } else {
             breakCode = true;
         }
     }
 
     public boolean handleOccupied() {
-        return handleOccupied(this.start, this.direction, this.getMember(), this.maxsize);
+        this.path.clear();
+        return handleOccupied(this.start, this.direction, this.getMember(), this.maxsize, this.path);
     }
 
-    @Override
-    public boolean update() {
-        if (breakCode) return true;
-        if (counter++ >= 20) {
-            if (!this.handleOccupied()) {
-                // Add Delay
-                if (this.delay > 0) {
-                    this.getGroup().getActions().addActionWait(this.delay);
-                }
-
-                // Launch
-                if (this.launchVelocity != null && this.launchDirection != null) {
-                    this.getMember().getActions().addActionLaunch(this.launchDirection, this.launchDistance, this.launchVelocity);
-                } else {
-                    this.getMember().getActions().addActionLaunch(this.direction, this.launchDistance, this.launchforce);
-                }
+    /**
+     * Checks whether the rails found the last time the track was walked are still occupied.
+     * The last rails found is the one that was occupied, so usually only that one is looked at.
+     *
+     * @return True if still occupied, False if the track has to be walked again
+     */
+    private boolean isPathOccupied() {
+        final MinecartGroup ignoreGroup = this.getGroup();
+        for (int i = this.path.size() - 1; i >= 0; i--) {
+            if (TrackOccupancy.isOccupied(this.path.get(i), ignoreGroup)) {
                 return true;
-            } else {
-                //this.wasoccupied = this.handleOccupied();
             }
-            counter = 0;
         }
         return false;
     }
 
+    @Override
+    public boolean update() {
+        if (breakCode) return true;
+
+        // When woken up by a section change only the rails looked at before can have changed,
+        // when woken up by the fallback timer the track itself may have changed as well
+        boolean occupied;
+        if (this.sectionChanged && this.isPathOccupied()) {
+            occupied = true;
+        } else {
+            occupied = this.handleOccupied();
+        }
+        this.sectionChanged = false;
+        if (occupied) {
+            TrackOccupancy.subscribe(this.getWorld(), this.path, this);
+            return false;
+        }
+
+        // Add Delay
+        if (this.delay > 0) {
+            this.getGroup().getActions().addActionWait(this.delay);
+        }
+
+        // Launch
+        if (this.launchVelocity != null && this.launchDirection != null) {
+            this.getMember().getActions().addActionLaunch(this.launchDirection, this.launchDistance, this.launchVelocity);
+        } else {
+            this.getMember().getActions().addActionLaunch(this.direction, this.launchDistance, this.launchforce);
+        }
+        return true;
+    }
+
+    @Override
+    public int getSuspendTicks() {
+        return FALLBACK_INTERVAL;
+    }
+
+    @Override
+    public void onSectionChanged() {
+        this.sectionChanged = true;
+        this.cancelSuspend();
+    }
+
+    @Override
+    public void unbind() {
+        super.unbind();
+        TrackOccupancy.unsubscribe(this);
+    }
+
     @Override
     public boolean isMovementSuppressed() {
         return true;
@@ -30,7 +30,7 @@ import java.util.Set;
 public class CartCommands {
 
     public static boolean execute(Player p, CartProperties prop, String cmd, String[] args) throws NoPermissionException {
-        TrainPropertiesStore.markForAutosave();
+        TrainPropertiesStore.markForAutosave(prop.getTrainProperties());
         if (cmd.equals("info") || cmd.equals("i")) {
             info(p, prop);
         } else if (cmd.equals("playerenter")) {
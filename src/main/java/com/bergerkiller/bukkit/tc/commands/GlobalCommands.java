@@ -3,18 +3,26 @@ package com.bergerkiller.bukkit.tc.commands;
 import com.bergerkiller.bukkit.common.MessageBuilder;
 import com.bergerkiller.bukkit.common.internal.CommonPlugin;
 import com.bergerkiller.bukkit.common.permissions.NoPermissionException;
+import com.bergerkiller.bukkit.common.utils.MathUtil;
 import com.bergerkiller.bukkit.common.utils.StringUtil;
 import com.bergerkiller.bukkit.common.utils.WorldUtil;
 import com.bergerkiller.bukkit.tc.Localization;
 import com.bergerkiller.bukkit.tc.Permission;
 import com.bergerkiller.bukkit.tc.TrainCarts;
+import com.bergerkiller.bukkit.tc.controller.ChunkLeaseManager;
 import com.bergerkiller.bukkit.tc.controller.MinecartGroup;
 import com.bergerkiller.bukkit.tc.controller.MinecartGroupStore;
+import com.bergerkiller.bukkit.tc.controller.MinecartMemberNetwork;
+import com.bergerkiller.bukkit.tc.controller.TrackOccupancy;
+import com.bergerkiller.bukkit.tc.controller.components.ChunkLeaseGroup;
 import com.bergerkiller.bukkit.tc.editor.TCMapControl;
 import com.bergerkiller.bukkit.tc.events.SignActionEvent;
 import com.bergerkiller.bukkit.tc.pathfinding.PathNode;
 import com.bergerkiller.bukkit.tc.properties.CartPropertiesStore;
 import com.bergerkiller.bukkit.tc.properties.TrainProperties;
+import com.bergerkiller.bukkit.tc.properties.TrainPropertiesStore;
+import com.bergerkiller.bukkit.tc.signactions.spawner.SpawnScheduler;
+import com.bergerkiller.bukkit.tc.signactions.spawner.TrainRecycler;
 import com.bergerkiller.bukkit.tc.statements.Statement;
 import com.bergerkiller.bukkit.tc.storage.OfflineGroupManager;
 import com.bergerkiller.bukkit.tc.tickets.Ticket;
@@ -29,6 +37,10 @@ import org.bukkit.entity.Player;
 
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
 
 public class GlobalCommands {
 
@@ -106,6 +118,47 @@ public class GlobalCommands {
             TrainCarts.plugin.save(false);
             sender.sendMessage(ChatColor.YELLOW + "TrainCarts' information has been saved to file.");
             return true;
+        } else if (args[0].equals("compactproperties")) {
+            Permission.COMMAND_COMPACTPROPERTIES.handle(sender);
+            int count = TrainPropertiesStore.compact();
+            TrainPropertiesStore.save(false);
+            sender.sendMessage(ChatColor.YELLOW + "Removed the properties of " + count + " trains that no longer exist.");
+            return true;
+        } else if (args[0].equals("stats")) {
+            Permission.COMMAND_STATS.handle(sender);
+            sender.sendMessage(ChatColor.YELLOW + "Loaded trains: " + ChatColor.WHITE + MinecartGroup.getGroups().length);
+            sender.sendMessage(ChatColor.YELLOW + "Unloaded trains: " + ChatColor.WHITE + OfflineGroupManager.getStoredCount());
+            sender.sendMessage(ChatColor.YELLOW + "Trains waiting to be restored: " + ChatColor.WHITE + OfflineGroupManager.getRestoreBacklog());
+            sender.sendMessage(ChatColor.YELLOW + "Automatic spawn signs: " + ChatColor.WHITE + SpawnScheduler.getScheduledCount() +
+                    ChatColor.YELLOW + ", paused in unloaded chunks: " + ChatColor.WHITE + SpawnScheduler.getPausedCount());
+            sender.sendMessage(ChatColor.YELLOW + "Trains recycled: " + ChatColor.WHITE + TrainRecycler.getRecycledCount() +
+                    ChatColor.YELLOW + ", reused: " + ChatColor.WHITE + TrainRecycler.getReusedCount() +
+                    ChatColor.YELLOW + " (" + ChatColor.WHITE + TrainRecycler.getReusedCartCount() + ChatColor.YELLOW + " carts not respawned)");
+            sender.sendMessage(ChatColor.YELLOW + "Trains waiting for occupied track: " + ChatColor.WHITE + TrackOccupancy.getSubscriptionCount());
+            sender.sendMessage(ChatColor.YELLOW + "Train movement packets sent: " + ChatColor.WHITE + MinecartMemberNetwork.getSentLocationPackets() +
+                    ChatColor.YELLOW + ", saved: " + ChatColor.WHITE + MinecartMemberNetwork.getSavedLocationPackets());
+            sender.sendMessage(ChatColor.YELLOW + "Chunks kept loaded by trains: " + ChatColor.WHITE + ChunkLeaseManager.getLeasedCount());
+            sender.sendMessage(ChatColor.YELLOW + "Chunk load stalls: " + ChatColor.WHITE + ChunkLeaseManager.getStallCount() +
+                    " (" + MathUtil.round(ChunkLeaseManager.getStallTime() / 1.0E6, 2) + " ms)");
+            // The trains that waited longest for chunks to load
+            List<MinecartGroup> stalled = new ArrayList<>();
+            for (MinecartGroup group : MinecartGroup.getGroups()) {
+                if (group.getChunkLeases().getStallCount() > 0) {
+                    stalled.add(group);
+                }
+            }
+            Collections.sort(stalled, new Comparator<MinecartGroup>() {
+                @Override
+                public int compare(MinecartGroup g1, MinecartGroup g2) {
+                    return Long.compare(g2.getChunkLeases().getStallTime(), g1.getChunkLeases().getStallTime());
+                }
+            });
+            for (int i = 0; i < stalled.size() && i < 5; i++) {
+                ChunkLeaseGroup leases = stalled.get(i).getChunkLeases();
+                sender.sendMessage(ChatColor.YELLOW + " - " + stalled.get(i).getProperties().getTrainName() + ": " + ChatColor.WHITE +
+                        leases.getStallCount() + " stalls (" + MathUtil.round(leases.getStallTime() / 1.0E6, 2) + " ms)");
+            }
+            return true;
         } else if (args[0].equals("fixbugged")) {
             Permission.COMMAND_FIXBUGGED.handle(sender);
             for (World world : WorldUtil.getWorlds()) {
@@ -32,7 +32,7 @@ import java.util.*;
 public class TrainCommands {
 
     public static boolean execute(Player p, TrainProperties prop, String cmd, String[] args) throws NoPermissionException {
-        TrainPropertiesStore.markForAutosave();
+        TrainPropertiesStore.markForAutosave(prop);
         if (cmd.equals("info") || cmd.equals("i")) {
             info(p, prop);
         } else if (cmd.equals("playerenter")) {
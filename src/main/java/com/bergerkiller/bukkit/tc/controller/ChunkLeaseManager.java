@@ -0,0 +1,120 @@
+package com.bergerkiller.bukkit.tc.controller;
+
+import com.bergerkiller.bukkit.common.utils.MathUtil;
+import com.bergerkiller.bukkit.common.wrappers.LongHashMap;
+import org.bukkit.Chunk;
+import org.bukkit.World;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Keeps track of the chunks leased by trains that keep chunks loaded.
+ * Every chunk stores the amount of trains leasing it, and a chunk is only
+ * released once none of the trains need it anymore. Leased chunks are not allowed to unload.
+ */
+public class ChunkLeaseManager {
+    private static final Map<UUID, LongHashMap<int[]>> leases = new HashMap<>();
+    private static int leasedCount = 0;
+    private static int stallCount = 0;
+    private static long stallTime = 0;
+
+    /**
+     * Adds a lease to a chunk
+     *
+     * @param world of the chunk
+     * @param chunkKey of the chunk
+     */
+    public static void acquire(World world, long chunkKey) {
+        LongHashMap<int[]> chunks = leases.get(world.getUID());
+        if (chunks == null) {
+            chunks = new LongHashMap<>();
+            leases.put(world.getUID(), chunks);
+        }
+        int[] count = chunks.get(chunkKey);
+        if (count == null) {
+            chunks.put(chunkKey, new int[] {1});
+            leasedCount++;
+        } else {
+            count[0]++;
+        }
+    }
+
+    /**
+     * Removes a lease from a chunk
+     *
+     * @param world of the chunk
+     * @param chunkKey of the chunk
+     * @return True if the chunk is no longer leased by any train, False if it still is
+     */
+    public static boolean release(World world, long chunkKey) {
+        LongHashMap<int[]> chunks = leases.get(world.getUID());
+        if (chunks == null) {
+            return true;
+        }
+        int[] count = chunks.get(chunkKey);
+        if (count == null) {
+            return true;
+        }
+        if (--count[0] > 0) {
+            return false;
+        }
+        chunks.remove(chunkKey);
+        leasedCount--;
+        return true;
+    }
+
+    /**
+     * Checks whether a chunk is leased by a train, and must be kept loaded
+     *
+     * @param chunk to check
+     * @return True if leased, False if not
+     */
+    public static boolean isLeased(Chunk chunk) {
+        LongHashMap<int[]> chunks = leases.get(chunk.getWorld().getUID());
+        return chunks != null && chunks.get(MathUtil.longHashToLong(chunk.getX(), chunk.getZ())) != null;
+    }
+
+    /**
+     * Gets the amount of chunks leased by trains on the server
+     *
+     * @return leased chunk count
+     */
+    public static int getLeasedCount() {
+        return leasedCount;
+    }
+
+    /**
+     * Records that a train had to wait for a chunk it needed to load
+     *
+     * @param time in nanoseconds spent loading the chunk
+     */
+    public static void recordStall(long time) {
+        stallCount++;
+        stallTime += time;
+    }
+
+    /**
+     * Gets the amount of times a train had to wait for a chunk to load since the server started
+     *
+     * @return stall count
+     */
+    public static int getStallCount() {
+        return stallCount;
+    }
+
+    /**
+     * Gets the total time trains spent waiting for chunks to load since the server started
+     *
+     * @return stall time in nanoseconds
+     */
+    public static long getStallTime() {
+        return stallTime;
+    }
+
+    public static void deinit() {
+        leases.clear();
+        leasedCount = 0;
+    }
+}
@@ -14,6 +14,9 @@ import com.bergerkiller.bukkit.tc.exception.MemberMissingException;
 import com.bergerkiller.bukkit.tc.TrainCarts;
 import com.bergerkiller.bukkit.tc.controller.components.ActionTrackerGroup;
 import com.bergerkiller.bukkit.tc.controller.components.BlockTrackerGroup;
+import com.bergerkiller.bukkit.tc.controller.components.ChunkLeaseGroup;
+import com.bergerkiller.bukkit.tc.controller.components.PhysicsBuffer;
+import com.bergerkiller.bukkit.tc.controller.components.RailTracker;
 import com.bergerkiller.bukkit.tc.controller.components.RailTrackerGroup;
 import com.bergerkiller.bukkit.tc.controller.type.MinecartMemberChest;
 import com.bergerkiller.bukkit.tc.controller.type.MinecartMemberFurnace;
@@ -21,8 +24,11 @@ import com.bergerkiller.bukkit.tc.events.*;
 import com.bergerkiller.bukkit.tc.properties.IPropertiesHolder;
 import com.bergerkiller.bukkit.tc.properties.TrainProperties;
 import com.bergerkiller.bukkit.tc.properties.TrainPropertiesStore;
+import com.bergerkiller.bukkit.tc.rails.type.RailType;
+import com.bergerkiller.bukkit.tc.signactions.spawner.TrainRecycler;
 import com.bergerkiller.bukkit.tc.storage.OfflineGroupManager;
 import com.bergerkiller.bukkit.tc.utils.TrackWalkIterator;
+import com.bergerkiller.bukkit.tc.utils.TrackWalkingPoint;
 import org.bukkit.Chunk;
 import org.bukkit.Location;
 import org.bukkit.Material;
@@ -31,6 +37,7 @@ import org.bukkit.block.Block;
 import org.bukkit.block.BlockFace;
 import org.bukkit.entity.EntityType;
 import org.bukkit.inventory.Inventory;
+import org.bukkit.util.Vector;
 
 import java.util.ArrayList;
 import java.util.Collection;
@@ -50,12 +57,15 @@ public class MinecartGroup extends MinecartGroupStore implements IPropertiesHold
     private final BlockTrackerGroup blockTracker = new BlockTrackerGroup(this);
     private final RailTrackerGroup railTracker = new RailTrackerGroup(this);
     private final ActionTrackerGroup actionTracker = new ActionTrackerGroup(this);
+    private final ChunkLeaseGroup chunkLeases = new ChunkLeaseGroup(this);
+    private final PhysicsBuffer physicsBuffer = new PhysicsBuffer();
     protected long lastSync = Long.MIN_VALUE;
     private TrainProperties prop = null;
     private boolean breakPhysics = false;
     private int teleportImmunityTick = 0;
     private double updateSpeedFactor = 1.0;
     private boolean lastUpdateStep = true;
+    private Block spawner = null;
 
     protected MinecartGroup() {
         this.ticked.set();
@@ -104,6 +114,33 @@ public class MinecartGroup extends MinecartGroupStore implements IPropertiesHold
         return this.railTracker;
     }
 
+    /**
+     * Gets the Chunk Lease Group that keeps the chunks around and ahead of this train loaded
+     *
+     * @return chunk leases
+     */
+    public ChunkLeaseGroup getChunkLeases() {
+        return this.chunkLeases;
+    }
+
+    /**
+     * Gets the spawn sign that spawned this train. Recycling signs return the train to this sign.
+     *
+     * @return spawn sign block, or null if this train was not spawned by a spawn sign
+     */
+    public Block getSpawner() {
+        return this.spawner;
+    }
+
+    /**
+     * Sets the spawn sign that spawned this train
+     *
+     * @param spawner sign block
+     */
+    public void setSpawner(Block spawner) {
+        this.spawner = spawner;
+    }
+
     public MinecartMember<?> head(int index) {
         return this.get(index);
     }
@@ -351,6 +388,8 @@ public class MinecartGroup extends MinecartGroupStore implements IPropertiesHold
             return; // Already removed
         }
         GroupRemoveEvent.call(this);
+        this.chunkLeases.releaseAll();
+        TrackOccupancy.remove(this);
         this.clear();
         if (this.prop != null) {
             TrainPropertiesStore.remove(this.prop.getTrainName());
@@ -373,12 +412,24 @@ public class MinecartGroup extends MinecartGroupStore implements IPropertiesHold
             member.unloaded = false;
         }
 
+        // Trains waiting at their spawn sign are not stored, their link to the sign would be lost
+        if (TrainRecycler.unload(this)) {
+            this.destroy();
+            return;
+        }
+
         // Event
         GroupUnloadEvent.call(this);
 
         // Unload in detector regions
         getBlockTracker().unload();
 
+        // Stop keeping chunks loaded
+        this.chunkLeases.releaseAll();
+
+        // No longer occupy the rails
+        TrackOccupancy.remove(this);
+
         // Store the group offline
         OfflineGroupManager.storeGroup(this);
 
@@ -850,6 +901,86 @@ public class MinecartGroup extends MinecartGroupStore implements IPropertiesHold
         return getRailTracker().getMemberFromRails(position);
     }
 
+    /**
+     * Gets whether the carts of this train are moved as a single rigid body, where only the head
+     * is moved by physics and the other carts follow it at a fixed distance along the track.
+     * This is the case for trains of at least {@link TrainCarts#rigidCouplingMinCarts} carts that are fully on rails.
+     *
+     * @return True if rigidly coupled, False if every cart is moved by physics
+     */
+    public boolean isRigidlyCoupled() {
+        if (TrainCarts.rigidCouplingMinCarts <= 1 || this.size() < TrainCarts.rigidCouplingMinCarts) {
+            return false;
+        }
+        for (MinecartMember<?> member : this) {
+            if (member.isDerailed() || member.isOnVertical()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Places the carts behind the head of the train at a fixed distance from each other, by walking
+     * the track backwards from the head. The walk is only trusted for as long as it stays on rails the
+     * train occupied before moving, so carts behind a switched junction, a track end or a derailed head
+     * are left to the regular physics.
+     *
+     * @return index of the first cart that could not be placed, and has to be moved by physics
+     * @throws MemberMissingException
+     * @throws GroupUnloadedException
+     */
+    private int doRigidFollow() throws MemberMissingException, GroupUnloadedException {
+        // The rail information of the head is refreshed after the move, look up where it is now
+        MinecartMember<?> head = this.head();
+        RailTracker.TrackedRail headRail = RailTracker.TrackedRail.create(head, false);
+        if (headRail.type == RailType.NONE || headRail.block == null || headRail.direction == null) {
+            return 1;
+        }
+
+        // Rails occupied by the train, the carts behind the head can only end up on these
+        HashSet<IntVector3> trainRails = new HashSet<>();
+        for (RailTracker.TrackedRail rail : this.getRailTracker().getRailInformation()) {
+            trainRails.add(rail.position);
+        }
+        trainRails.add(headRail.position);
+
+        double speed = head.getEntity().vel.length();
+        TrackWalkingPoint walker = new TrackWalkingPoint(head.getEntity().getLocation(), headRail.block, headRail.direction.getOppositeFace());
+        for (int i = 1; i < this.size(); i++) {
+            if (!walker.move(TrainCarts.cartDistance) || walker.currentTrack == null) {
+                return i;
+            }
+            if (!trainRails.contains(new IntVector3(walker.currentTrack))) {
+                return i;
+            }
+            Vector velocity = walker.direction.clone().multiply(-speed);
+            this.get(i).onPhysicsFollow(walker.currentPosition, velocity);
+            if (this.breakPhysics) {
+                return this.size();
+            }
+        }
+        return this.size();
+    }
+
+    /**
+     * Moves the carts from an index to the tail of the train by physics, keeping the
+     * carts at the right distance from the carts behind them using the speed factors
+     * computed in the physics buffer
+     *
+     * @param startIndex of the first cart to move
+     * @return True if physics were interrupted, False if not
+     * @throws MemberMissingException
+     * @throws GroupUnloadedException
+     */
+    private boolean doSpacedPostMove(int startIndex) throws MemberMissingException, GroupUnloadedException {
+        for (int i = startIndex; i < this.size(); i++) {
+            this.get(i).onPhysicsPostMove(this.physicsBuffer.getSpeedFactor(i));
+            if (this.breakPhysics) return true;
+        }
+        return false;
+    }
+
     private boolean doConnectionCheck() {
         // Check all railed minecarts follow the same tracks
         // This is important for switcher/junction split logic
@@ -904,7 +1035,8 @@ public class MinecartGroup extends MinecartGroupStore implements IPropertiesHold
     }
 
     public void doPhysics() {
-        if (this.canUnload()) {
+        final boolean canUnload = this.canUnload();
+        if (canUnload) {
             for (MinecartMember<?> m : this) {
                 if (m.isUnloaded()) {
                     this.unload();
@@ -945,6 +1077,13 @@ public class MinecartGroup extends MinecartGroupStore implements IPropertiesHold
             }
 
             this.updateSpeedFactor = 1.0;
+
+            // Keep the chunks around and ahead of the train loaded
+            if (canUnload) {
+                this.chunkLeases.releaseAll();
+            } else {
+                this.chunkLeases.update();
+            }
         } catch (GroupUnloadedException ex) {
             //this group is gone
         } catch (Throwable t) {
@@ -1031,9 +1170,6 @@ public class MinecartGroup extends MinecartGroupStore implements IPropertiesHold
                 //Simplified calculation for single carts
                 this.head().onPhysicsPostMove(1);
             } else {
-                //Get the average forwarding force of all carts
-                double force = this.getAverageForce();
-
                 //Perform forward force or not? First check if we are not messing up...
                 boolean performUpdate = true;
                 for (int i = 0; i < this.size() - 1; i++) {
@@ -1043,6 +1179,19 @@ public class MinecartGroup extends MinecartGroupStore implements IPropertiesHold
                         break;
                     }
                 }
+                boolean rigid = performUpdate && this.isRigidlyCoupled();
+
+                //Get the average forwarding force of all carts
+                //The carts are not moved until after the speed factors are computed, so those are computed at once
+                //Rigidly coupled trains do not use the speed factors, unless some carts could not follow the head
+                double force;
+                if (rigid) {
+                    force = this.getAverageForce();
+                } else {
+                    this.physicsBuffer.load(this);
+                    this.physicsBuffer.computeSpeedFactors();
+                    force = this.physicsBuffer.getAverageForce();
+                }
 
                 if (performUpdate) {
                     //update force
@@ -1053,30 +1202,22 @@ public class MinecartGroup extends MinecartGroupStore implements IPropertiesHold
 
                 //Apply force factors to carts from last cart and perform post positional updates
                 if (this.size() < 2) return false;
-                int i = 1;
-                double distance, threshold, forcer;
-                MinecartMember<?> after;
-                for (MinecartMember<?> member : this) {
-                    after = this.get(i);
-                    distance = member.getEntity().loc.distance(after.getEntity());
-                    if (member.getDirectionDifference(after) >= 45 || member.getEntity().loc.getPitchDifference(after.getEntity()) > 10) {
-                        threshold = TrainCarts.turnedCartDistance;
-                        forcer = TrainCarts.turnedCartDistanceForcer;
-                    } else {
-                        threshold = TrainCarts.cartDistance;
-                        forcer = TrainCarts.cartDistanceForcer;
-                    }
-                    if (distance < threshold) {
-                        forcer *= TrainCarts.nearCartDistanceFactor;
-                    }
-                    member.onPhysicsPostMove(1 + (forcer * (threshold - distance)));
+                int spacedIndex = 0;
+                if (rigid) {
+                    // Only the head is moved by physics, the other carts follow it along the track
+                    this.head().onPhysicsPostMove(1);
                     if (this.breakPhysics) return true;
-                    if (i++ == this.size() - 1) {
-                        this.tail().onPhysicsPostMove(1);
-                        if (this.breakPhysics) return true;
-                        break;
+                    spacedIndex = this.doRigidFollow();
+                    if (this.breakPhysics) return true;
+                    if (spacedIndex < this.size()) {
+                        // The speed factor of a cart only depends on the cart after it, and these did not move yet
+                        this.physicsBuffer.load(this);
+                        this.physicsBuffer.computeSpeedFactors();
                     }
                 }
+                if (spacedIndex < this.size() && this.doSpacedPostMove(spacedIndex)) {
+                    return true;
+                }
             }
 
             // Update directions and perform connection checks after the position changes
@@ -1109,40 +1250,8 @@ public class MinecartGroup extends MinecartGroupStore implements IPropertiesHold
                     }
                 }
             } else {
-                // Mark previous chunks for unload
-                iter = previousChunksBuffer.iterator();
-                while (iter.hasNext()) {
-                    chunk = iter.next();
-                    if (!newChunksBuffer.contains(chunk)) {
-                        cx = chunk.x;
-                        cz = chunk.z;
-                        world.unloadChunkRequest(cx, cz);
-                    }
-                }
-
-                // Load all chunks in the train area, regardless of movement
-                // Previously we only loaded chunks after moving across chunk boundaries
-                // This will hopefully fix any issues to do with failing keepChunksLoaded
-                iter = newChunksBuffer.iterator();
-                while (iter.hasNext()) {
-                    chunk = iter.next();
-                    cx = chunk.x;
-                    cz = chunk.z;
-                    world.getChunkAt(cx, cz);
-                }
-
-                /*
-                // Load the new chunks
-                iter = newChunksBuffer.iterator();
-                while (iter.hasNext()) {
-                    chunk = iter.next();
-                    if (!previousChunksBuffer.contains(chunk)) {
-                        cx = chunk.x;
-                        cz = chunk.z;
-                        world.getChunkAt(cx, cz);
-                    }
-                }
-                */
+                // Lease the chunks the train is in, loading them if needed
+                this.chunkLeases.leaseArea(world, previousChunksBuffer, newChunksBuffer);
             }
 
             return true;
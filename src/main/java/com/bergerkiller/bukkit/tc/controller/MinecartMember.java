@@ -1126,6 +1126,37 @@ public abstract class MinecartMember<T extends CommonMinecart<?>> extends Entity
             }
         }
 
+        this.onPhysicsPostMoveFinish(true);
+    }
+
+    /**
+     * Moves this Minecart to a position on the track behind the cart in front of it, instead of
+     * moving it using its own velocity. Used for the trailing carts of rigidly coupled trains,
+     * where only the head cart is moved by physics.
+     *
+     * @param position on the track to move to
+     * @param velocity the Minecart moves at
+     * @throws MemberMissingException
+     * @throws GroupUnloadedException
+     */
+    public void onPhysicsFollow(Location position, Vector velocity) throws MemberMissingException, GroupUnloadedException {
+        this.checkMissing();
+
+        // Refresh last-update direction and block information
+        this.directionFrom = this.directionTo;
+        this.getRailTracker().updateLast();
+
+        // Keep the rotation, it is updated from the movement below
+        Location to = position.clone();
+        to.setYaw(entity.loc.getYaw());
+        to.setPitch(entity.loc.getPitch());
+        entity.loc.set(to);
+        entity.vel.set(velocity);
+
+        this.onPhysicsPostMoveFinish(false);
+    }
+
+    private void onPhysicsPostMoveFinish(boolean checkCollisions) throws MemberMissingException, GroupUnloadedException {
         // Activator rail logic here - we can't do it in the rail properly
         if (this.getRailType() instanceof RailTypeActivator) {
             final boolean powered = ((RailTypeActivator) this.getRailType()).isPowered();
@@ -1162,9 +1193,11 @@ public abstract class MinecartMember<T extends CommonMinecart<?>> extends Entity
         }
 
         // Minecart collisions
-        for (Entity near : entity.getNearbyEntities(0.2, 0, 0.2)) {
-            if (near instanceof Minecart && !this.entity.isPassenger(near)) {
-                EntityUtil.doCollision(near, this.entity.getEntity());
+        if (checkCollisions) {
+            for (Entity near : entity.getNearbyEntities(0.2, 0, 0.2)) {
+                if (near instanceof Minecart && !this.entity.isPassenger(near)) {
+                    EntityUtil.doCollision(near, this.entity.getEntity());
+                }
             }
         }
 
@@ -9,10 +9,17 @@ import com.bergerkiller.bukkit.common.utils.LogicUtil;
 import com.bergerkiller.bukkit.common.utils.MathUtil;
 import com.bergerkiller.bukkit.common.utils.PacketUtil;
 import com.bergerkiller.bukkit.tc.TrainCarts;
+import com.bergerkiller.bukkit.tc.utils.PlayerIndex;
+import org.bukkit.World;
 import org.bukkit.entity.Player;
 import org.bukkit.util.Vector;
 
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
 import java.util.Set;
 import java.util.logging.Level;
 
@@ -22,7 +29,18 @@ public class MinecartMemberNetwork extends EntityNetworkController<CommonMinecar
     public static final double VELOCITY_SOUND_RADIUS = 16;
     public static final double VELOCITY_SOUND_RADIUS_SQUARED = VELOCITY_SOUND_RADIUS * VELOCITY_SOUND_RADIUS;
     private static final Vector ZERO_VELOCITY = new Vector(0.0, 0.0, 0.0);
+    private static final int DETAIL_FULL = 0;
+    private static final int DETAIL_REDUCED = 1;
+    private static final int DETAIL_COARSE = 2;
+    private static final float REDUCED_ROTATION_STEP = 360.0f / 64.0f; // Rotation precision at mid range
+    private static final float COARSE_ROTATION_STEP = 360.0f / 32.0f; // Rotation precision far away
+    private static long sentLocationPackets = 0;
+    private static long savedLocationPackets = 0;
     private final Set<Player> velocityUpdateReceivers = new HashSet<>();
+    private final Map<Player, ViewerSync> viewerSyncs = new HashMap<>();
+    private boolean filterLocationPackets = false;
+    private boolean reducedViewersBehind = false;
+    private int syncTick = 0;
 
     public MinecartMemberNetwork() {
         final VectorAbstract velLiveBase = this.velLive;
@@ -92,9 +110,285 @@ public class MinecartMemberNetwork extends EntityNetworkController<CommonMinecar
         }
     }
 
+    /**
+     * Updates which players receive the velocity of this cart, which controls the minecart sound.
+     * Only the current receivers and the players near the cart are looked at.
+     */
+    private void updateVelocityReceivers() {
+        Iterator<Player> iter = this.velocityUpdateReceivers.iterator();
+        while (iter.hasNext()) {
+            Player player = iter.next();
+            if (getEntity().loc.distanceSquared(player) > VELOCITY_SOUND_RADIUS_SQUARED) {
+                iter.remove();
+                PacketUtil.sendPacket(player, getVelocityPacket(0.0, 0.0, 0.0));
+            }
+        }
+        Collection<Player> viewers = getViewers();
+        for (Player player : PlayerIndex.getNearby(getEntity().getLocation(), VELOCITY_SOUND_RADIUS)) {
+            if (!this.velocityUpdateReceivers.contains(player) && viewers.contains(player)) {
+                this.velocityUpdateReceivers.add(player);
+                PacketUtil.sendPacket(player, getVelocityPacket(velSynched.getX(), velSynched.getY(), velSynched.getZ()));
+            }
+        }
+    }
+
+    /**
+     * Gets the level of detail at which the players near a number of carts receive location updates,
+     * based on the distance to the closest cart. Players are looked up in the {@link PlayerIndex},
+     * so players far away are not looked at.
+     *
+     * @param controllers of the carts
+     * @return detail level of the players closer than the far distance, players not contained
+     *         receive coarse updates. Null if all players receive full updates.
+     */
+    private static Map<Player, Integer> getDetailLevels(MinecartMemberNetwork... controllers) {
+        if (TrainCarts.networkSyncNearDistance <= 0.0) {
+            return null;
+        }
+
+        // Find a sphere containing all the carts
+        double centerX = 0.0, centerY = 0.0, centerZ = 0.0;
+        for (MinecartMemberNetwork controller : controllers) {
+            centerX += controller.getEntity().loc.getX();
+            centerY += controller.getEntity().loc.getY();
+            centerZ += controller.getEntity().loc.getZ();
+        }
+        centerX /= controllers.length;
+        centerY /= controllers.length;
+        centerZ /= controllers.length;
+        double radiusSquared = 0.0;
+        for (MinecartMemberNetwork controller : controllers) {
+            double dx = controller.getEntity().loc.getX() - centerX;
+            double dy = controller.getEntity().loc.getY() - centerY;
+            double dz = controller.getEntity().loc.getZ() - centerZ;
+            radiusSquared = Math.max(radiusSquared, dx * dx + dy * dy + dz * dz);
+        }
+
+        final double nearSquared = TrainCarts.networkSyncNearDistance * TrainCarts.networkSyncNearDistance;
+        final double farSquared = TrainCarts.networkSyncFarDistance * TrainCarts.networkSyncFarDistance;
+        final double radius = Math.sqrt(radiusSquared) + TrainCarts.networkSyncFarDistance;
+        Map<Player, Integer> levels = new HashMap<>();
+        World world = controllers[0].getEntity().getWorld();
+        for (Player player : PlayerIndex.getNearby(world, centerX, centerY, centerZ, radius)) {
+            double distanceSquared = Double.MAX_VALUE;
+            for (MinecartMemberNetwork controller : controllers) {
+                distanceSquared = Math.min(distanceSquared, controller.getEntity().loc.distanceSquared(player));
+            }
+            if (distanceSquared <= nearSquared) {
+                levels.put(player, DETAIL_FULL);
+            } else if (distanceSquared <= farSquared) {
+                levels.put(player, DETAIL_REDUCED);
+            }
+        }
+        return levels;
+    }
+
+    private static int getDetailLevel(Map<Player, Integer> levels, Player player) {
+        if (levels == null) {
+            return DETAIL_FULL;
+        }
+        Integer level = levels.get(player);
+        return (level == null) ? DETAIL_COARSE : level;
+    }
+
+    /**
+     * Updates the detail level of all viewers. Viewers that receive reduced updates are sent an
+     * absolute location once every few ticks, instead of every relative movement.
+     * Viewers that move close again are sent the synchronized location, so relative updates apply again.
+     */
+    private void syncViewerDetails() {
+        this.syncTick++;
+        this.reducedViewersBehind = false;
+        Map<Player, Integer> levels = getDetailLevels(this);
+        for (Player player : getViewers()) {
+            ViewerSync sync = this.getViewerSync(player);
+            int level = getDetailLevel(levels, player);
+            if (level == DETAIL_FULL) {
+                if (sync.level != DETAIL_FULL) {
+                    sync.level = DETAIL_FULL;
+                    sync.send(player, this, DETAIL_FULL);
+                }
+                continue;
+            }
+            sync.level = level;
+            if (sync.isBehind(this)) {
+                if (this.syncTick >= sync.nextSyncTick) {
+                    sync.send(player, this, level);
+                    sync.nextSyncTick = this.syncTick + getSyncInterval(level);
+                } else {
+                    this.reducedViewersBehind = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * Updates the detail level of all viewers of a train, treating the train as a unit.
+     * The level of a viewer is that of the closest cart, and all carts are sent to the viewer
+     * in the same tick, so the train does not fall apart for viewers far away.<br>
+     * <br>
+     * Viewers far away are only sent the train again when a cart moved further than a tolerance
+     * from the location last sent, or turned noticeably. The speed of the train is used to predict
+     * when this happens, so the train is not checked every tick. This is scheduled using the sync state
+     * of the first cart the viewer can see, which is not always the head of the train.
+     *
+     * @param controllers of all carts of the train, head first
+     */
+    private static void syncTrainViewerDetails(MinecartMemberNetwork[] controllers) {
+        MinecartMemberNetwork head = controllers[0];
+        head.syncTick++;
+        head.reducedViewersBehind = false;
+        Map<Player, Integer> levels = getDetailLevels(controllers);
+        Set<Player> viewers = new LinkedHashSet<>();
+        for (MinecartMemberNetwork controller : controllers) {
+            viewers.addAll(controller.getViewers());
+        }
+        for (Player player : viewers) {
+            int level = getDetailLevel(levels, player);
+            MinecartMemberNetwork first = null;
+            for (MinecartMemberNetwork controller : controllers) {
+                if (controller.getViewers().contains(player)) {
+                    first = controller;
+                    break;
+                }
+            }
+            ViewerSync firstSync = first.getViewerSync(player);
+            if (level == DETAIL_FULL) {
+                for (MinecartMemberNetwork controller : controllers) {
+                    if (!controller.getViewers().contains(player)) {
+                        continue;
+                    }
+                    ViewerSync sync = controller.getViewerSync(player);
+                    if (sync.level != DETAIL_FULL) {
+                        sync.level = DETAIL_FULL;
+                        sync.send(player, controller, DETAIL_FULL);
+                    }
+                }
+                continue;
+            }
+            int viewedCount = 0;
+            for (MinecartMemberNetwork controller : controllers) {
+                if (controller.getViewers().contains(player)) {
+                    controller.getViewerSync(player).level = level;
+                    viewedCount++;
+                }
+            }
+            if (head.syncTick < firstSync.nextSyncTick) {
+                head.reducedViewersBehind |= firstSync.isBehind(first);
+                continue;
+            }
+
+            // Find how far the carts moved from the location the viewer last received
+            double tolerance = (level == DETAIL_REDUCED) ? TrainCarts.networkSyncReducedTolerance : TrainCarts.networkSyncCoarseTolerance;
+            double maxDistance = 0.0;
+            boolean turned = false;
+            for (MinecartMemberNetwork controller : controllers) {
+                ViewerSync sync = controller.viewerSyncs.get(player);
+                if (sync == null) {
+                    continue;
+                }
+                maxDistance = Math.max(maxDistance, sync.getDistance(controller));
+                turned |= sync.isTurned(controller, level);
+            }
+
+            // Once the train stops, the exact location is sent so it does not stay slightly off
+            double speed = head.getEntity().vel.length();
+            if (turned || maxDistance > tolerance || (maxDistance > 0.0 && speed <= 1e-4)) {
+                for (MinecartMemberNetwork controller : controllers) {
+                    ViewerSync sync = controller.viewerSyncs.get(player);
+                    if (sync != null) {
+                        sync.send(player, controller, level);
+                    }
+                }
+                firstSync.nextSyncTick = head.syncTick + getSyncInterval(level);
+            } else {
+                // Predict when the train moves past the tolerance at its current speed
+                savedLocationPackets += viewedCount;
+                int ticksLeft = getSyncInterval(level);
+                if (speed > 1e-4) {
+                    ticksLeft = MathUtil.clamp((int) ((tolerance - maxDistance) / speed), 1, ticksLeft);
+                }
+                firstSync.nextSyncTick = head.syncTick + ticksLeft;
+                head.reducedViewersBehind |= (maxDistance > 0.0);
+            }
+        }
+    }
+
+    private ViewerSync getViewerSync(Player player) {
+        ViewerSync sync = this.viewerSyncs.get(player);
+        if (sync == null) {
+            sync = new ViewerSync();
+            sync.setSynched(this);
+            this.viewerSyncs.put(player, sync);
+        }
+        return sync;
+    }
+
+    private static int getSyncInterval(int level) {
+        return (level == DETAIL_REDUCED) ? TrainCarts.networkSyncReducedInterval : TrainCarts.networkSyncCoarseInterval;
+    }
+
+    private static float getRotationStep(int level) {
+        return (level == DETAIL_REDUCED) ? REDUCED_ROTATION_STEP : COARSE_ROTATION_STEP;
+    }
+
+    private static float quantizeAngle(float angle, float step) {
+        return Math.round(angle / step) * step;
+    }
+
+    /**
+     * Gets the amount of train movement packets sent to players since the server started
+     *
+     * @return sent packet count
+     */
+    public static long getSentLocationPackets() {
+        return sentLocationPackets;
+    }
+
+    /**
+     * Gets the amount of train movement packets not sent to players, because the players
+     * were too far away for them to be needed, since the server started
+     *
+     * @return saved packet count
+     */
+    public static long getSavedLocationPackets() {
+        return savedLocationPackets;
+    }
+
+    @Override
+    public void broadcast(CommonPacket packet) {
+        if (this.filterLocationPackets) {
+            this.broadcastFullDetail(packet);
+        } else {
+            super.broadcast(packet);
+        }
+    }
+
+    @Override
+    public void broadcast(CommonPacket packet, boolean self) {
+        if (this.filterLocationPackets) {
+            this.broadcastFullDetail(packet);
+        } else {
+            super.broadcast(packet, self);
+        }
+    }
+
+    private void broadcastFullDetail(CommonPacket packet) {
+        for (Player player : getViewers()) {
+            ViewerSync sync = this.viewerSyncs.get(player);
+            if (sync == null || sync.level == DETAIL_FULL) {
+                PacketUtil.sendPacket(player, packet);
+                sentLocationPackets++;
+            } else {
+                savedLocationPackets++;
+            }
+        }
+    }
+
     @Override
     public void makeHidden(Player player, boolean instant) {
         super.makeHidden(player, instant);
+        this.viewerSyncs.remove(player);
         this.velocityUpdateReceivers.remove(player);
         PacketUtil.sendPacket(player, PacketType.OUT_ENTITY_VELOCITY.newInstance(getEntity().getEntityId(), ZERO_VELOCITY));
     }
@@ -149,7 +443,8 @@ public class MinecartMemberNetwork extends EntityNetworkController<CommonMinecar
                 if (!needsSync) {
                     for (i = 0; i < count; i++) {
                         MinecartMemberNetwork controller = networkControllers[i];
-                        if (controller.getEntity().isPositionChanged() || controller.getEntity().getDataWatcher().isChanged() || controller.isPassengersChanged()) {
+                        if (controller.getEntity().isPositionChanged() || controller.getEntity().getDataWatcher().isChanged() ||
+                                controller.isPassengersChanged() || controller.reducedViewersBehind) {
                             needsSync = true;
                             break;
                         }
@@ -170,6 +465,9 @@ public class MinecartMemberNetwork extends EntityNetworkController<CommonMinecar
                     for (i = 0; i < count; i++) {
                         networkControllers[i].syncSelf(group.get(i), moved, rotated, false);
                     }
+                    if (TrainCarts.networkSyncTrainsAsUnit) {
+                        syncTrainViewerDetails(networkControllers);
+                    }
                 }
             }
         } catch (Throwable t) {
@@ -196,8 +494,20 @@ public class MinecartMemberNetwork extends EntityNetworkController<CommonMinecar
         getEntity().setPositionChanged(false);
         if (absolute) {
             syncLocationAbsolute(posX, posY, posZ, rotYaw, rotPitch);
+            for (ViewerSync sync : this.viewerSyncs.values()) {
+                sync.setSynched(this);
+            }
         } else {
-            syncLocation(moved, rotated, posX, posY, posZ, rotYaw, rotPitch);
+            // Relative movement is only sent to nearby viewers, the others get absolute updates less often
+            this.filterLocationPackets = true;
+            try {
+                syncLocation(moved, rotated, posX, posY, posZ, rotYaw, rotPitch);
+            } finally {
+                this.filterLocationPackets = false;
+            }
+            if (!TrainCarts.networkSyncTrainsAsUnit) {
+                syncViewerDetails();
+            }
         }
 
         // Velocity is used exclusively for controlling the minecart's audio level
@@ -229,9 +539,7 @@ public class MinecartMemberNetwork extends EntityNetworkController<CommonMinecar
 
         // Update the velocity update receivers
         if (isSoundEnabled()) {
-            for (Player player : getViewers()) {
-                updateVelocity(player);
-            }
+            updateVelocityReceivers();
         }
 
         // Synchronize meta data
@@ -240,4 +548,55 @@ public class MinecartMemberNetwork extends EntityNetworkController<CommonMinecar
         // Passengers
         syncPassengers();
     }
+
+    /**
+     * The location last sent to a viewer that does not receive every relative movement
+     */
+    private static final class ViewerSync {
+        public int level = DETAIL_FULL;
+        public int nextSyncTick = 0;
+        public double x, y, z;
+        public float yaw, pitch;
+
+        public void setSynched(MinecartMemberNetwork network) {
+            this.x = network.locSynched.getX();
+            this.y = network.locSynched.getY();
+            this.z = network.locSynched.getZ();
+            this.yaw = network.locSynched.getYaw();
+            this.pitch = network.locSynched.getPitch();
+        }
+
+        public boolean isBehind(MinecartMemberNetwork network) {
+            return this.x != network.locSynched.getX() || this.y != network.locSynched.getY() ||
+                    this.z != network.locSynched.getZ() || this.yaw != network.locSynched.getYaw() ||
+                    this.pitch != network.locSynched.getPitch();
+        }
+
+        public double getDistance(MinecartMemberNetwork network) {
+            double dx = network.locSynched.getX() - this.x;
+            double dy = network.locSynched.getY() - this.y;
+            double dz = network.locSynched.getZ() - this.z;
+            return Math.sqrt(dx * dx + dy * dy + dz * dz);
+        }
+
+        public boolean isTurned(MinecartMemberNetwork network, int level) {
+            float step = getRotationStep(level);
+            return quantizeAngle(this.yaw, step) != quantizeAngle(network.locSynched.getYaw(), step) ||
+                    quantizeAngle(this.pitch, step) != quantizeAngle(network.locSynched.getPitch(), step);
+        }
+
+        public void send(Player player, MinecartMemberNetwork network, int level) {
+            this.setSynched(network);
+            float sentYaw = this.yaw;
+            float sentPitch = this.pitch;
+            if (level != DETAIL_FULL) {
+                sentYaw = quantizeAngle(sentYaw, getRotationStep(level));
+                sentPitch = quantizeAngle(sentPitch, getRotationStep(level));
+            }
+            CommonMinecart<?> entity = network.getEntity();
+            PacketUtil.sendPacket(player, PacketType.OUT_ENTITY_TELEPORT.newInstance(entity.getEntityId(),
+                    this.x, this.y, this.z, sentYaw, sentPitch, entity.isOnGround()));
+            sentLocationPackets++;
+        }
+    }
 }
@@ -1,5 +1,6 @@
 package com.bergerkiller.bukkit.tc.controller;
 
+import com.bergerkiller.bukkit.common.Task;
 import com.bergerkiller.bukkit.common.bases.IntVector3;
 import com.bergerkiller.bukkit.common.collections.ClassMap;
 import com.bergerkiller.bukkit.common.controller.DefaultEntityController;
@@ -13,10 +14,12 @@ import com.bergerkiller.bukkit.common.entity.type.*;
 import com.bergerkiller.bukkit.common.internal.hooks.EntityHook;
 import com.bergerkiller.bukkit.common.utils.*;
 import com.bergerkiller.bukkit.common.wrappers.HumanHand;
+import com.bergerkiller.bukkit.common.wrappers.LongHashSet;
 import com.bergerkiller.bukkit.tc.TrainCarts;
 import com.bergerkiller.bukkit.tc.controller.type.*;
 import com.bergerkiller.bukkit.tc.events.MemberSpawnEvent;
 import com.bergerkiller.bukkit.tc.properties.CartProperties;
+import com.bergerkiller.bukkit.tc.storage.OfflineGroupManager;
 import com.bergerkiller.mountiplex.conversion.annotations.ConverterMethod;
 
 import org.bukkit.GameMode;
@@ -28,13 +31,20 @@ import org.bukkit.entity.Minecart;
 import org.bukkit.entity.Player;
 import org.bukkit.inventory.ItemStack;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 
 public abstract class MinecartMemberStore {
     private static ClassMap<Class<?>> controllers = new ClassMap<>();
     private static boolean has_get_controller_typed = true; // compatibility with earlier ~1.12-v2 BKCommonLib
+    private static final int MAX_CONVERSION_PER_TICK = 5; // Maximum time in Ms per tick spent converting loaded chunks
+    private static final ArrayDeque<org.bukkit.Chunk> pendingChunks = new ArrayDeque<>();
+    private static final Map<UUID, LongHashSet> pendingChunkKeys = new HashMap<>();
+    private static Task conversionTask = null;
 
     static {
         controllers.put(CommonMinecartRideable.class, MinecartMemberRideable.class);
@@ -47,25 +57,95 @@ public abstract class MinecartMemberStore {
     }
 
     /**
-     * Converts all Minecarts on all enabled worlds into Minecart Members
+     * Schedules the conversion of all Minecarts in the chunks currently loaded on all enabled worlds.
+     * Chunks are converted a few at a time every tick, or right away when they are loaded again
+     * before their turn. Bugged Minecarts found in these chunks are removed.
      */
-    public static void convertAll() {
-        List<Minecart> minecarts = new ArrayList<>();
+    public static void convertAllLater() {
         for (org.bukkit.World world : WorldUtil.getWorlds()) {
             if (TrainCarts.isWorldDisabled(world)) {
                 continue;
             }
-            for (org.bukkit.entity.Entity entity : WorldUtil.getEntities(world)) {
-                if (canConvert(entity)) {
-                    minecarts.add((Minecart) entity);
+            LongHashSet chunks = pendingChunkKeys.get(world.getUID());
+            if (chunks == null) {
+                chunks = new LongHashSet();
+                pendingChunkKeys.put(world.getUID(), chunks);
+            }
+            for (org.bukkit.Chunk chunk : WorldUtil.getChunks(world)) {
+                long key = MathUtil.longHashToLong(chunk.getX(), chunk.getZ());
+                if (!chunks.contains(key)) {
+                    chunks.add(key);
+                    pendingChunks.add(chunk);
+                }
+            }
+        }
+        if (conversionTask == null && !pendingChunks.isEmpty()) {
+            conversionTask = new Task(TrainCarts.plugin) {
+                public void run() {
+                    final long startTime = System.currentTimeMillis();
+                    org.bukkit.Chunk chunk;
+                    while ((chunk = pendingChunks.poll()) != null) {
+                        if (removePendingChunk(chunk)) {
+                            convertChunk(chunk);
+                        }
+                        if ((System.currentTimeMillis() - startTime) > MAX_CONVERSION_PER_TICK) {
+                            break;
+                        }
+                    }
+                    if (pendingChunks.isEmpty()) {
+                        cancelConversion();
+                    }
                 }
+            }.start(1, 1);
+        }
+    }
+
+    /**
+     * Converts the Minecarts in a chunk right away if the chunk was still waiting to be converted.
+     * Should be called when a chunk is loaded.
+     *
+     * @param chunk that was loaded
+     */
+    public static void convertPendingChunk(org.bukkit.Chunk chunk) {
+        if (!pendingChunkKeys.isEmpty() && removePendingChunk(chunk)) {
+            convertChunk(chunk);
+        }
+    }
+
+    /**
+     * Stops converting the chunks that are still waiting to be converted
+     */
+    public static void cancelConversion() {
+        Task.stop(conversionTask);
+        conversionTask = null;
+        pendingChunks.clear();
+        pendingChunkKeys.clear();
+    }
+
+    private static boolean removePendingChunk(org.bukkit.Chunk chunk) {
+        LongHashSet chunks = pendingChunkKeys.get(chunk.getWorld().getUID());
+        long key = MathUtil.longHashToLong(chunk.getX(), chunk.getZ());
+        if (chunks == null || !chunks.contains(key)) {
+            return false;
+        }
+        chunks.remove(key);
+        if (chunks.isEmpty()) {
+            pendingChunkKeys.remove(chunk.getWorld().getUID());
+        }
+        return chunk.isLoaded();
+    }
+
+    private static void convertChunk(org.bukkit.Chunk chunk) {
+        OfflineGroupManager.removeBuggedMinecarts(chunk);
+        List<Minecart> minecarts = new ArrayList<>();
+        for (org.bukkit.entity.Entity entity : WorldUtil.getEntities(chunk)) {
+            if (canConvert(entity)) {
+                minecarts.add((Minecart) entity);
             }
         }
-        // Convert
         for (Minecart minecart : minecarts) {
             convert(minecart);
         }
-        minecarts.clear();
     }
 
     /**
@@ -0,0 +1,311 @@
+package com.bergerkiller.bukkit.tc.controller;
+
+import com.bergerkiller.bukkit.common.bases.IntVector3;
+import com.bergerkiller.bukkit.tc.controller.components.RailTracker.TrackedRail;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Keeps track of the rails blocks occupied by trains, as found by the rail tracker of every train.
+ * This allows checking whether rails are occupied without looking at the entities on the world.<br>
+ * <br>
+ * Rails are divided into sections of 16x16x16 blocks. Listeners can subscribe to the sections
+ * of a piece of track, and are notified once a train leaves rails in one of those sections.
+ * Subscriptions are removed when notified, and have to be renewed if the listener needs to keep waiting.
+ */
+public class TrackOccupancy {
+    private static final Map<UUID, WorldOccupancy> worlds = new HashMap<>();
+    private static final Map<MinecartGroup, GroupRails> groups = new IdentityHashMap<>();
+    private static final Map<SectionListener, Subscription> subscriptions = new IdentityHashMap<>();
+
+    /**
+     * Updates the rails occupied by a train. Should be called after the rail tracker of the train refreshed.
+     *
+     * @param group to update
+     * @param rails now occupied by the train
+     */
+    public static void update(MinecartGroup group, List<TrackedRail> rails) {
+        World world = group.getWorld();
+        if (world == null) {
+            remove(group);
+            return;
+        }
+        GroupRails old = groups.get(group);
+        if (old != null && old.world == world && old.isSame(rails)) {
+            return; // Train did not move onto other rails, which is the case most ticks
+        }
+        Set<IntVector3> positions = new HashSet<>(rails.size() * 2);
+        for (TrackedRail rail : rails) {
+            if (rail.block != null) {
+                positions.add(rail.position);
+            }
+        }
+        Set<IntVector3> changedSections = Collections.emptySet();
+        if (old != null) {
+            if (old.world == world && old.positions.equals(positions)) {
+                groups.put(group, new GroupRails(world, positions, rails));
+                return; // Same rails in a different order
+            }
+            changedSections = leave(group, old, (old.world == world) ? positions : Collections.<IntVector3>emptySet());
+        }
+        WorldOccupancy occupancy = getWorld(world, true);
+        for (IntVector3 position : positions) {
+            if (old == null || old.world != world || !old.positions.contains(position)) {
+                List<MinecartGroup> occupants = occupancy.rails.get(position);
+                if (occupants == null) {
+                    occupants = new ArrayList<>(1);
+                    occupancy.rails.put(position, occupants);
+                }
+                occupants.add(group);
+            }
+        }
+        groups.put(group, new GroupRails(world, positions, rails));
+        if (old != null) {
+            notifySections(old.world, changedSections);
+        }
+    }
+
+    /**
+     * Removes all rails occupied by a train. Should be called when the train is removed or unloaded.
+     *
+     * @param group to remove
+     */
+    public static void remove(MinecartGroup group) {
+        GroupRails old = groups.remove(group);
+        if (old != null) {
+            notifySections(old.world, leave(group, old, Collections.<IntVector3>emptySet()));
+        }
+    }
+
+    /**
+     * Checks whether a rails block is occupied by a train
+     *
+     * @param railsBlock to check
+     * @param ignore train to ignore, null to check all trains
+     * @return True if a train other than the one ignored occupies the rails, False if not
+     */
+    public static boolean isOccupied(Block railsBlock, MinecartGroup ignore) {
+        WorldOccupancy occupancy = getWorld(railsBlock.getWorld(), false);
+        if (occupancy == null) {
+            return false;
+        }
+        List<MinecartGroup> occupants = occupancy.rails.get(new IntVector3(railsBlock));
+        if (occupants != null) {
+            for (MinecartGroup occupant : occupants) {
+                if (occupant != ignore) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Subscribes a listener to the sections of the rails specified. The listener is notified once,
+     * the first time a train leaves rails in one of these sections. Any previous subscription
+     * of the listener is replaced.
+     *
+     * @param world the rails are on
+     * @param rails to subscribe to
+     * @param listener to notify
+     */
+    public static void subscribe(World world, Collection<Block> rails, SectionListener listener) {
+        unsubscribe(listener);
+        WorldOccupancy occupancy = getWorld(world, true);
+        Subscription subscription = new Subscription(world);
+        for (Block block : rails) {
+            IntVector3 section = new IntVector3(block.getX() >> 4, block.getY() >> 4, block.getZ() >> 4);
+            if (subscription.sections.add(section)) {
+                List<SectionListener> listeners = occupancy.listeners.get(section);
+                if (listeners == null) {
+                    listeners = new ArrayList<>(1);
+                    occupancy.listeners.put(section, listeners);
+                }
+                listeners.add(listener);
+            }
+        }
+        subscriptions.put(listener, subscription);
+    }
+
+    /**
+     * Removes the subscription of a listener, if it has one
+     *
+     * @param listener to unsubscribe
+     */
+    public static void unsubscribe(SectionListener listener) {
+        Subscription subscription = subscriptions.remove(listener);
+        if (subscription == null) {
+            return;
+        }
+        WorldOccupancy occupancy = getWorld(subscription.world, false);
+        if (occupancy == null) {
+            return;
+        }
+        for (IntVector3 section : subscription.sections) {
+            List<SectionListener> listeners = occupancy.listeners.get(section);
+            if (listeners != null) {
+                removeIdentity(listeners, listener);
+                if (listeners.isEmpty()) {
+                    occupancy.listeners.remove(section);
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets the amount of listeners waiting for a section to clear
+     *
+     * @return subscription count
+     */
+    public static int getSubscriptionCount() {
+        return subscriptions.size();
+    }
+
+    public static void deinit() {
+        worlds.clear();
+        groups.clear();
+        subscriptions.clear();
+    }
+
+    private static Set<IntVector3> leave(MinecartGroup group, GroupRails old, Set<IntVector3> stillOccupied) {
+        WorldOccupancy occupancy = getWorld(old.world, false);
+        if (occupancy == null) {
+            return Collections.emptySet();
+        }
+        Set<IntVector3> changedSections = new HashSet<>();
+        for (IntVector3 position : old.positions) {
+            if (stillOccupied.contains(position)) {
+                continue;
+            }
+            List<MinecartGroup> occupants = occupancy.rails.get(position);
+            if (occupants != null) {
+                removeIdentity(occupants, group);
+                if (occupants.isEmpty()) {
+                    occupancy.rails.remove(position);
+                }
+            }
+            changedSections.add(new IntVector3(position.x >> 4, position.y >> 4, position.z >> 4));
+        }
+        return changedSections;
+    }
+
+    private static void notifySections(World world, Set<IntVector3> sections) {
+        WorldOccupancy occupancy = getWorld(world, false);
+        if (occupancy == null || occupancy.listeners.isEmpty() || sections.isEmpty()) {
+            return;
+        }
+        List<SectionListener> notified = null;
+        for (IntVector3 section : sections) {
+            List<SectionListener> listeners = occupancy.listeners.get(section);
+            if (listeners != null) {
+                if (notified == null) {
+                    notified = new ArrayList<>();
+                }
+                notified.addAll(listeners);
+            }
+        }
+        if (notified == null) {
+            return;
+        }
+        for (SectionListener listener : notified) {
+            // Listeners subscribed to more than one section changed are only notified once
+            if (subscriptions.containsKey(listener)) {
+                unsubscribe(listener);
+                listener.onSectionChanged();
+            }
+        }
+    }
+
+    private static WorldOccupancy getWorld(World world, boolean create) {
+        WorldOccupancy occupancy = worlds.get(world.getUID());
+        if (occupancy == null && create) {
+            occupancy = new WorldOccupancy();
+            worlds.put(world.getUID(), occupancy);
+        }
+        return occupancy;
+    }
+
+    // MinecartGroup is a List, so equals() can not be used to tell groups apart
+    private static <T> void removeIdentity(List<T> list, T value) {
+        for (int i = 0; i < list.size(); i++) {
+            if (list.get(i) == value) {
+                list.remove(i);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Listens for trains leaving rails in a section of track
+     */
+    public interface SectionListener {
+        /**
+         * Called when a train left rails in one of the sections subscribed to
+         */
+        void onSectionChanged();
+    }
+
+    private static class WorldOccupancy {
+        public final Map<IntVector3, List<MinecartGroup>> rails = new HashMap<>();
+        public final Map<IntVector3, List<SectionListener>> listeners = new HashMap<>();
+    }
+
+    private static class GroupRails {
+        public final World world;
+        public final Set<IntVector3> positions;
+        private final IntVector3[] order; // Positions in the order of the tracked rails
+
+        public GroupRails(World world, Set<IntVector3> positions, List<TrackedRail> rails) {
+            this.world = world;
+            this.positions = positions;
+            List<IntVector3> order = new ArrayList<>(rails.size());
+            for (TrackedRail rail : rails) {
+                if (rail.block != null) {
+                    order.add(rail.position);
+                }
+            }
+            this.order = order.toArray(new IntVector3[order.size()]);
+        }
+
+        /**
+         * Checks whether the tracked rails are the same as those of the last update, without allocating
+         *
+         * @param rails to check
+         * @return True if the rails are the same, in the same order
+         */
+        public boolean isSame(List<TrackedRail> rails) {
+            int index = 0;
+            for (int i = 0; i < rails.size(); i++) {
+                TrackedRail rail = rails.get(i);
+                if (rail.block == null) {
+                    continue;
+                }
+                if (index >= this.order.length || !this.order[index].equals(rail.position)) {
+                    return false;
+                }
+                index++;
+            }
+            return index == this.order.length;
+        }
+    }
+
+    private static class Subscription {
+        public final World world;
+        public final Set<IntVector3> sections = new HashSet<>();
+
+        public Subscription(World world) {
+            this.world = world;
+        }
+    }
+}
@@ -25,6 +25,9 @@ public class ActionTracker {
      * For groups, this also clears all the actions scheduled for individual members.
      */
     public void clear() {
+        for (Action action : this.actions) {
+            action.unbind();
+        }
         this.actions.clear();
     }
 
@@ -38,6 +41,7 @@ public class ActionTracker {
         while (iter.hasNext()) {
             Action action = iter.next();
             if (action instanceof MemberAction && ((MemberAction) action).getMember() == forMember) {
+                action.unbind();
                 iter.remove();
             }
         }
@@ -49,7 +53,9 @@ public class ActionTracker {
      * @return action removed, or null if there was none
      */
     public Action removeAction() {
-        return this.actions.remove();
+        Action action = this.actions.remove();
+        action.unbind();
+        return action;
     }
 
     /**
@@ -85,7 +91,7 @@ public class ActionTracker {
 
     public void doTick() {
         while (this.hasAction() && this.actions.peek().doTick()) {
-            this.actions.remove();
+            this.actions.remove().unbind();
         }
     }
 
@@ -8,10 +8,12 @@ import com.bergerkiller.bukkit.tc.controller.MinecartGroup;
 import com.bergerkiller.bukkit.tc.controller.MinecartMember;
 import com.bergerkiller.bukkit.tc.controller.components.RailTracker.TrackedRail;
 import com.bergerkiller.bukkit.tc.detector.DetectorRegion;
+import com.bergerkiller.bukkit.tc.properties.TrainPropertiesStore;
 import com.bergerkiller.bukkit.tc.events.SignActionEvent;
 import com.bergerkiller.bukkit.tc.rails.type.RailType;
 import com.bergerkiller.bukkit.tc.signactions.SignAction;
 import com.bergerkiller.bukkit.tc.signactions.SignActionType;
+import com.bergerkiller.bukkit.tc.utils.SignSkipOptions;
 import org.bukkit.block.Block;
 
 import java.util.*;
@@ -169,13 +171,22 @@ public class BlockTrackerGroup extends BlockTracker {
             }
 
             // Filter based on cart skip options
+            // Active skip options count down the signs they skip, which has to be saved
+            boolean skipping = false;
             for (MinecartMember<?> member : owner) {
-                member.getProperties().getSkipOptions().filterSigns(member.getBlockTracker().liveActiveSigns);
+                SignSkipOptions skipOptions = member.getProperties().getSkipOptions();
+                skipping |= skipOptions.isActive();
+                skipOptions.filterSigns(member.getBlockTracker().liveActiveSigns);
             }
 
             // Combine all signs into one list and filter based on train options
             List<TrackedSign> groupSignList = getSignList();
-            owner.getProperties().getSkipOptions().filterSigns(groupSignList);
+            SignSkipOptions groupSkipOptions = owner.getProperties().getSkipOptions();
+            skipping |= groupSkipOptions.isActive();
+            groupSkipOptions.filterSigns(groupSignList);
+            if (skipping) {
+                TrainPropertiesStore.markForAutosave(owner.getProperties());
+            }
 
             // Update cart signs
             for (MinecartMember<?> member : owner) {
@@ -191,7 +202,7 @@ public class BlockTrackerGroup extends BlockTracker {
             for (MinecartMember<?> member : owner) {
                 BlockTrackerMember tracker = member.getBlockTracker();
                 tracker.detectorRegions.clear();
-                tracker.detectorRegions.addAll(DetectorRegion.handleMove(member, member.getLastBlock(), member.getBlock()));
+                DetectorRegion.handleMove(member, member.getLastBlock(), member.getBlock(), tracker.detectorRegions);
                 detectorRegions.addAll(tracker.detectorRegions);
             }
         }
@@ -0,0 +1,254 @@
+package com.bergerkiller.bukkit.tc.controller.components;
+
+import com.bergerkiller.bukkit.common.bases.IntVector2;
+import com.bergerkiller.bukkit.common.utils.MathUtil;
+import com.bergerkiller.bukkit.tc.controller.ChunkLeaseManager;
+import com.bergerkiller.bukkit.tc.controller.MinecartGroup;
+import com.bergerkiller.bukkit.tc.controller.MinecartMember;
+import com.bergerkiller.bukkit.tc.utils.ChunkArea;
+import com.bergerkiller.bukkit.tc.utils.TrackIterator;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.block.BlockFace;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keeps the chunks around and ahead of a MinecartGroup loaded while it keeps chunks loaded.<br>
+ * <br>
+ * Chunks around the members are leased as soon as the train enters them. Chunks along the
+ * track ahead of the train are leased based on the current speed, and are loaded a few per tick
+ * before the train gets there. Chunks are released some time after the train stopped needing them,
+ * so a train going back and forth at a chunk border does not load and release the same chunks over and over.
+ */
+public class ChunkLeaseGroup {
+    private static final int RELEASE_DELAY = 100; // Ticks a chunk stays leased after it was last needed
+    private static final int RELEASE_INTERVAL = 20; // Ticks between checks for chunks to release
+    private static final int LOOKAHEAD_INTERVAL = 5; // Ticks between walks along the track ahead
+    private static final int LOOKAHEAD_TICKS = 60; // Ticks of movement to look ahead
+    private static final int LOOKAHEAD_MIN_DISTANCE = 16; // Minimum blocks to look ahead while moving
+    private static final int LOOKAHEAD_MAX_DISTANCE = 160; // Maximum blocks to look ahead
+    private static final int MAX_PRELOADS_PER_TICK = 2; // Chunks ahead loaded per tick
+    private final MinecartGroup owner;
+    private final Map<Long, Integer> leased = new HashMap<>(); // Chunk key -> tick at which it expires
+    private final Set<Long> preloadQueue = new LinkedHashSet<>();
+    private long[] area = new long[ChunkArea.CHUNK_AREA];
+    private int areaSize = 0;
+    private boolean areaLeased = false;
+    private World world = null;
+    private int tick = 0;
+    private int nextLookaheadTick = 0;
+    private int nextReleaseTick = 0;
+    private int stallCount = 0;
+    private long stallTime = 0;
+
+    public ChunkLeaseGroup(MinecartGroup owner) {
+        this.owner = owner;
+    }
+
+    /**
+     * Gets the owner of this Chunk Lease Group
+     *
+     * @return the Owner
+     */
+    public MinecartGroup getOwner() {
+        return owner;
+    }
+
+    /**
+     * Gets the amount of chunks currently leased by this train
+     *
+     * @return leased chunk count
+     */
+    public int getLeasedCount() {
+        return this.leased.size();
+    }
+
+    /**
+     * Gets the amount of times this train had to wait for a chunk it entered to load
+     *
+     * @return stall count
+     */
+    public int getStallCount() {
+        return this.stallCount;
+    }
+
+    /**
+     * Gets the total time this train spent waiting for chunks it entered to load
+     *
+     * @return stall time in nanoseconds
+     */
+    public long getStallTime() {
+        return this.stallTime;
+    }
+
+    /**
+     * Leases the chunks around the members of the train. Chunks are only looked at
+     * when the train moved into different chunks since the previous physics step.
+     *
+     * @param world the train is on
+     * @param previousChunks around the members during the previous physics step
+     * @param newChunks around the members now
+     */
+    public void leaseArea(World world, Set<IntVector2> previousChunks, Set<IntVector2> newChunks) {
+        if (world != this.world) {
+            this.releaseAll();
+            this.world = world;
+        }
+        if (this.areaLeased && newChunks.equals(previousChunks)) {
+            return;
+        }
+        this.areaLeased = true;
+        if (this.area.length < newChunks.size()) {
+            this.area = new long[newChunks.size()];
+        }
+        this.areaSize = 0;
+        for (IntVector2 chunk : newChunks) {
+            long key = MathUtil.longHashToLong(chunk.x, chunk.z);
+            this.area[this.areaSize++] = key;
+            this.lease(key, true);
+        }
+    }
+
+    /**
+     * Updates the leases of this train. Should be called once every tick while the train keeps chunks loaded.
+     */
+    public void update() {
+        if (this.world == null) {
+            return;
+        }
+        this.tick++;
+
+        // Keep the chunks around the train leased, and reload them if they did unload
+        for (int i = 0; i < this.areaSize; i++) {
+            this.lease(this.area[i], true);
+        }
+
+        // Lease the chunks along the track ahead
+        if (this.tick >= this.nextLookaheadTick && this.owner.isMoving()) {
+            this.nextLookaheadTick = this.tick + LOOKAHEAD_INTERVAL;
+            this.leaseAhead();
+        }
+
+        // Load a few chunks ahead of the train
+        int loaded = 0;
+        Iterator<Long> preloadIter = this.preloadQueue.iterator();
+        while (loaded < MAX_PRELOADS_PER_TICK && preloadIter.hasNext()) {
+            long key = preloadIter.next();
+            preloadIter.remove();
+            int cx = MathUtil.longHashMsw(key);
+            int cz = MathUtil.longHashLsw(key);
+            if (this.leased.containsKey(key) && !this.world.isChunkLoaded(cx, cz)) {
+                this.world.getChunkAt(cx, cz);
+                loaded++;
+            }
+        }
+
+        // Release the chunks that have not been needed for a while
+        if (this.tick >= this.nextReleaseTick) {
+            this.nextReleaseTick = this.tick + RELEASE_INTERVAL;
+            Iterator<Map.Entry<Long, Integer>> iter = this.leased.entrySet().iterator();
+            while (iter.hasNext()) {
+                Map.Entry<Long, Integer> entry = iter.next();
+                if (entry.getValue() < this.tick) {
+                    iter.remove();
+                    this.release(entry.getKey());
+                }
+            }
+        }
+    }
+
+    /**
+     * Releases all chunks leased by this train. Should be called when the train
+     * no longer keeps chunks loaded, or when it unloads.
+     */
+    public void releaseAll() {
+        if (this.world != null) {
+            for (Long key : this.leased.keySet()) {
+                this.release(key);
+            }
+        }
+        this.leased.clear();
+        this.preloadQueue.clear();
+        this.areaSize = 0;
+        this.areaLeased = false;
+    }
+
+    private void leaseAhead() {
+        MinecartMember<?> head = this.owner.head();
+        Block rails = head.getBlock();
+        BlockFace direction = head.getDirectionTo();
+        if (rails == null || direction == null || rails.getWorld() != this.world) {
+            return;
+        }
+        int distance = (int) Math.ceil(head.getForce() * LOOKAHEAD_TICKS);
+        distance = MathUtil.clamp(distance, LOOKAHEAD_MIN_DISTANCE, LOOKAHEAD_MAX_DISTANCE);
+
+        // Only walk through loaded chunks, the walk continues past them once they are preloaded
+        TrackIterator iter = new TrackIterator(rails, direction, distance, true);
+        int lastChunkX = rails.getX() >> 4;
+        int lastChunkZ = rails.getZ() >> 4;
+        while (iter.hasNext()) {
+            Block block = iter.next();
+            int cx = block.getX() >> 4;
+            int cz = block.getZ() >> 4;
+            if (cx != lastChunkX || cz != lastChunkZ) {
+                lastChunkX = cx;
+                lastChunkZ = cz;
+                this.leaseAround(cx, cz);
+            }
+        }
+
+        // Preload the chunk the track continues into
+        Block next = iter.peekNext();
+        if (next == null) {
+            BlockFace dir = iter.currentDirection();
+            Block current = iter.currentPos();
+            if (dir != null && current != null) {
+                next = current.getRelative(dir);
+            }
+        }
+        if (next != null) {
+            this.leaseAround(next.getX() >> 4, next.getZ() >> 4);
+        }
+    }
+
+    private void leaseAround(int chunkX, int chunkZ) {
+        for (int cx = -ChunkArea.CHUNK_RANGE; cx <= ChunkArea.CHUNK_RANGE; cx++) {
+            for (int cz = -ChunkArea.CHUNK_RANGE; cz <= ChunkArea.CHUNK_RANGE; cz++) {
+                this.lease(MathUtil.longHashToLong(chunkX + cx, chunkZ + cz), false);
+            }
+        }
+    }
+
+    private void lease(long key, boolean required) {
+        if (this.leased.put(key, this.tick + RELEASE_DELAY) == null) {
+            ChunkLeaseManager.acquire(this.world, key);
+        }
+        int cx = MathUtil.longHashMsw(key);
+        int cz = MathUtil.longHashLsw(key);
+        if (!this.world.isChunkLoaded(cx, cz)) {
+            if (required) {
+                // The train needs this chunk right now and has to wait for it to load
+                long startTime = System.nanoTime();
+                this.world.getChunkAt(cx, cz);
+                long time = System.nanoTime() - startTime;
+                this.stallCount++;
+                this.stallTime += time;
+                ChunkLeaseManager.recordStall(time);
+            } else {
+                this.preloadQueue.add(key);
+            }
+        }
+    }
+
+    private void release(long key) {
+        if (ChunkLeaseManager.release(this.world, key)) {
+            this.world.unloadChunkRequest(MathUtil.longHashMsw(key), MathUtil.longHashLsw(key));
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package com.bergerkiller.bukkit.tc.controller.components;
+
+import com.bergerkiller.bukkit.common.entity.type.CommonMinecart;
+import com.bergerkiller.bukkit.common.utils.MathUtil;
+import com.bergerkiller.bukkit.tc.TrainCarts;
+import com.bergerkiller.bukkit.tc.controller.MinecartGroup;
+import com.bergerkiller.bukkit.tc.controller.MinecartMember;
+
+/**
+ * Stores the state of the carts of a train used by the spacing of the train in flat arrays,
+ * so the spacing and force math of a physics step runs over plain numbers in tight loops,
+ * instead of going through the member, entity and vector wrapper objects for every value.<br>
+ * <br>
+ * The buffer is loaded from the members once every physics step, before any of the carts move,
+ * which still reads every cart through its wrapper objects once. The results are read back by index
+ * while the carts are moved. Only the positions, forces and turns used for spacing are stored:
+ * velocity, friction and block changes are still handled by every member, which also moves its entity.
+ * Rigidly coupled trains skip the buffer, unless some of their carts are moved by physics.
+ */
+public class PhysicsBuffer {
+    private int size = 0;
+    private double[] position = new double[0]; // x, y, z of every cart
+    private double[] force = new double[0]; // Signed forward force of every cart
+    private boolean[] turned = new boolean[0]; // Whether a cart is turned relative to the cart after it
+    private double[] speedFactor = new double[0]; // Speed factor that corrects the distance to the cart after it
+
+    /**
+     * Gets the amount of carts stored in this buffer
+     *
+     * @return cart count
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Resizes this buffer to store the amount of carts specified. Existing values are kept
+     * when growing, and the arrays are only reallocated when they are too small.
+     *
+     * @param size - number of carts
+     */
+    public void resize(int size) {
+        if (this.force.length < size) {
+            int capacity = Math.max(size, this.force.length * 2);
+            this.position = copyOf(this.position, capacity * 3);
+            this.force = copyOf(this.force, capacity);
+            this.speedFactor = copyOf(this.speedFactor, capacity);
+            boolean[] newTurned = new boolean[capacity];
+            System.arraycopy(this.turned, 0, newTurned, 0, this.size);
+            this.turned = newTurned;
+        }
+        this.size = size;
+    }
+
+    /**
+     * Loads the state of all the carts of a train
+     *
+     * @param group to load
+     */
+    public void load(MinecartGroup group) {
+        this.resize(group.size());
+        MinecartMember<?> after = null;
+        for (int i = this.size - 1; i >= 0; i--) {
+            MinecartMember<?> member = group.get(i);
+            CommonMinecart<?> entity = member.getEntity();
+            this.set(i, entity.loc.getX(), entity.loc.getY(), entity.loc.getZ(),
+                    MathUtil.invert(member.getForce(), member.getForwardForce() < 0.0),
+                    after != null && (member.getDirectionDifference(after) >= 45 || entity.loc.getPitchDifference(after.getEntity()) > 10));
+            after = member;
+        }
+    }
+
+    /**
+     * Sets the state of a single cart
+     *
+     * @param index of the cart
+     * @param x - position of the cart
+     * @param y - position of the cart
+     * @param z - position of the cart
+     * @param force - signed forward force of the cart
+     * @param turned - whether the cart is turned relative to the cart after it
+     */
+    public void set(int index, double x, double y, double z, double force, boolean turned) {
+        this.position[index * 3] = x;
+        this.position[index * 3 + 1] = y;
+        this.position[index * 3 + 2] = z;
+        this.force[index] = force;
+        this.turned[index] = turned;
+    }
+
+    /**
+     * Gets the average forward force of all the carts
+     *
+     * @return average force
+     */
+    public double getAverageForce() {
+        if (this.size == 0) {
+            return 0.0;
+        }
+        double total = 0.0;
+        for (int i = 0; i < this.size; i++) {
+            total += this.force[i];
+        }
+        return total / this.size;
+    }
+
+    /**
+     * Computes the speed factors that keep the carts at the configured distance from the cart after them.
+     * Carts too far from the cart after them slow down, and carts too close speed up.
+     * The last cart has nothing after it and keeps a factor of 1.
+     */
+    public void computeSpeedFactors() {
+        computeSpeedFactors(TrainCarts.cartDistance, TrainCarts.cartDistanceForcer,
+                TrainCarts.turnedCartDistance, TrainCarts.turnedCartDistanceForcer,
+                TrainCarts.nearCartDistanceFactor);
+    }
+
+    /**
+     * Computes the speed factors that keep the carts at a distance from the cart after them
+     *
+     * @param cartDistance - distance to keep between carts
+     * @param cartDistanceForcer - factor applied to the distance error
+     * @param turnedCartDistance - distance to keep between carts turned relative to each other
+     * @param turnedCartDistanceForcer - factor applied to the distance error of turned carts
+     * @param nearCartDistanceFactor - factor applied to the forcer when the carts are too close
+     */
+    public void computeSpeedFactors(double cartDistance, double cartDistanceForcer,
+                                    double turnedCartDistance, double turnedCartDistanceForcer,
+                                    double nearCartDistanceFactor) {
+        final double[] position = this.position;
+        final double[] speedFactor = this.speedFactor;
+        final int last = this.size - 1;
+        double threshold, forcer;
+        for (int i = 0; i < last; i++) {
+            int p = i * 3;
+            double dx = position[p + 3] - position[p];
+            double dy = position[p + 4] - position[p + 1];
+            double dz = position[p + 5] - position[p + 2];
+            double distance = Math.sqrt(dx * dx + dy * dy + dz * dz);
+            if (this.turned[i]) {
+                threshold = turnedCartDistance;
+                forcer = turnedCartDistanceForcer;
+            } else {
+                threshold = cartDistance;
+                forcer = cartDistanceForcer;
+            }
+            if (distance < threshold) {
+                forcer *= nearCartDistanceFactor;
+            }
+            speedFactor[i] = 1.0 + (forcer * (threshold - distance));
+        }
+        if (last >= 0) {
+            speedFactor[last] = 1.0;
+        }
+    }
+
+    /**
+     * Gets the speed factor of a cart computed using {@link #computeSpeedFactors()}
+     *
+     * @param index of the cart
+     * @return speed factor
+     */
+    public double getSpeedFactor(int index) {
+        return this.speedFactor[index];
+    }
+
+    private static double[] copyOf(double[] values, int length) {
+        double[] result = new double[length];
+        System.arraycopy(values, 0, result, 0, Math.min(values.length, length));
+        return result;
+    }
+}
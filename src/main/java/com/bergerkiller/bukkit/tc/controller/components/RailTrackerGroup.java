@@ -9,6 +9,7 @@ import org.bukkit.block.BlockFace;
 import com.bergerkiller.bukkit.common.bases.IntVector3;
 import com.bergerkiller.bukkit.tc.controller.MinecartGroup;
 import com.bergerkiller.bukkit.tc.controller.MinecartMember;
+import com.bergerkiller.bukkit.tc.controller.TrackOccupancy;
 import com.bergerkiller.bukkit.tc.rails.type.RailType;
 import com.bergerkiller.bukkit.tc.utils.TrackMovingPoint;
 
@@ -78,6 +79,7 @@ public class RailTrackerGroup extends RailTracker {
     public void refresh() {
         this.rails.clear();
         refreshFrom(this.owner.size() - 1, false);
+        TrackOccupancy.update(this.owner, this.rails);
     }
 
     private final void refreshFrom(int memberIndex, boolean disconnected) {
@@ -1,14 +1,15 @@
 package com.bergerkiller.bukkit.tc.detector;
 
 import com.bergerkiller.bukkit.common.bases.IntVector3;
-import com.bergerkiller.bukkit.common.collections.BlockMap;
 import com.bergerkiller.bukkit.common.config.DataReader;
-import com.bergerkiller.bukkit.common.config.DataWriter;
+import com.bergerkiller.bukkit.common.utils.MathUtil;
 import com.bergerkiller.bukkit.common.utils.StreamUtil;
+import com.bergerkiller.bukkit.common.wrappers.LongHashMap;
 import com.bergerkiller.bukkit.tc.TrainCarts;
 import com.bergerkiller.bukkit.tc.controller.MinecartGroup;
 import com.bergerkiller.bukkit.tc.controller.MinecartMember;
 import com.bergerkiller.bukkit.tc.controller.MinecartMemberStore;
+import com.bergerkiller.bukkit.tc.storage.SnapshotDataWriter;
 import org.bukkit.Bukkit;
 import org.bukkit.World;
 import org.bukkit.block.Block;
@@ -19,32 +20,50 @@ import java.io.IOException;
 import java.util.*;
 import java.util.logging.Level;
 
+/**
+ * A region of blocks that detects the minecarts moving on it.<br>
+ * <br>
+ * The blocks of a region are stored per 16x16x16 chunk section, as a sorted array of
+ * the positions within the section. Regions are indexed by the chunks they cover, so that
+ * finding the regions at a block does not require any object to be created.
+ */
 public final class DetectorRegion {
+    private static final int FILE_FORMAT = -2; // Negative, old files start with the (positive) region count
+    private static final DetectorRegion[] NO_REGIONS = new DetectorRegion[0];
     private static boolean hasChanges = false;
     private static HashMap<UUID, DetectorRegion> regionsById = new HashMap<>();
-    private static BlockMap<List<DetectorRegion>> regions = new BlockMap<>();
+    private static HashMap<String, LongHashMap<DetectorRegion[]>> regionsByChunk = new HashMap<>();
     private final UUID id;
     private final String world;
-    private final Set<IntVector3> coordinates;
+    private final LongHashMap<short[]> sections = new LongHashMap<>();
+    private final long[] sectionKeys;
+    private final int blockCount;
     private final Set<MinecartMember<?>> members = new HashSet<>();
     private final List<DetectorListener> listeners = new ArrayList<>(1);
 
-    private DetectorRegion(final UUID uniqueId, final String world, final Set<IntVector3> coordinates) {
+    private DetectorRegion(final UUID uniqueId, final String world, final Map<Long, short[]> sections) {
         this.world = world;
         this.id = uniqueId;
-        this.coordinates = coordinates;
+        this.sectionKeys = new long[sections.size()];
+        int i = 0, count = 0;
+        for (Map.Entry<Long, short[]> entry : sections.entrySet()) {
+            this.sectionKeys[i++] = entry.getKey();
+            this.sections.put(entry.getKey(), entry.getValue());
+            count += entry.getValue().length;
+        }
+        Arrays.sort(this.sectionKeys);
+        this.blockCount = count;
         regionsById.put(this.id, this);
         hasChanges = true;
-        for (IntVector3 coord : this.coordinates) {
-            List<DetectorRegion> list = regions.get(world, coord);
+        for (long chunkKey : this.getChunkKeys()) {
+            LongHashMap<DetectorRegion[]> chunks = getChunks(world, true);
+            DetectorRegion[] list = chunks.get(chunkKey);
             if (list == null) {
-                list = new ArrayList<>(1);
-                list.add(this);
-                regions.put(world, coord, list);
+                chunks.put(chunkKey, new DetectorRegion[] {this});
             } else {
-                list = new ArrayList<DetectorRegion>(list);
-                list.add(this);
-                regions.put(world, coord, list);
+                list = Arrays.copyOf(list, list.length + 1);
+                list[list.length - 1] = this;
+                chunks.put(chunkKey, list);
             }
         }
     }
@@ -57,7 +76,7 @@ public final class DetectorRegion {
         //load members
         World w = Bukkit.getServer().getWorld(this.world);
         if (w != null) {
-            for (IntVector3 coord : this.coordinates) {
+            for (IntVector3 coord : this.getCoordinates()) {
                 MinecartMember<?> mm = MinecartMemberStore.getAt(w, coord);
                 if (mm != null && this.members.add(mm)) {
                     this.onEnter(mm);
@@ -66,47 +85,75 @@ public final class DetectorRegion {
         }
     }
 
-    public static List<DetectorRegion> handleMove(MinecartMember<?> mm, Block from, Block to) {
+    /**
+     * Gets whether a block is part of this region
+     *
+     * @param x - coordinate of the block
+     * @param y - coordinate of the block
+     * @param z - coordinate of the block
+     * @return True if the block is part of this region
+     */
+    public boolean containsBlock(int x, int y, int z) {
+        short[] positions = this.sections.get(sectionKey(x >> 4, y >> 4, z >> 4));
+        return positions != null && Arrays.binarySearch(positions, localIndex(x, y, z)) >= 0;
+    }
+
+    /**
+     * Handles a minecart moving from one block to another, leaving and entering the regions at these blocks
+     *
+     * @param mm that moved
+     * @param from block
+     * @param to block
+     * @param regionsAtTo collection to add the regions at the to-block to
+     */
+    public static void handleMove(MinecartMember<?> mm, Block from, Block to, Collection<DetectorRegion> regionsAtTo) {
         if (from == to) {
             // Minecart is not moving
         } else if (from.getWorld() != to.getWorld()) {
             handleLeave(mm, from);
         } else {
-            List<DetectorRegion> list = regions.get(from);
             //Leave the regions if the to-location is not contained
-            if (list != null) {
-                IntVector3 toCoords = new IntVector3(to);
-                for (DetectorRegion region : list) {
-                    if (!region.coordinates.contains(toCoords)) {
-                        region.remove(mm);
-                    }
+            final int toX = to.getX(), toY = to.getY(), toZ = to.getZ();
+            for (DetectorRegion region : getChunkRegions(from)) {
+                if (region.containsBlock(from.getX(), from.getY(), from.getZ()) && !region.containsBlock(toX, toY, toZ)) {
+                    region.remove(mm);
                 }
             }
         }
         //Enter possible new locations
-        return handleEnter(mm, to);
+        handleEnter(mm, to, regionsAtTo);
     }
 
-    public static List<DetectorRegion> handleLeave(MinecartMember<?> mm, Block block) {
-        List<DetectorRegion> list = regions.get(block);
-        if (list == null) {
-            return Collections.emptyList();
-        }
-        for (DetectorRegion region : list) {
-            region.remove(mm);
+    /**
+     * Handles a minecart leaving a block, leaving all the regions at the block
+     *
+     * @param mm that left
+     * @param block that was left
+     */
+    public static void handleLeave(MinecartMember<?> mm, Block block) {
+        final int x = block.getX(), y = block.getY(), z = block.getZ();
+        for (DetectorRegion region : getChunkRegions(block)) {
+            if (region.containsBlock(x, y, z)) {
+                region.remove(mm);
+            }
         }
-        return list;
     }
 
-    public static List<DetectorRegion> handleEnter(MinecartMember<?> mm, Block block) {
-        List<DetectorRegion> list = regions.get(block);
-        if (list == null) {
-            return Collections.emptyList();
-        }
-        for (DetectorRegion region : list) {
-            region.add(mm);
+    /**
+     * Handles a minecart entering a block, entering all the regions at the block
+     *
+     * @param mm that entered
+     * @param block that was entered
+     * @param regionsAtBlock collection to add the regions at the block to
+     */
+    public static void handleEnter(MinecartMember<?> mm, Block block, Collection<DetectorRegion> regionsAtBlock) {
+        final int x = block.getX(), y = block.getY(), z = block.getZ();
+        for (DetectorRegion region : getChunkRegions(block)) {
+            if (region.containsBlock(x, y, z)) {
+                region.add(mm);
+                regionsAtBlock.add(region);
+            }
         }
-        return list;
     }
 
     public static void detectAllMinecarts() {
@@ -135,28 +182,31 @@ public final class DetectorRegion {
     }
 
     public static DetectorRegion create(final String world, final Set<IntVector3> coordinates) {
+        Map<Long, short[]> sections = toSections(coordinates);
         //first check if this region is not already defined
         for (IntVector3 coord : coordinates) {
-            List<DetectorRegion> list = regions.get(world, coord);
+            LongHashMap<DetectorRegion[]> chunks = getChunks(world, false);
+            DetectorRegion[] list = (chunks == null) ? null : chunks.get(MathUtil.longHashToLong(coord.x >> 4, coord.z >> 4));
             if (list != null) {
                 for (DetectorRegion region : list) {
-                    if (!region.coordinates.containsAll(coordinates)) continue;
-                    if (!coordinates.containsAll(region.coordinates)) continue;
-                    return region;
+                    if (region.hasSections(sections)) {
+                        return region;
+                    }
                 }
             }
             break;
         }
-        return new DetectorRegion(UUID.randomUUID(), world, coordinates);
+        return new DetectorRegion(UUID.randomUUID(), world, sections);
     }
 
     public static List<DetectorRegion> getRegions(Block at) {
-        List<DetectorRegion> rval = regions.get(at);
-        if (rval == null) {
-            return new ArrayList<>(0);
-        } else {
-            return rval;
+        List<DetectorRegion> rval = new ArrayList<>(0);
+        for (DetectorRegion region : getChunkRegions(at)) {
+            if (region.containsBlock(at.getX(), at.getY(), at.getZ())) {
+                rval.add(region);
+            }
         }
+        return rval;
     }
 
     public static DetectorRegion getRegion(UUID uniqueId) {
@@ -165,46 +215,77 @@ public final class DetectorRegion {
 
     public static void init(String filename) {
         regionsById.clear();
-        regions.clear();
+        regionsByChunk.clear();
+        final boolean[] legacyFormat = new boolean[1];
         new DataReader(filename) {
             public void read(DataInputStream stream) throws IOException {
                 int count = stream.readInt();
-                int coordcount;
-                for (; count > 0; --count) {
-                    //get required info
-                    UUID id = StreamUtil.readUUID(stream);
-                    String world = stream.readUTF();
-                    coordcount = stream.readInt();
-                    Set<IntVector3> coords = new HashSet<>(coordcount);
-                    for (; coordcount > 0; --coordcount) {
-                        coords.add(IntVector3.read(stream));
+                if (count == FILE_FORMAT) {
+                    // Blocks stored per chunk section
+                    count = stream.readInt();
+                    for (; count > 0; --count) {
+                        UUID id = StreamUtil.readUUID(stream);
+                        String world = stream.readUTF();
+                        int sectionCount = stream.readInt();
+                        Map<Long, short[]> sections = new HashMap<>(sectionCount);
+                        for (; sectionCount > 0; --sectionCount) {
+                            long key = stream.readLong();
+                            short[] positions = new short[stream.readUnsignedShort()];
+                            for (int i = 0; i < positions.length; i++) {
+                                positions[i] = stream.readShort();
+                            }
+                            sections.put(key, positions);
+                        }
+                        new DetectorRegion(id, world, sections);
+                    }
+                } else {
+                    // Legacy format, every block stored as three ints
+                    for (; count > 0; --count) {
+                        UUID id = StreamUtil.readUUID(stream);
+                        String world = stream.readUTF();
+                        int coordcount = stream.readInt();
+                        Set<IntVector3> coords = new HashSet<>(coordcount);
+                        for (; coordcount > 0; --coordcount) {
+                            coords.add(IntVector3.read(stream));
+                        }
+                        new DetectorRegion(id, world, toSections(coords));
                     }
-                    //create
-                    new DetectorRegion(id, world, coords);
+                    legacyFormat[0] = true;
+                }
+                int blocks = 0;
+                for (DetectorRegion region : regionsById.values()) {
+                    blocks += region.blockCount;
                 }
                 if (regionsById.size() == 1) {
-                    TrainCarts.plugin.log(Level.INFO, regionsById.size() + " detector rail region loaded covering " + regions.size() + " blocks");
+                    TrainCarts.plugin.log(Level.INFO, regionsById.size() + " detector rail region loaded covering " + blocks + " blocks");
                 } else {
-                    TrainCarts.plugin.log(Level.INFO, regionsById.size() + " detector rail regions loaded covering " + regions.size() + " blocks");
+                    TrainCarts.plugin.log(Level.INFO, regionsById.size() + " detector rail regions loaded covering " + blocks + " blocks");
                 }
             }
         }.read();
-        hasChanges = false;
+        // Regions read in the legacy format are converted on the next autosave
+        hasChanges = legacyFormat[0];
     }
 
     public static void save(boolean autosave, String filename) {
         if (autosave && !hasChanges) {
             return;
         }
-        new DataWriter(filename) {
+        new SnapshotDataWriter("detector regions", filename) {
             public void write(DataOutputStream stream) throws IOException {
+                stream.writeInt(FILE_FORMAT);
                 stream.writeInt(regionsById.size());
                 for (DetectorRegion region : regionsById.values()) {
                     StreamUtil.writeUUID(stream, region.id);
                     stream.writeUTF(region.world);
-                    stream.writeInt(region.coordinates.size());
-                    for (IntVector3 coord : region.coordinates) {
-                        coord.write(stream);
+                    stream.writeInt(region.sectionKeys.length);
+                    for (long key : region.sectionKeys) {
+                        short[] positions = region.sections.get(key);
+                        stream.writeLong(key);
+                        stream.writeShort(positions.length);
+                        for (short position : positions) {
+                            stream.writeShort(position);
+                        }
                     }
                 }
             }
@@ -212,12 +293,108 @@ public final class DetectorRegion {
         hasChanges = false;
     }
 
+    private static DetectorRegion[] getChunkRegions(Block block) {
+        LongHashMap<DetectorRegion[]> chunks = regionsByChunk.get(block.getWorld().getName());
+        if (chunks == null) {
+            return NO_REGIONS;
+        }
+        DetectorRegion[] list = chunks.get(MathUtil.longHashToLong(block.getX() >> 4, block.getZ() >> 4));
+        return (list == null) ? NO_REGIONS : list;
+    }
+
+    private static LongHashMap<DetectorRegion[]> getChunks(String world, boolean create) {
+        LongHashMap<DetectorRegion[]> chunks = regionsByChunk.get(world);
+        if (chunks == null && create) {
+            chunks = new LongHashMap<>();
+            regionsByChunk.put(world, chunks);
+        }
+        return chunks;
+    }
+
+    private static Map<Long, short[]> toSections(Set<IntVector3> coordinates) {
+        // Collect the positions of every section
+        Map<Long, List<Short>> positions = new HashMap<>();
+        for (IntVector3 coord : coordinates) {
+            Long key = sectionKey(coord.x >> 4, coord.y >> 4, coord.z >> 4);
+            List<Short> list = positions.get(key);
+            if (list == null) {
+                list = new ArrayList<>();
+                positions.put(key, list);
+            }
+            list.add(localIndex(coord.x, coord.y, coord.z));
+        }
+        // Store them sorted, so they can be binary searched
+        Map<Long, short[]> sections = new HashMap<>(positions.size());
+        for (Map.Entry<Long, List<Short>> entry : positions.entrySet()) {
+            short[] arr = new short[entry.getValue().size()];
+            for (int i = 0; i < arr.length; i++) {
+                arr[i] = entry.getValue().get(i);
+            }
+            Arrays.sort(arr);
+            sections.put(entry.getKey(), arr);
+        }
+        return sections;
+    }
+
+    private boolean hasSections(Map<Long, short[]> sections) {
+        if (sections.size() != this.sectionKeys.length) {
+            return false;
+        }
+        for (Map.Entry<Long, short[]> entry : sections.entrySet()) {
+            if (!Arrays.equals(this.sections.get(entry.getKey()), entry.getValue())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private Set<Long> getChunkKeys() {
+        Set<Long> chunks = new HashSet<>();
+        for (long key : this.sectionKeys) {
+            chunks.add(MathUtil.longHashToLong(sectionX(key), sectionZ(key)));
+        }
+        return chunks;
+    }
+
+    private static long sectionKey(int sx, int sy, int sz) {
+        return ((long) (sx & 0x3FFFFF) << 42) | ((long) (sz & 0x3FFFFF) << 20) | (long) (sy & 0xFFFFF);
+    }
+
+    private static int sectionX(long key) {
+        return (int) (key >> 42);
+    }
+
+    private static int sectionY(long key) {
+        return (int) ((key << 44) >> 44);
+    }
+
+    private static int sectionZ(long key) {
+        return (int) ((key << 22) >> 42);
+    }
+
+    private static short localIndex(int x, int y, int z) {
+        return (short) (((y & 0xF) << 8) | ((z & 0xF) << 4) | (x & 0xF));
+    }
+
     public String getWorldName() {
         return this.world;
     }
 
+    /**
+     * Gets the coordinates of all the blocks of this region.
+     * A new set is created every time this method is called.
+     *
+     * @return block coordinates
+     */
     public Set<IntVector3> getCoordinates() {
-        return this.coordinates;
+        Set<IntVector3> coordinates = new HashSet<>(this.blockCount);
+        for (long key : this.sectionKeys) {
+            int bx = sectionX(key) << 4, by = sectionY(key) << 4, bz = sectionZ(key) << 4;
+            for (short position : this.sections.get(key)) {
+                coordinates.add(new IntVector3(bx + (position & 0xF), by + ((position >> 8) & 0xF), bz + ((position >> 4) & 0xF)));
+            }
+        }
+        return coordinates;
     }
 
     public Set<MinecartMember<?>> getMembers() {
@@ -337,15 +514,19 @@ public final class DetectorRegion {
         }
         regionsById.remove(this.id);
         hasChanges = true;
-        for (IntVector3 coord : this.coordinates) {
-            List<DetectorRegion> list = regions.get(this.world, coord);
+        LongHashMap<DetectorRegion[]> chunks = getChunks(this.world, false);
+        if (chunks == null) {
+            return;
+        }
+        for (long chunkKey : this.getChunkKeys()) {
+            DetectorRegion[] list = chunks.get(chunkKey);
             if (list == null) continue;
-            if (list.size() == 1 && list.get(0) == this) {
-                regions.remove(this.world, coord);
+            if (list.length == 1 && list[0] == this) {
+                chunks.remove(chunkKey);
             } else {
-                list = new ArrayList<DetectorRegion>(list);
-                list.remove(this);
-                regions.put(this.world, coord, list);
+                List<DetectorRegion> newList = new ArrayList<>(Arrays.asList(list));
+                newList.remove(this);
+                chunks.put(chunkKey, newList.toArray(new DetectorRegion[newList.size()]));
             }
         }
     }
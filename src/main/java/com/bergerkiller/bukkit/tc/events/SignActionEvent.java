@@ -6,7 +6,9 @@ import com.bergerkiller.bukkit.common.utils.LogicUtil;
 import com.bergerkiller.bukkit.common.utils.MaterialUtil;
 import com.bergerkiller.bukkit.tc.Direction;
 import com.bergerkiller.bukkit.tc.PowerState;
+import com.bergerkiller.bukkit.tc.RedstoneTracker;
 import com.bergerkiller.bukkit.tc.SignActionHeader;
+import com.bergerkiller.bukkit.tc.TrainCarts;
 import com.bergerkiller.bukkit.tc.Util;
 import com.bergerkiller.bukkit.tc.controller.MinecartGroup;
 import com.bergerkiller.bukkit.tc.controller.MinecartMember;
@@ -339,7 +341,14 @@ public class SignActionEvent extends Event implements Cancellable {
         if (this.actionType == SignActionType.REDSTONE_OFF) {
             return false;
         }
-        return this.header.isAlwaysOn() || this.isPoweredRaw(this.header.isInverted());
+        if (this.header.isAlwaysOn()) {
+            return true;
+        }
+        RedstoneTracker tracker = (TrainCarts.plugin == null) ? null : TrainCarts.plugin.getRedstoneTracker();
+        if (tracker == null) {
+            return this.isPoweredRaw(this.header.isInverted());
+        }
+        return tracker.isSignPowered(this.signblock, this.header.isInverted());
     }
 
     /**
@@ -4,11 +4,11 @@ import com.bergerkiller.bukkit.common.BlockLocation;
 import com.bergerkiller.bukkit.common.collections.BlockMap;
 import com.bergerkiller.bukkit.common.collections.BlockSet;
 import com.bergerkiller.bukkit.common.config.CompressedDataReader;
-import com.bergerkiller.bukkit.common.config.CompressedDataWriter;
 import com.bergerkiller.bukkit.common.utils.LogicUtil;
 import com.bergerkiller.bukkit.common.utils.StringUtil;
 import com.bergerkiller.bukkit.tc.Util;
 import com.bergerkiller.bukkit.tc.events.SignActionEvent;
+import com.bergerkiller.bukkit.tc.storage.SnapshotDataWriter;
 import org.bukkit.block.Block;
 import org.bukkit.block.BlockFace;
 
@@ -208,7 +208,7 @@ public class PathNode {
         if (autosave && !hasChanges) {
             return;
         }
-        new CompressedDataWriter(filename) {
+        new SnapshotDataWriter("destinations", filename, true) {
             public void write(DataOutputStream stream) throws IOException {
                 stream.writeInt(nodes.size());
                 //generate indices
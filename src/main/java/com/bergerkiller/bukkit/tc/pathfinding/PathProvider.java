@@ -2,7 +2,10 @@ package com.bergerkiller.bukkit.tc.pathfinding;
 
 import com.bergerkiller.bukkit.common.BlockLocation;
 import com.bergerkiller.bukkit.common.Task;
+import com.bergerkiller.bukkit.common.config.DataReader;
+import com.bergerkiller.bukkit.common.config.DataWriter;
 import com.bergerkiller.bukkit.common.utils.FaceUtil;
+import com.bergerkiller.bukkit.common.utils.LogicUtil;
 import com.bergerkiller.bukkit.tc.TrainCarts;
 import com.bergerkiller.bukkit.tc.Util;
 import com.bergerkiller.bukkit.tc.events.SignActionEvent;
@@ -13,6 +16,10 @@ import org.bukkit.block.Block;
 import org.bukkit.block.BlockFace;
 import org.bukkit.plugin.java.JavaPlugin;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.Queue;
@@ -22,6 +29,7 @@ import java.util.logging.Level;
 public class PathProvider extends Task {
     private static final int STEP_COUNT = 100; // Steps performed per timing check
     private static final int MAX_PROCESSING_PER_TICK = 30; // Maximum processing time in Ms per tick
+    private static final int MAX_PROCESSING_ON_SHUTDOWN = 5000; // Maximum processing time in Ms when stopping
     public static boolean DEBUG_MODE = false;
     private static PathProvider task;
     private Set<PathNode> pendingNodes = new LinkedHashSet<>();
@@ -31,16 +39,30 @@ public class PathProvider extends Task {
         super(plugin);
     }
 
-    public static void init() {
+    /**
+     * Starts the path finding task, resuming the operations that were still pending
+     * when the task was last stopped
+     *
+     * @param filename of the file to load the pending operations from
+     */
+    public static void init(String filename) {
         task = new PathProvider(TrainCarts.plugin);
+        task.loadPending(filename);
         task.start(1, 1);
     }
 
-    public static void deinit() {
+    /**
+     * Stops the path finding task. Pending operations are processed for a limited time,
+     * after which the remaining operations are saved so they can be resumed on the next startup.
+     *
+     * @param filename of the file to save the pending operations to
+     */
+    public static void deinit(String filename) {
         if (task == null) {
             return;
         }
         task.stop();
+        task.savePending(filename);
         task = null;
     }
 
@@ -81,10 +103,11 @@ public class PathProvider extends Task {
     public Task stop() {
         addPendingNodes();
         if (!this.pendingOperations.isEmpty()) {
-            TrainCarts.plugin.log(Level.INFO, "Performing " + this.pendingOperations.size() + " pending path finding operations (can take a while)...");
-            while (!this.pendingOperations.isEmpty()) {
-                PathFindOperation operation = this.pendingOperations.poll();
-                while (operation.next()) ;
+            TrainCarts.plugin.log(Level.INFO, "Performing " + this.pendingOperations.size() + " pending path finding operations...");
+            processOperations(System.currentTimeMillis(), MAX_PROCESSING_ON_SHUTDOWN);
+            if (!this.pendingOperations.isEmpty()) {
+                TrainCarts.plugin.log(Level.INFO, "Path finding took too long, " + this.pendingOperations.size() +
+                        " remaining operations will be resumed the next time the plugin is enabled");
             }
         }
         return super.stop();
@@ -98,9 +121,18 @@ public class PathProvider extends Task {
         if (this.pendingOperations.isEmpty()) {
             return;
         }
+        processOperations(System.currentTimeMillis(), MAX_PROCESSING_PER_TICK);
+    }
+
+    /**
+     * Processes pending operations until all are done, or until the time limit is reached
+     *
+     * @param startTime    of processing, in System milliseconds
+     * @param maxProcessing time in milliseconds to spend processing
+     */
+    private void processOperations(final long startTime, final int maxProcessing) {
         int i;
         boolean done;
-        final long startTime = System.currentTimeMillis();
         while (!this.pendingOperations.isEmpty()) {
             PathFindOperation operation = this.pendingOperations.peek();
             done = false;
@@ -114,7 +146,7 @@ public class PathProvider extends Task {
                 for (i = 0; i < STEP_COUNT && !done; i++) {
                     done = operation.next();
                 }
-            } while (!done && (System.currentTimeMillis() - startTime) <= MAX_PROCESSING_PER_TICK);
+            } while (!done && (System.currentTimeMillis() - startTime) <= maxProcessing);
             if (done) {
                 this.pendingOperations.poll();
             } else {
@@ -123,6 +155,81 @@ public class PathProvider extends Task {
         }
     }
 
+    /**
+     * Loads the pending nodes and operations that were saved when the task was last stopped.
+     * Operations are restarted from their start block, progress made walking the tracks is not kept.
+     *
+     * @param filename of the file to load from
+     */
+    private void loadPending(String filename) {
+        final File file = new File(filename);
+        if (!file.exists()) {
+            return;
+        }
+        new DataReader(filename) {
+            public void read(DataInputStream stream) throws IOException {
+                int nodeCount = stream.readInt();
+                for (int i = 0; i < nodeCount; i++) {
+                    PathNode node = PathNode.get(stream.readUTF());
+                    if (node != null) {
+                        pendingNodes.add(node);
+                    }
+                }
+                int operationCount = stream.readInt();
+                for (int i = 0; i < operationCount; i++) {
+                    PathNode node = PathNode.get(stream.readUTF());
+                    BlockLocation startLocation = new BlockLocation(stream.readUTF(), stream.readInt(), stream.readInt(), stream.readInt());
+                    BlockFace startFace = BlockFace.values()[stream.readByte()];
+                    Block startBlock = startLocation.getBlock();
+                    if (node != null && startBlock != null) {
+                        pendingOperations.offer(new PathFindOperation(node, startBlock, startFace));
+                    }
+                }
+            }
+        }.read();
+
+        // Consumed; the next shutdown writes a new one when needed
+        file.delete();
+        if (!this.pendingOperations.isEmpty() || !this.pendingNodes.isEmpty()) {
+            TrainCarts.plugin.log(Level.INFO, "Resuming " + (this.pendingOperations.size() + this.pendingNodes.size()) +
+                    " path finding operations from the previous session");
+        }
+    }
+
+    /**
+     * Saves all pending nodes and operations so they can be resumed later.
+     * When nothing is pending, no file is written.
+     *
+     * @param filename of the file to save to
+     */
+    private void savePending(String filename) {
+        if (this.pendingOperations.isEmpty() && this.pendingNodes.isEmpty()) {
+            return;
+        }
+        new DataWriter(filename) {
+            public void write(DataOutputStream stream) throws IOException {
+                stream.writeInt(pendingNodes.size());
+                for (PathNode node : pendingNodes) {
+                    stream.writeUTF(getKey(node));
+                }
+                stream.writeInt(pendingOperations.size());
+                for (PathFindOperation operation : pendingOperations) {
+                    stream.writeUTF(getKey(operation.startNode));
+                    stream.writeUTF(operation.startBlock.getWorld().getName());
+                    stream.writeInt(operation.startBlock.getX());
+                    stream.writeInt(operation.startBlock.getY());
+                    stream.writeInt(operation.startBlock.getZ());
+                    stream.writeByte(operation.startDir.ordinal());
+                }
+            }
+        }.write();
+    }
+
+    // Nodes without a name are found back using their location, like PathNode.init names them
+    private static String getKey(PathNode node) {
+        return LogicUtil.fixNull(node.getName(), node.location.toString());
+    }
+
     private void addPendingNodes() {
         if (!this.pendingNodes.isEmpty()) {
             for (PathNode node : this.pendingNodes) {
@@ -168,11 +275,13 @@ public class PathProvider extends Task {
 
     private static class PathFindOperation {
         private final TrackIterator iter;
+        private final Block startBlock;
         private final BlockFace startDir;
         private final PathNode startNode;
 
         public PathFindOperation(PathNode startNode, Block startBlock, BlockFace startFace) {
             this.iter = new TrackIterator(startBlock, startFace);
+            this.startBlock = startBlock;
             this.startDir = startFace;
             this.startNode = startNode;
         }
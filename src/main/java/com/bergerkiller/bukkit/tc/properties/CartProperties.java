@@ -173,6 +173,7 @@ public class CartProperties extends CartPropertiesStore implements IProperties {
     }
 
     public void setOwner(String player, boolean owner) {
+        TrainPropertiesStore.markForAutosave(this.getTrainProperties());
         if (owner) {
             this.owners.add(player);
         } else {
@@ -203,6 +204,7 @@ public class CartProperties extends CartPropertiesStore implements IProperties {
 
     @Override
     public void clearOwnerPermissions() {
+        TrainPropertiesStore.markForAutosave(this.getTrainProperties());
         this.ownerPermissions.clear();
     }
 
@@ -218,6 +220,7 @@ public class CartProperties extends CartPropertiesStore implements IProperties {
 
     @Override
     public void clearOwners() {
+        TrainPropertiesStore.markForAutosave(this.getTrainProperties());
         this.owners.clear();
     }
 
@@ -245,6 +248,7 @@ public class CartProperties extends CartPropertiesStore implements IProperties {
     }
 
     public void setPickup(boolean pickup) {
+        TrainPropertiesStore.markForAutosave(this.getTrainProperties());
         this.pickUp = pickup;
     }
 
@@ -255,6 +259,7 @@ public class CartProperties extends CartPropertiesStore implements IProperties {
 
     @Override
     public void setPublic(boolean state) {
+        TrainPropertiesStore.markForAutosave(this.getTrainProperties());
         this.isPublic = state;
     }
 
@@ -270,16 +275,19 @@ public class CartProperties extends CartPropertiesStore implements IProperties {
 
     @Override
     public void clearTags() {
+        TrainPropertiesStore.markForAutosave(this.getTrainProperties());
         this.tags.clear();
     }
 
     @Override
     public void addTags(String... tags) {
+        TrainPropertiesStore.markForAutosave(this.getTrainProperties());
         Collections.addAll(this.tags, tags);
     }
 
     @Override
     public void removeTags(String... tags) {
+        TrainPropertiesStore.markForAutosave(this.getTrainProperties());
         for (String tag : tags) {
             this.tags.remove(tag);
         }
@@ -303,6 +311,7 @@ public class CartProperties extends CartPropertiesStore implements IProperties {
 
     @Override
     public void setSpawnItemDrops(boolean spawnDrops) {
+        TrainPropertiesStore.markForAutosave(this.getTrainProperties());
         this.spawnItemDrops = spawnDrops;
     }
 
@@ -341,6 +350,7 @@ public class CartProperties extends CartPropertiesStore implements IProperties {
      * Clears all the materials this Minecart can break
      */
     public void clearBlockBreakTypes() {
+        TrainPropertiesStore.markForAutosave(this.getTrainProperties());
         this.blockBreakTypes.clear();
     }
 
@@ -364,6 +374,7 @@ public class CartProperties extends CartPropertiesStore implements IProperties {
 
     @Override
     public void setEnterMessage(String message) {
+        TrainPropertiesStore.markForAutosave(this.getTrainProperties());
         this.enterMessage = message;
     }
 
@@ -388,6 +399,7 @@ public class CartProperties extends CartPropertiesStore implements IProperties {
     }
 
     public void clearDestination() {
+        TrainPropertiesStore.markForAutosave(this.getTrainProperties());
         this.destination = "";
     }
 
@@ -403,6 +415,7 @@ public class CartProperties extends CartPropertiesStore implements IProperties {
 
     @Override
     public void setDestination(String destination) {
+        TrainPropertiesStore.markForAutosave(this.getTrainProperties());
         this.destination = destination == null ? "" : destination;
     }
 
@@ -413,12 +426,13 @@ public class CartProperties extends CartPropertiesStore implements IProperties {
 
     @Override
     public void setLastPathNode(String nodeName) {
+        TrainPropertiesStore.markForAutosave(this.getTrainProperties());
         this.lastPathNode = nodeName;
     }
 
     @Override
     public boolean parseSet(String key, String arg) {
-        TrainPropertiesStore.markForAutosave();
+        TrainPropertiesStore.markForAutosave(this.getTrainProperties());
         if (key.equals("exitoffset")) {
             Vector vec = Util.parseVector(arg, null);
             if (vec != null) {
@@ -484,6 +498,7 @@ public class CartProperties extends CartPropertiesStore implements IProperties {
      * @param from to load from
      */
     public void load(CartProperties from) {
+        TrainPropertiesStore.markForAutosave(this.getTrainProperties());
         this.destination = from.destination;
         this.owners.clear();
         this.owners.addAll(from.owners);
@@ -601,6 +616,7 @@ public class CartProperties extends CartPropertiesStore implements IProperties {
      * @param enabled state to set to
      */
     public void setInvincible(boolean enabled) {
+        TrainPropertiesStore.markForAutosave(this.getTrainProperties());
         this.invincible = enabled;
     }
 
@@ -611,6 +627,7 @@ public class CartProperties extends CartPropertiesStore implements IProperties {
 
     @Override
     public void setPlayersEnter(boolean state) {
+        TrainPropertiesStore.markForAutosave(this.getTrainProperties());
         this.allowPlayerEnter = state;
     }
 
@@ -621,6 +638,7 @@ public class CartProperties extends CartPropertiesStore implements IProperties {
 
     @Override
     public void setPlayersExit(boolean state) {
+        TrainPropertiesStore.markForAutosave(this.getTrainProperties());
         this.allowPlayerExit = state;
     }
 
@@ -629,6 +647,7 @@ public class CartProperties extends CartPropertiesStore implements IProperties {
     }
 
     public void setSkipOptions(SignSkipOptions options) {
+        TrainPropertiesStore.markForAutosave(this.getTrainProperties());
         this.skipOptions.filter = options.filter;
         this.skipOptions.ignoreCtr = options.ignoreCtr;
         this.skipOptions.skipCtr = options.skipCtr;
@@ -126,6 +126,7 @@ public class TrainProperties extends TrainPropertiesStore implements IProperties
      * @param limit in blocks/tick
      */
     public void setSpeedLimit(double limit) {
+        TrainPropertiesStore.markForAutosave(this);
         this.speedLimit = MathUtil.clamp(limit, 0, TrainCarts.maxVelocity);
     }
 
@@ -165,6 +166,7 @@ public class TrainProperties extends TrainPropertiesStore implements IProperties
      * @param slowingDown state to set to
      */
     public void setSlowingDown(boolean slowingDown) {
+        TrainPropertiesStore.markForAutosave(this);
         if (slowingDown) {
             for (SlowdownMode mode : SlowdownMode.values()) {
                 this.slowDownOptions.add(mode);
@@ -191,6 +193,7 @@ public class TrainProperties extends TrainPropertiesStore implements IProperties
      * @param slowingDown option to set that mode to
      */
     public void setSlowingDown(SlowdownMode mode, boolean slowingDown) {
+        TrainPropertiesStore.markForAutosave(this);
         LogicUtil.addOrRemove(this.slowDownOptions, mode, slowingDown);
     }
 
@@ -209,6 +212,7 @@ public class TrainProperties extends TrainPropertiesStore implements IProperties
      * @param state to set to
      */
     public void setColliding(boolean state) {
+        TrainPropertiesStore.markForAutosave(this);
         this.collision = state;
     }
 
@@ -229,6 +233,7 @@ public class TrainProperties extends TrainPropertiesStore implements IProperties
      * @param displayName to set to
      */
     public void setDisplayName(String displayName) {
+        TrainPropertiesStore.markForAutosave(this);
         if (displayName == null || displayName.isEmpty()) {
             this.displayName = this.trainname;
         } else {
@@ -251,6 +256,7 @@ public class TrainProperties extends TrainPropertiesStore implements IProperties
      * @param state to set to
      */
     public void setKeepChunksLoaded(boolean state) {
+        TrainPropertiesStore.markForAutosave(this);
         if (state && !this.keepChunksLoaded) {
             restore();
         }
@@ -272,6 +278,7 @@ public class TrainProperties extends TrainPropertiesStore implements IProperties
      * @param enabled state to set to
      */
     public void setSoundEnabled(boolean enabled) {
+        TrainPropertiesStore.markForAutosave(this);
         this.soundEnabled = enabled;
     }
 
@@ -284,6 +291,7 @@ public class TrainProperties extends TrainPropertiesStore implements IProperties
 
     @Override
     public boolean remove(Object o) {
+        TrainPropertiesStore.markForAutosave(this);
         if (o instanceof MinecartMember<?>) {
             return super.remove(((MinecartMember<?>) o).getProperties());
         } else {
@@ -294,6 +302,7 @@ public class TrainProperties extends TrainPropertiesStore implements IProperties
     @Override
     public boolean add(CartProperties properties) {
         properties.group = this;
+        TrainPropertiesStore.markForAutosave(this);
         return super.add(properties);
     }
 
@@ -403,6 +412,7 @@ public class TrainProperties extends TrainPropertiesStore implements IProperties
      * @param takeable state to set to
      */
     public void setPlayerTakeable(boolean takeable) {
+        TrainPropertiesStore.markForAutosave(this);
         this.allowPlayerTake = takeable;
     }
 
@@ -684,6 +694,7 @@ public class TrainProperties extends TrainPropertiesStore implements IProperties
      * @param allow state to set to
      */
     public void setManualMovementAllowed(boolean allow) {
+        TrainPropertiesStore.markForAutosave(this);
         this.allowManualMovement = allow;
     }
 
@@ -702,6 +713,7 @@ public class TrainProperties extends TrainPropertiesStore implements IProperties
      * @param ticketName to add
      */
     public void addTicket(String ticketName) {
+        TrainPropertiesStore.markForAutosave(this);
         this.tickets.add(ticketName);
     }
 
@@ -711,10 +723,12 @@ public class TrainProperties extends TrainPropertiesStore implements IProperties
      * @param ticketName to remove
      */
     public void removeTicket(String ticketName) {
+        TrainPropertiesStore.markForAutosave(this);
         this.tickets.remove(ticketName);
     }
 
     public void clearTickets() {
+        TrainPropertiesStore.markForAutosave(this);
         this.tickets.clear();
     }
 
@@ -723,6 +737,7 @@ public class TrainProperties extends TrainPropertiesStore implements IProperties
     }
 
     public void setSkipOptions(SignSkipOptions options) {
+        TrainPropertiesStore.markForAutosave(this);
         this.skipOptions.filter = options.filter;
         this.skipOptions.ignoreCtr = options.ignoreCtr;
         this.skipOptions.skipCtr = options.skipCtr;
@@ -763,6 +778,7 @@ public class TrainProperties extends TrainPropertiesStore implements IProperties
         if (node == null) {
             return;
         }
+        TrainPropertiesStore.markForAutosave(this);
         this.load(node);
         for (CartProperties prop : this) {
             prop.load(node);
@@ -786,7 +802,7 @@ public class TrainProperties extends TrainPropertiesStore implements IProperties
 
     @Override
     public boolean parseSet(String key, String arg) {
-        TrainPropertiesStore.markForAutosave();
+        TrainPropertiesStore.markForAutosave(this);
         if (key.equals("exitoffset")) {
             Vector vec = Util.parseVector(arg, null);
             if (vec != null) {
@@ -970,6 +986,7 @@ public class TrainProperties extends TrainPropertiesStore implements IProperties
         for (CollisionConfig collisionConfigObject : CollisionConfig.values()) {
             if (mobType.equals(collisionConfigObject.getMobType()) || mobType.equals(collisionConfigObject.getPluralMobType())) {
                 collisionModes.put(collisionConfigObject, mode);
+                TrainPropertiesStore.markForAutosave(this);
                 return true;
             }
         }
@@ -977,6 +994,7 @@ public class TrainProperties extends TrainPropertiesStore implements IProperties
     }
 
     public void updateAllCollisionProperties(CollisionMode mode) {
+        TrainPropertiesStore.markForAutosave(this);
         for (CollisionConfig collisionConfigObject : CollisionConfig.values()) {
             if (collisionConfigObject.isAddToConfigFile() == true) {
                 collisionModes.put(collisionConfigObject, mode);
@@ -1048,6 +1066,7 @@ public class TrainProperties extends TrainPropertiesStore implements IProperties
      * @param source to load from
      */
     public void load(TrainProperties source) {
+        TrainPropertiesStore.markForAutosave(this);
         this.soundEnabled = source.soundEnabled;
         this.displayName = source.displayName;
         this.collision = source.collision;
@@ -1165,6 +1184,7 @@ public class TrainProperties extends TrainPropertiesStore implements IProperties
     }
 
     public void setCollisionDamage(double collisionDamage) {
+        TrainPropertiesStore.markForAutosave(this);
         this.collisionDamage = collisionDamage;
     }
 }
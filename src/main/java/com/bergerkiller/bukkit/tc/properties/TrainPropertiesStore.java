@@ -6,25 +6,44 @@ import com.bergerkiller.bukkit.common.utils.CommonUtil;
 import com.bergerkiller.bukkit.common.utils.LogicUtil;
 import com.bergerkiller.bukkit.tc.CollisionMode;
 import com.bergerkiller.bukkit.tc.TrainCarts;
+import com.bergerkiller.bukkit.tc.Util;
 import com.bergerkiller.bukkit.tc.storage.OfflineGroupManager;
+import com.bergerkiller.bukkit.tc.storage.SaveQueue;
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.configuration.file.YamlConfiguration;
 import org.bukkit.entity.Player;
+import org.yaml.snakeyaml.Yaml;
 
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.*;
 import java.util.Map.Entry;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
 
 /**
  * Stores all the Train Properties available by name
  */
 public class TrainPropertiesStore extends HashSet<CartProperties> {
-    private static boolean hasChanges = false;
     private static final long serialVersionUID = 1L;
     private static final String propertiesFile = "TrainProperties.yml";
+    private static final String propertiesShardFolder = "trainproperties";
     private static final String defaultPropertiesFile = "DefaultTrainProperties.yml";
+    private static final int MAX_OFFLINE_PROPERTIES = 1000; // Properties of offline trains kept in memory when sharded
     private static FileConfiguration defconfig = null;
-    private static HashMap<String, TrainProperties> trainProperties = new HashMap<>();
+    private static LinkedHashMap<String, TrainProperties> trainProperties = new LinkedHashMap<>(16, 0.75f, true);
+    private static HashSet<String> storedTrainNames = new HashSet<>();
+    private static HashMap<String, Integer> nextTrainNumbers = new HashMap<>();
+    private static int shardCount = 1;
+    private static ShardIndex[] shardIndexes = new ShardIndex[0]; // Where each train is stored in the shard files
+    private static final BitSet changedShards = new BitSet();
+    private static final List<File> obsoleteFiles = new ArrayList<>();
 
     /**
-     * Gets all the TrainProperties available
+     * Gets all the TrainProperties currently kept in memory. This includes all loaded trains,
+     * but properties of offline trains that have not been used in a while may not be included.
      *
      * @return a Collection of available Train Properties
      */
@@ -49,6 +68,15 @@ public class TrainPropertiesStore extends HashSet<CartProperties> {
                     rval.add(prop);
                 }
             }
+            List<String> storedMatches = new ArrayList<>();
+            for (String trainName : storedTrainNames) {
+                if (Util.matchText(trainName, elements, first, last)) {
+                    storedMatches.add(trainName);
+                }
+            }
+            for (String trainName : storedMatches) {
+                rval.add(find(trainName));
+            }
         }
         return rval;
     }
@@ -64,10 +92,12 @@ public class TrainPropertiesStore extends HashSet<CartProperties> {
         OfflineGroupManager.rename(properties.getTrainName(), newTrainName);
         // Rename the properties
         trainProperties.remove(properties.getTrainName());
+        markForAutosave(properties.getTrainName());
         properties.setDisplayName(newTrainName);
         properties.trainname = newTrainName;
+        storedTrainNames.remove(newTrainName);
         trainProperties.put(newTrainName, properties);
-        hasChanges = true;
+        markForAutosave(newTrainName);
     }
 
     /**
@@ -76,9 +106,12 @@ public class TrainPropertiesStore extends HashSet<CartProperties> {
      * @param trainName of the properties to remove
      */
     public static void remove(String trainName) {
+        if (storedTrainNames.remove(trainName)) {
+            markForAutosave(trainName);
+        }
         TrainProperties prop = trainProperties.remove(trainName);
         if (prop != null && !prop.isEmpty()) {
-            hasChanges = true;
+            markForAutosave(trainName);
             Iterator<CartProperties> iter = prop.iterator();
             while (iter.hasNext()) {
                 CartProperties cprop = iter.next();
@@ -90,19 +123,45 @@ public class TrainPropertiesStore extends HashSet<CartProperties> {
 
     /**
      * Gets a TrainProperties instance by name<br>
-     * Creates a new instance if none is contained
+     * Creates a new instance if none is contained.
      *
      * @param trainname to get the properties of
      * @return TrainProperties instance of the train name
      */
     public static TrainProperties get(String trainname) {
         if (trainname == null) return null;
-        TrainProperties prop = trainProperties.get(trainname);
+        TrainProperties prop = find(trainname);
         if (prop == null) {
             prop = new TrainProperties(trainname);
             prop.setDefault();
             trainProperties.put(trainname, prop);
-            hasChanges = true;
+            markForAutosave(trainname);
+        }
+        return prop;
+    }
+
+    /**
+     * Gets the TrainProperties of a train, if they exist. Properties of offline trains that are not
+     * kept in memory are loaded again, this does not mark them for autosave.
+     *
+     * @param trainname to get the properties of
+     * @return TrainProperties instance of the train name, or null if none exist
+     */
+    public static TrainProperties find(String trainname) {
+        if (trainname == null) return null;
+        TrainProperties prop = trainProperties.get(trainname);
+        if (prop == null && storedTrainNames.remove(trainname)) {
+            // Load the properties from the shard they are stored in, the setters used mark it changed
+            int shard = getShard(trainname);
+            boolean changed = changedShards.get(shard);
+            prop = new TrainProperties(trainname);
+            prop.setDefault();
+            ConfigurationNode node = loadStoredNode(trainname);
+            if (node != null) {
+                prop.load(node);
+            }
+            trainProperties.put(trainname, prop);
+            changedShards.set(shard, changed);
         }
         return prop;
     }
@@ -120,6 +179,8 @@ public class TrainPropertiesStore extends HashSet<CartProperties> {
      * Generates a new train name using the format specified.
      * The location for the generated number is denoted using a '#'-character.
      * If none is set and the name is taken, a number is appended at the end of the name.
+     * Numbering continues from the last name generated for the same format, so numbers of
+     * removed trains are not re-used until the server restarts.
      *
      * @param format to use for the name
      * @return generated (unused) train name
@@ -138,9 +199,11 @@ public class TrainPropertiesStore extends HashSet<CartProperties> {
         }
         // Replace the numeric constant
         String trainName = format;
-        for (int i = 1; i < Integer.MAX_VALUE; i++) {
+        Integer start = nextTrainNumbers.get(format);
+        for (int i = (start == null) ? 1 : start.intValue(); i < Integer.MAX_VALUE; i++) {
             trainName = format.replace("#", Integer.toString(i));
             if (!exists(trainName)) {
+                nextTrainNumbers.put(format, i + 1);
                 break;
             }
         }
@@ -157,7 +220,7 @@ public class TrainPropertiesStore extends HashSet<CartProperties> {
         TrainProperties prop = new TrainProperties(name);
         prop.setDefault();
         trainProperties.put(name, prop);
-        hasChanges = true;
+        markForAutosave(name);
         return prop;
     }
 
@@ -168,7 +231,7 @@ public class TrainPropertiesStore extends HashSet<CartProperties> {
      * @return True if TrainProperties exist, False if not
      */
     public static boolean exists(String trainname) {
-        return trainProperties != null && trainProperties.containsKey(trainname);
+        return trainProperties.containsKey(trainname) || storedTrainNames.contains(trainname);
     }
 
     /**
@@ -177,26 +240,75 @@ public class TrainPropertiesStore extends HashSet<CartProperties> {
      */
     public static void clearAll() {
         trainProperties.clear();
+        storedTrainNames.clear();
         CartPropertiesStore.clearAllCarts();
-        hasChanges = true;
+        markForAutosave();
     }
 
     /**
-     * Loads all Train Properties and defaults from disk
+     * Loads all Train Properties and defaults from disk.
+     * Properties are read from both the single-file and sharded layouts, files that do not
+     * belong to the configured layout are rewritten and removed on the next save.
+     * When sharded, only the names of the trains are kept from up-to-date shard files,
+     * the properties themselves are read from the file when first needed.
      */
     public static void load() {
         loadDefaults();
-        FileConfiguration config = new FileConfiguration(TrainCarts.plugin, propertiesFile);
-        config.load();
-        if (fixDeprecation(config)) {
-            config.save();
+        shardCount = Math.max(1, TrainCarts.trainPropertiesShards);
+        shardIndexes = new ShardIndex[(shardCount > 1) ? shardCount : 0];
+        for (int shard = 0; shard < shardIndexes.length; shard++) {
+            shardIndexes[shard] = new ShardIndex(getShardFile(shard));
         }
-        for (ConfigurationNode node : config.getNodes()) {
-            TrainProperties prop = new TrainProperties(node.getName());
-            prop.load(node);
-            trainProperties.put(prop.getTrainName(), prop);
+        trainProperties.clear();
+        storedTrainNames.clear();
+        nextTrainNumbers.clear();
+        changedShards.clear();
+        obsoleteFiles.clear();
+        boolean changedAny = false;
+        Map<File, Integer> expectedFiles = new HashMap<>();
+        for (int shard = 0; shard < shardCount; shard++) {
+            expectedFiles.put(getShardFile(shard).getAbsoluteFile(), shard);
+        }
+
+        List<File> files = new ArrayList<>();
+        files.add(new File(TrainCarts.plugin.getDataFolder(), propertiesFile));
+        File[] shardFiles = new File(TrainCarts.plugin.getDataFolder(), propertiesShardFolder).listFiles();
+        if (shardFiles != null) {
+            for (File file : shardFiles) {
+                if (file.getName().endsWith(".yml")) {
+                    files.add(file);
+                }
+            }
+        }
+        for (File file : files) {
+            if (!file.exists()) {
+                continue;
+            }
+            FileConfiguration config = new FileConfiguration(file.getPath());
+            config.load();
+            boolean changed = fixDeprecation(config);
+            Integer shard = expectedFiles.get(file.getAbsoluteFile());
+            if (shard == null) {
+                obsoleteFiles.add(file);
+                changed = true;
+            }
+            changedAny |= changed;
+            if (shardCount > 1 && !changed) {
+                storedTrainNames.addAll(config.getKeys());
+                continue;
+            }
+            for (ConfigurationNode node : config.getNodes()) {
+                TrainProperties prop = new TrainProperties(node.getName());
+                prop.load(node);
+                trainProperties.put(prop.getTrainName(), prop);
+            }
+        }
+
+        // Loading uses the setters, which mark the trains changed
+        changedShards.clear();
+        if (changedAny) {
+            markForAutosave();
         }
-        hasChanges = false;
     }
 
     /**
@@ -300,30 +412,237 @@ public class TrainPropertiesStore extends HashSet<CartProperties> {
     }
 
     /**
-     * Informs TrainCarts that (some) Train Properties have changed, and will need to be synchronized to disk
+     * Informs TrainCarts that (some) Train Properties have changed, and will need to be synchronized to disk.
+     * When it is known which train changed, {@link #markForAutosave(TrainProperties)} should be used instead,
+     * so that only the file storing that train is rewritten.
      */
     public static void markForAutosave() {
-        hasChanges = true;
+        changedShards.set(0, shardCount);
+    }
+
+    /**
+     * Informs TrainCarts that the properties of a train have changed, and will need to be synchronized to disk
+     *
+     * @param properties that changed
+     */
+    public static void markForAutosave(TrainProperties properties) {
+        if (properties == null) {
+            markForAutosave();
+        } else {
+            markForAutosave(properties.getTrainName());
+        }
+    }
+
+    private static void markForAutosave(String trainName) {
+        changedShards.set(getShard(trainName));
+    }
+
+    private static int getShard(String trainName) {
+        return (trainName.hashCode() & Integer.MAX_VALUE) % shardCount;
+    }
+
+    private static File getShardFile(int shard) {
+        if (shardCount == 1) {
+            return new File(TrainCarts.plugin.getDataFolder(), propertiesFile);
+        } else {
+            return new File(new File(TrainCarts.plugin.getDataFolder(), propertiesShardFolder), "shard" + shard + ".yml");
+        }
     }
 
     /**
-     * Saves all Train Properties to disk
+     * Saves the Train Properties to disk. Only the files storing trains that were marked
+     * for autosave are written.
+     *
+     * @param autosave True when autosaving, False when doing a full save
      */
     public static void save(boolean autosave) {
-        if (autosave && !hasChanges) {
+        if (shardCount > 1) {
+            unloadUnusedProperties();
+        }
+        if (changedShards.isEmpty()) {
             return;
         }
-        FileConfiguration config = new FileConfiguration(TrainCarts.plugin, propertiesFile);
+
+        // Create a new configuration for every changed shard, and fill it with the trains stored in it
+        final String[] filenames = new String[shardCount];
+        final FileConfiguration[] configs = new FileConfiguration[shardCount];
+        for (int shard = changedShards.nextSetBit(0); shard >= 0; shard = changedShards.nextSetBit(shard + 1)) {
+            filenames[shard] = getShardFile(shard).getPath();
+            configs[shard] = SaveQueue.createConfig(filenames[shard]);
+        }
         for (TrainProperties prop : trainProperties.values()) {
+            FileConfiguration config = configs[getShard(prop.getTrainName())];
             //does this train even exist?!
-            if (prop.hasHolder() || OfflineGroupManager.contains(prop.getTrainName())) {
+            if (config != null && (prop.hasHolder() || OfflineGroupManager.contains(prop.getTrainName()))) {
                 prop.save(config.getNode(prop.getTrainName()));
+            }
+        }
+
+        // Trains not kept in memory are copied over from the shard file by the writer thread
+        final List<List<String>> storedNames = new ArrayList<>();
+        for (int shard = 0; shard < shardIndexes.length; shard++) {
+            storedNames.add(new ArrayList<String>());
+        }
+        Iterator<String> storedIter = storedTrainNames.iterator();
+        while (storedIter.hasNext()) {
+            String trainName = storedIter.next();
+            int shard = getShard(trainName);
+            if (configs[shard] == null) {
+                continue;
+            }
+            if (!OfflineGroupManager.contains(trainName)) {
+                storedIter.remove();
+                continue;
+            }
+            storedNames.get(shard).add(trainName);
+        }
+
+        final ShardIndex[] indexes = shardIndexes;
+        for (int shard = 0; shard < shardCount; shard++) {
+            if (configs[shard] != null) {
+                new File(filenames[shard]).getParentFile().mkdirs();
+                if (indexes.length > 0) {
+                    indexes[shard].pendingWrites.incrementAndGet();
+                }
+            }
+        }
+        changedShards.clear();
+
+        // Files of a previous layout are deleted once all the new files are written
+        final List<File> files = new ArrayList<>(obsoleteFiles);
+        obsoleteFiles.clear();
+        SaveQueue.execute(new Runnable() {
+            @Override
+            public void run() {
+                boolean written = true;
+                for (int shard = 0; shard < filenames.length; shard++) {
+                    if (configs[shard] == null) {
+                        continue;
+                    }
+                    if (indexes.length > 0) {
+                        written &= indexes[shard].write(filenames[shard], configs[shard], storedNames.get(shard));
+                    } else {
+                        written &= SaveQueue.writeConfigNow("train properties", filenames[shard], configs[shard]);
+                    }
+                }
+                if (!written) {
+                    if (!files.isEmpty()) {
+                        TrainCarts.plugin.log(Level.WARNING, "Old train properties files were kept, because not all train properties could be saved");
+                    }
+                    return;
+                }
+                for (File file : files) {
+                    if (!file.delete()) {
+                        TrainCarts.plugin.log(Level.WARNING, "Failed to delete old train properties file " + file.getName());
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Removes the properties of offline trains that have not been used recently from memory,
+     * keeping at most {@link #MAX_OFFLINE_PROPERTIES}. Properties are only removed when the file
+     * storing them is up to date, they are loaded again when they are next needed.
+     */
+    private static void unloadUnusedProperties() {
+        List<TrainProperties> offline = new ArrayList<>();
+        for (TrainProperties prop : trainProperties.values()) {
+            if (!prop.hasHolder()) {
+                offline.add(prop);
+            }
+        }
+        // Least recently used come first
+        int toUnload = offline.size() - MAX_OFFLINE_PROPERTIES;
+        for (int i = 0; i < offline.size() && toUnload > 0; i++) {
+            TrainProperties prop = offline.get(i);
+            if (changedShards.get(getShard(prop.getTrainName())) || isEditing(prop)) {
+                continue;
+            }
+            trainProperties.remove(prop.getTrainName());
+            for (CartProperties cprop : new ArrayList<>(prop)) {
+                CartPropertiesStore.remove(cprop.getUUID());
+            }
+            changedShards.clear(getShard(prop.getTrainName())); // Removing the carts marks it changed
+            if (OfflineGroupManager.contains(prop.getTrainName())) {
+                storedTrainNames.add(prop.getTrainName());
+            }
+            toUnload--;
+        }
+    }
+
+    private static boolean isEditing(TrainProperties prop) {
+        for (CartProperties cprop : prop) {
+            if (CartPropertiesStore.editing.containsValue(cprop)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Reads the configuration of a train that is not kept in memory from the shard file storing it.
+     * When the shard is still being written, this waits for the write to complete.
+     *
+     * @param trainName of the train
+     * @return configuration node of the train, or null if it is not stored
+     */
+    private static ConfigurationNode loadStoredNode(String trainName) {
+        if (shardIndexes.length == 0) {
+            return null;
+        }
+        ShardIndex index = shardIndexes[getShard(trainName)];
+        if (index.pendingWrites.get() > 0) {
+            SaveQueue.waitForWrites();
+        }
+        try {
+            ConfigurationSection section = index.read(Collections.singletonList(trainName)).get(trainName);
+            if (section == null) {
+                return null;
+            }
+            ConfigurationNode node = new ConfigurationNode();
+            copySection(section, node);
+            return node;
+        } catch (Throwable t) {
+            TrainCarts.plugin.getLogger().log(Level.SEVERE, "Failed to read the properties of train " + trainName, t);
+            return null;
+        }
+    }
+
+    private static void copySection(ConfigurationSection from, ConfigurationNode to) {
+        for (String key : from.getKeys(false)) {
+            if (from.isConfigurationSection(key)) {
+                copySection(from.getConfigurationSection(key), to.getNode(key));
             } else {
-                config.remove(prop.getTrainName());
+                to.set(key, from.get(key));
             }
         }
-        config.save();
-        hasChanges = false;
+    }
+
+    /**
+     * Removes the properties of all trains that no longer exist, both loaded and offline,
+     * from memory and from disk
+     *
+     * @return the number of train properties that were removed
+     */
+    public static int compact() {
+        List<String> removed = new ArrayList<>();
+        for (TrainProperties prop : trainProperties.values()) {
+            if (!prop.hasHolder() && !OfflineGroupManager.contains(prop.getTrainName())) {
+                removed.add(prop.getTrainName());
+            }
+        }
+        for (String trainName : storedTrainNames) {
+            if (!OfflineGroupManager.contains(trainName)) {
+                removed.add(trainName);
+            }
+        }
+        for (String trainName : removed) {
+            remove(trainName);
+            markForAutosave(trainName);
+        }
+        nextTrainNumbers.clear();
+        return removed.size();
     }
 
     /**
@@ -363,4 +682,152 @@ public class TrainPropertiesStore extends HashSet<CartProperties> {
             return specialNodes.iterator().next();
         }
     }
+
+    /**
+     * Keeps track of where in a shard file the properties of each train are stored, so that the
+     * properties of a single train can be read again without keeping the whole file in memory.
+     * The index is built when the file is first read, and rebuilt by the writer thread after it
+     * replaced the file.
+     */
+    private static final class ShardIndex {
+        private final File file;
+        private final AtomicInteger pendingWrites = new AtomicInteger(); // Writes scheduled on the writer thread
+        private Map<String, int[]> sections = null; // Offset and length in the file, null when not yet read
+
+        public ShardIndex(File file) {
+            this.file = file;
+        }
+
+        /**
+         * Reads the properties of trains from the shard file
+         *
+         * @param trainNames of the trains to read
+         * @return configuration section of each train that is stored in the file
+         * @throws Exception when reading or parsing the file fails
+         */
+        public synchronized Map<String, ConfigurationSection> read(Collection<String> trainNames) throws Exception {
+            Map<String, ConfigurationSection> result = new HashMap<>();
+            if (trainNames.isEmpty() || !this.file.exists()) {
+                return result;
+            }
+            if (this.sections == null) {
+                this.sections = indexSections(Files.readAllBytes(this.file.toPath()));
+            }
+            try (RandomAccessFile raf = new RandomAccessFile(this.file, "r")) {
+                for (String trainName : trainNames) {
+                    int[] section = this.sections.get(trainName);
+                    if (section == null) {
+                        continue;
+                    }
+                    byte[] data = new byte[section[1]];
+                    raf.seek(section[0]);
+                    raf.readFully(data);
+                    YamlConfiguration yaml = new YamlConfiguration();
+                    yaml.loadFromString(new String(data, StandardCharsets.UTF_8));
+                    ConfigurationSection trainSection = yaml.getConfigurationSection(trainName);
+                    if (trainSection != null) {
+                        result.put(trainName, trainSection);
+                    }
+                }
+            }
+            return result;
+        }
+
+        /**
+         * Writes the shard file, copying the trains that are not kept in memory over from the
+         * current file. Should be run on the writer thread.
+         *
+         * @param filename   of the shard file
+         * @param config     to write, filled with the trains kept in memory
+         * @param storedNames of the trains to copy over from the current file
+         * @return True if the file was written, False if not
+         */
+        public boolean write(String filename, FileConfiguration config, List<String> storedNames) {
+            try {
+                Map<String, ConfigurationSection> stored;
+                try {
+                    stored = this.read(storedNames);
+                } catch (Throwable t) {
+                    TrainCarts.plugin.getLogger().log(Level.SEVERE, "Failed to read train properties from " + this.file.getName() +
+                            ", it was left unchanged", t);
+                    return false;
+                }
+                for (Entry<String, ConfigurationSection> entry : stored.entrySet()) {
+                    copySection(entry.getValue(), config.getNode(entry.getKey()));
+                }
+                if (!SaveQueue.writeConfigNow("train properties", filename, config)) {
+                    return false;
+                }
+                synchronized (this) {
+                    try {
+                        this.sections = indexSections(Files.readAllBytes(this.file.toPath()));
+                    } catch (Throwable t) {
+                        this.sections = null; // Read again when next needed
+                    }
+                }
+                return true;
+            } finally {
+                this.pendingWrites.decrementAndGet();
+            }
+        }
+
+        /**
+         * Finds the top-level sections of a YAML file, which store the properties of one train each
+         *
+         * @param data of the file
+         * @return offset and length of the section of every train
+         */
+        private static Map<String, int[]> indexSections(byte[] data) {
+            Map<String, int[]> sections = new HashMap<>();
+            Yaml yaml = new Yaml();
+            String key = null;
+            int start = 0;
+            int pos = 0;
+            while (pos < data.length) {
+                int end = pos;
+                while (end < data.length && data[end] != '\n') {
+                    end++;
+                }
+                if (isSectionStart(data, pos, end)) {
+                    if (key != null) {
+                        sections.put(key, new int[] {start, pos - start});
+                    }
+                    key = parseKey(yaml, new String(data, pos, end - pos, StandardCharsets.UTF_8));
+                    start = pos;
+                }
+                pos = end + 1;
+            }
+            if (key != null) {
+                sections.put(key, new int[] {start, data.length - start});
+            }
+            return sections;
+        }
+
+        private static boolean isSectionStart(byte[] data, int start, int end) {
+            if (start == end) {
+                return false;
+            }
+            byte first = data[start];
+            if (first == ' ' || first == '\t' || first == '\r' || first == '#') {
+                return false;
+            }
+            // Document markers
+            if ((end - start) >= 3 && (first == '-' || first == '.') && data[start + 1] == first && data[start + 2] == first) {
+                return false;
+            }
+            return true;
+        }
+
+        private static String parseKey(Yaml yaml, String line) {
+            try {
+                Object parsed = yaml.load(line);
+                if (parsed instanceof Map && ((Map<?, ?>) parsed).size() == 1) {
+                    return String.valueOf(((Map<?, ?>) parsed).keySet().iterator().next());
+                }
+            } catch (RuntimeException ex) {
+                // Not a key, the lines up to the next key are ignored
+            }
+            return null;
+        }
+    }
 }
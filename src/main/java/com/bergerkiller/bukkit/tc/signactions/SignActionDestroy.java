@@ -4,6 +4,9 @@ import com.bergerkiller.bukkit.tc.Permission;
 import com.bergerkiller.bukkit.tc.controller.MinecartGroup;
 import com.bergerkiller.bukkit.tc.events.SignActionEvent;
 import com.bergerkiller.bukkit.tc.events.SignChangeActionEvent;
+import com.bergerkiller.bukkit.tc.signactions.spawner.TrainRecycler;
+
+import java.util.Locale;
 
 public class SignActionDestroy extends SignAction {
 
@@ -17,20 +20,37 @@ public class SignActionDestroy extends SignAction {
         if (!info.isPowered()) return;
         if (info.isTrainSign() && info.isAction(SignActionType.REDSTONE_ON, SignActionType.GROUP_ENTER) && info.hasGroup()) {
             info.getGroup().playLinkEffect();
-            info.getGroup().destroy();
+            if (!isRecycler(info) || !TrainRecycler.recycle(info.getGroup())) {
+                info.getGroup().destroy();
+            }
         } else if (info.isCartSign() && info.isAction(SignActionType.REDSTONE_ON, SignActionType.MEMBER_ENTER) && info.hasMember()) {
             info.getMember().onDie();
         } else if (info.isRCSign() && info.isAction(SignActionType.REDSTONE_ON)) {
             for (MinecartGroup group : info.getRCTrainGroups()) {
                 group.playLinkEffect();
-                group.destroy();
+                if (!isRecycler(info) || !TrainRecycler.recycle(group)) {
+                    group.destroy();
+                }
             }
         }
     }
 
+    /**
+     * Checks whether a destroy sign returns trains to their spawn sign instead of destroying them.
+     * This is the case when the second line is 'destroy recycle'.
+     *
+     * @param info of the sign
+     * @return True if trains are recycled, False if they are destroyed
+     */
+    public static boolean isRecycler(SignActionEvent info) {
+        return info.getLine(1).toLowerCase(Locale.ENGLISH).contains("recycle");
+    }
+
     @Override
     public boolean build(SignChangeActionEvent event) {
-        if (event.isCartSign()) {
+        if (event.isTrainSign() && isRecycler(event)) {
+            return handleBuild(event, Permission.BUILD_DESTRUCTOR, "train recycler", "return trains to the spawn sign that spawned them");
+        } else if (event.isCartSign()) {
             return handleBuild(event, Permission.BUILD_DESTRUCTOR, "cart destructor", "destroy minecarts");
         } else if (event.isTrainSign()) {
             return handleBuild(event, Permission.BUILD_DESTRUCTOR, "train destructor", "destroy an entire train");
@@ -2,7 +2,6 @@ package com.bergerkiller.bukkit.tc.signactions;
 
 import com.bergerkiller.bukkit.common.collections.BlockMap;
 import com.bergerkiller.bukkit.common.config.DataReader;
-import com.bergerkiller.bukkit.common.config.DataWriter;
 import com.bergerkiller.bukkit.common.utils.CommonUtil;
 import com.bergerkiller.bukkit.common.utils.FaceUtil;
 import com.bergerkiller.bukkit.common.utils.StreamUtil;
@@ -13,6 +12,7 @@ import com.bergerkiller.bukkit.tc.detector.DetectorRegion;
 import com.bergerkiller.bukkit.tc.events.SignActionEvent;
 import com.bergerkiller.bukkit.tc.events.SignChangeActionEvent;
 import com.bergerkiller.bukkit.tc.signactions.detector.DetectorSignPair;
+import com.bergerkiller.bukkit.tc.storage.SnapshotDataWriter;
 import com.bergerkiller.bukkit.tc.utils.TrackMap;
 import org.bukkit.ChatColor;
 import org.bukkit.block.Block;
@@ -101,7 +101,7 @@ public class SignActionDetector extends SignAction {
         if (autosave && !hasChanges) {
             return;
         }
-        new DataWriter(filename) {
+        new SnapshotDataWriter("detector signs", filename) {
             public void write(DataOutputStream stream) throws IOException {
                 Set<DetectorSignPair> detectorset = new HashSet<>(detectors.size() / 2);
                 for (DetectorSignPair dec : detectors.values()) {
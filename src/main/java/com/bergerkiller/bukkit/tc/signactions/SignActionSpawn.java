@@ -2,7 +2,6 @@ package com.bergerkiller.bukkit.tc.signactions;
 
 import com.bergerkiller.bukkit.common.collections.BlockMap;
 import com.bergerkiller.bukkit.common.config.DataReader;
-import com.bergerkiller.bukkit.common.config.DataWriter;
 import com.bergerkiller.bukkit.common.utils.FaceUtil;
 import com.bergerkiller.bukkit.common.utils.LogicUtil;
 import com.bergerkiller.bukkit.common.utils.ParseUtil;
@@ -16,7 +15,10 @@ import com.bergerkiller.bukkit.tc.controller.MinecartMemberStore;
 import com.bergerkiller.bukkit.tc.events.GroupCreateEvent;
 import com.bergerkiller.bukkit.tc.events.SignActionEvent;
 import com.bergerkiller.bukkit.tc.events.SignChangeActionEvent;
+import com.bergerkiller.bukkit.tc.signactions.spawner.SpawnScheduler;
 import com.bergerkiller.bukkit.tc.signactions.spawner.SpawnSign;
+import com.bergerkiller.bukkit.tc.signactions.spawner.TrainRecycler;
+import com.bergerkiller.bukkit.tc.storage.SnapshotDataWriter;
 import com.bergerkiller.bukkit.tc.utils.TrackIterator;
 import com.bergerkiller.bukkit.tc.utils.TrackWalkIterator;
 import org.bukkit.ChatColor;
@@ -77,9 +79,20 @@ public class SignActionSpawn extends SignAction {
         if (sign != null) {
             sign.remove(signBlock);
         }
+        TrainRecycler.remove(signBlock);
         hasChanges = true;
     }
 
+    /**
+     * Gets the spawn sign at a block, read using {@link #init(String)} or built since
+     *
+     * @param signBlock of the spawn sign
+     * @return spawn sign, or null if there is none
+     */
+    public static SpawnSign getSpawnSign(Block signBlock) {
+        return spawnSigns.get(signBlock);
+    }
+
     public static boolean isValid(SignActionEvent event) {
         return event != null && event.getMode() != SignActionMode.NONE && event.isType("spawn");
     }
@@ -166,191 +179,217 @@ public class SignActionSpawn extends SignAction {
     }
 
     public static void spawn(SignActionEvent info) {
-        if ((info.isTrainSign() || info.isCartSign()) && isValid(info) && info.isPowered() && info.hasRails()) {
-            final double spawnForce = getSpawnForce(info);
+        if (!info.isPowered()) {
+            return;
+        }
+        SpawnPlan plan = getSpawnPlan(info);
+        if (plan == null) {
+            return;
+        }
 
-            //Get the cart types to spawn
-            SpawnTypes types = getSpawnTypes(info.getLine(2) + info.getLine(3));
-            if (types.types.isEmpty()) {
-                return;
-            }
+        // Prepare chunks
+        for (Location loc : plan.locations) {
+            WorldUtil.loadChunks(loc, 2);
+        }
 
-            // Find minecart spawn position information for each possible direction
-            int sizeLim = ((types.types.size() - 1) / 2) + 1;
-            List<SpawnPositions> modes = new ArrayList<SpawnPositions>();
-            for (BlockFace direction : info.getWatchedDirections()) {
-                SpawnPositions mode = getSpawnPositions(info, direction.getOppositeFace(), types.types.size());
-                if (mode.locs.size() >= sizeLim) {
-                    modes.add(mode);
-                }
-            }
-            Collections.sort(modes);
-            if (modes.isEmpty()) {
-                return;
+        // Reuse a train recycled at the end of its ride, or spawn a new one
+        MinecartGroup group = TrainRecycler.take(info.getBlock(), plan);
+        boolean created = (group == null);
+        if (created) {
+            group = MinecartGroup.create();
+            for (int i = plan.locations.size() - 1; i >= 0; i--) {
+                MinecartMember<?> mm = MinecartMemberStore.spawn(plan.locations.get(i), plan.types.get(i));
+                group.add(mm);
             }
+            group.updateDirection();
+            group.getProperties().setDefault("spawner");
+        }
+        group.setSpawner(info.getBlock());
+        if (plan.spawnForce != 0 && plan.launchDirection != BlockFace.SELF) {
+            group.head().getActions().addActionLaunch(plan.launchDirection, 2, plan.spawnForce);
+        }
+        if (created) {
+            GroupCreateEvent.call(group);
+        }
+    }
 
-            // Trim off modes > 2, we don't use those
-            while (modes.size() > 2) {
-                modes.remove(modes.size() - 1);
-            }
+    /**
+     * Figures out where the carts of a spawn sign are spawned, and in what direction the train is launched
+     *
+     * @param info of the spawn sign
+     * @return spawn plan, or null if the sign can not spawn a train right now
+     */
+    public static SpawnPlan getSpawnPlan(SignActionEvent info) {
+        if (!(info.isTrainSign() || info.isCartSign()) || !isValid(info) || !info.hasRails()) {
+            return null;
+        }
+        final double spawnForce = getSpawnForce(info);
 
-            // Figure out what spawn direction we should launch the train into after spawn
-            BlockFace launchDirection = BlockFace.SELF;
-            for (SpawnPositions mode : modes) {
-                if (mode.powered) {
-                    launchDirection = mode.direction;
-                }
+        //Get the cart types to spawn
+        SpawnTypes types = getSpawnTypes(info.getLine(2) + info.getLine(3));
+        if (types.types.isEmpty()) {
+            return null;
+        }
+
+        // Find minecart spawn position information for each possible direction
+        int sizeLim = ((types.types.size() - 1) / 2) + 1;
+        List<SpawnPositions> modes = new ArrayList<SpawnPositions>();
+        for (BlockFace direction : info.getWatchedDirections()) {
+            SpawnPositions mode = getSpawnPositions(info, direction.getOppositeFace(), types.types.size());
+            if (mode.locs.size() >= sizeLim) {
+                modes.add(mode);
             }
+        }
+        Collections.sort(modes);
+        if (modes.isEmpty()) {
+            return null;
+        }
 
-            // If the sign is powered from a non-direction and multiple ways are possible, figure a direction out
-            // If none can be figured out based on centering modes, resolve to spawning in the center without launching
-            if (launchDirection == BlockFace.SELF) {
-                if (modes.size() >= 2) {
-                    // Centering is possible; more than one direction can be spawned
-                    if (FaceUtil.isVertical(info.getRailDirection())) {
-                        if (types.centerMode == CenterMode.LEFT) {
-                            launchDirection = BlockFace.DOWN;
-                        } else if (types.centerMode == CenterMode.RIGHT) {
-                            launchDirection = BlockFace.UP;
-                        } else {
-                            types.centerMode = CenterMode.MIDDLE;
-                            launchDirection = BlockFace.SELF;
-                        }
-                    } else {
-                        if (types.centerMode == CenterMode.LEFT) {
-                            launchDirection = FaceUtil.rotate(info.getFacing(), 2);
-                        } else if (types.centerMode == CenterMode.RIGHT) {
-                            launchDirection = FaceUtil.rotate(info.getFacing(), -2);
-                        } else {
-                            types.centerMode = CenterMode.MIDDLE;
-                            launchDirection = BlockFace.SELF;
-                        }
+        // Trim off modes > 2, we don't use those
+        while (modes.size() > 2) {
+            modes.remove(modes.size() - 1);
+        }
 
-                        // This is actually dead code right now.
-                        /*
-                        if (types.centerMode != CenterMode.MIDDLE) {
-                            int minAngle = 1000;
-                            SpawnPositions selectedMode = modes.get(0);
-                            for (SpawnPositions mode : modes) {
-                                int angle = FaceUtil.getFaceYawDifference(mode.direction, launchDirection);
-                                if (angle < minAngle) {
-                                    minAngle = angle;
-                                    selectedMode = mode;
-                                }
-                            }
-                            launchDirection = selectedMode.direction;
-                        }
-                        */
-                    }
-                } else {
-                    // Centering not possible. Restrict to one mode only.
-                    types.centerMode = CenterMode.NONE;
-                    launchDirection = modes.get(0).direction;
-                }
+        // Figure out what spawn direction we should launch the train into after spawn
+        BlockFace launchDirection = BlockFace.SELF;
+        for (SpawnPositions mode : modes) {
+            if (mode.powered) {
+                launchDirection = mode.direction;
             }
+        }
 
-            // Find desired spawn locations for the minecarts
-            List<Location> spawnLocations = new ArrayList<Location>(types.types.size());
-            if (types.centerMode == CenterMode.MIDDLE && modes.size() >= 2) {
-                // Center-Mode: combine two directions into one long stretch of minecarts
-                Iterator<Location> iter0 = modes.get(0).locs.iterator();
-                Iterator<Location> iter1 = modes.get(1).locs.iterator();
-
-                // Add and skip middle cart
-                spawnLocations.add(iter0.next());
-                iter1.next();
-
-                boolean mode = false; // alternates iter0/iter1
-                while (spawnLocations.size() < types.types.size()) {
-                    if (mode && iter0.hasNext()) {
-                        spawnLocations.add(iter0.next());
-                    } else if (iter1.hasNext()) {
-                        spawnLocations.add(0, iter1.next());
-                    } else {
-                        break; // failure
-                    }
-                    mode = !mode;
-                }
-            } else {
-                // Spawn direction from center mode. Default to the launch direction.
-                SpawnPositions selectedMode = modes.get(0);
-                BlockFace spawnDirection = launchDirection;
+        // If the sign is powered from a non-direction and multiple ways are possible, figure a direction out
+        // If none can be figured out based on centering modes, resolve to spawning in the center without launching
+        if (launchDirection == BlockFace.SELF) {
+            if (modes.size() >= 2) {
+                // Centering is possible; more than one direction can be spawned
                 if (FaceUtil.isVertical(info.getRailDirection())) {
-                    // Up/down of the sign
                     if (types.centerMode == CenterMode.LEFT) {
-                        spawnDirection = BlockFace.DOWN;
+                        launchDirection = BlockFace.DOWN;
                     } else if (types.centerMode == CenterMode.RIGHT) {
-                        spawnDirection = BlockFace.UP;
-                    }
-
-                    for (SpawnPositions mode : modes) {
-                        if (mode.locs.size() < types.types.size()) {
-                            if (mode.direction == launchDirection) {
-                                launchDirection = BlockFace.SELF; // invalidate, cant launch there
-                            }
-                            continue;
-                        }
-
-                        if (mode.direction == spawnDirection && mode.locs.size() >= types.types.size()) {
-                            selectedMode = mode;
-                        }
+                        launchDirection = BlockFace.UP;
+                    } else {
+                        types.centerMode = CenterMode.MIDDLE;
+                        launchDirection = BlockFace.SELF;
                     }
                 } else {
-                    // Left/right of the sign
                     if (types.centerMode == CenterMode.LEFT) {
-                        spawnDirection = FaceUtil.rotate(info.getFacing(), 2);
+                        launchDirection = FaceUtil.rotate(info.getFacing(), 2);
                     } else if (types.centerMode == CenterMode.RIGHT) {
-                        spawnDirection = FaceUtil.rotate(info.getFacing(), -2);
+                        launchDirection = FaceUtil.rotate(info.getFacing(), -2);
+                    } else {
+                        types.centerMode = CenterMode.MIDDLE;
+                        launchDirection = BlockFace.SELF;
                     }
 
-                    // Figure out the best direction to spawn in and take over those locations
-                    // This defaults to the longest ([0]), and favors the direction in which we launch
-                    int minAngle = 1000;
-                    for (SpawnPositions mode : modes) {
-                        if (mode.locs.size() < types.types.size()) {
-                            if (mode.direction == launchDirection) {
-                                launchDirection = BlockFace.SELF; // invalidate, cant launch there
+                    // This is actually dead code right now.
+                    /*
+                    if (types.centerMode != CenterMode.MIDDLE) {
+                        int minAngle = 1000;
+                        SpawnPositions selectedMode = modes.get(0);
+                        for (SpawnPositions mode : modes) {
+                            int angle = FaceUtil.getFaceYawDifference(mode.direction, launchDirection);
+                            if (angle < minAngle) {
+                                minAngle = angle;
+                                selectedMode = mode;
                             }
-                            continue;
                         }
+                        launchDirection = selectedMode.direction;
+                    }
+                    */
+                }
+            } else {
+                // Centering not possible. Restrict to one mode only.
+                types.centerMode = CenterMode.NONE;
+                launchDirection = modes.get(0).direction;
+            }
+        }
 
-                        int angle = FaceUtil.getFaceYawDifference(mode.direction, spawnDirection);
-                        if (angle < minAngle && mode.locs.size() >= types.types.size()) {
-                            minAngle = angle;
-                            selectedMode = mode;
+        // Find desired spawn locations for the minecarts
+        List<Location> spawnLocations = new ArrayList<Location>(types.types.size());
+        if (types.centerMode == CenterMode.MIDDLE && modes.size() >= 2) {
+            // Center-Mode: combine two directions into one long stretch of minecarts
+            Iterator<Location> iter0 = modes.get(0).locs.iterator();
+            Iterator<Location> iter1 = modes.get(1).locs.iterator();
+
+            // Add and skip middle cart
+            spawnLocations.add(iter0.next());
+            iter1.next();
+
+            boolean mode = false; // alternates iter0/iter1
+            while (spawnLocations.size() < types.types.size()) {
+                if (mode && iter0.hasNext()) {
+                    spawnLocations.add(iter0.next());
+                } else if (iter1.hasNext()) {
+                    spawnLocations.add(0, iter1.next());
+                } else {
+                    break; // failure
+                }
+                mode = !mode;
+            }
+        } else {
+            // Spawn direction from center mode. Default to the launch direction.
+            SpawnPositions selectedMode = modes.get(0);
+            BlockFace spawnDirection = launchDirection;
+            if (FaceUtil.isVertical(info.getRailDirection())) {
+                // Up/down of the sign
+                if (types.centerMode == CenterMode.LEFT) {
+                    spawnDirection = BlockFace.DOWN;
+                } else if (types.centerMode == CenterMode.RIGHT) {
+                    spawnDirection = BlockFace.UP;
+                }
+
+                for (SpawnPositions mode : modes) {
+                    if (mode.locs.size() < types.types.size()) {
+                        if (mode.direction == launchDirection) {
+                            launchDirection = BlockFace.SELF; // invalidate, cant launch there
                         }
+                        continue;
+                    }
+
+                    if (mode.direction == spawnDirection && mode.locs.size() >= types.types.size()) {
+                        selectedMode = mode;
                     }
                 }
+            } else {
+                // Left/right of the sign
+                if (types.centerMode == CenterMode.LEFT) {
+                    spawnDirection = FaceUtil.rotate(info.getFacing(), 2);
+                } else if (types.centerMode == CenterMode.RIGHT) {
+                    spawnDirection = FaceUtil.rotate(info.getFacing(), -2);
+                }
 
-                spawnLocations.addAll(selectedMode.locs);
+                // Figure out the best direction to spawn in and take over those locations
+                // This defaults to the longest ([0]), and favors the direction in which we launch
+                int minAngle = 1000;
+                for (SpawnPositions mode : modes) {
+                    if (mode.locs.size() < types.types.size()) {
+                        if (mode.direction == launchDirection) {
+                            launchDirection = BlockFace.SELF; // invalidate, cant launch there
+                        }
+                        continue;
+                    }
 
-                // Invalidated launch direction? Use spawn direction instead.
-                if (launchDirection == BlockFace.SELF) {
-                    launchDirection = selectedMode.direction;
+                    int angle = FaceUtil.getFaceYawDifference(mode.direction, spawnDirection);
+                    if (angle < minAngle && mode.locs.size() >= types.types.size()) {
+                        minAngle = angle;
+                        selectedMode = mode;
+                    }
                 }
             }
-            if (spawnLocations.size() < types.types.size()) {
-                return; // failed
-            }
 
-            // Prepare chunks
-            for (Location loc : spawnLocations) {
-                WorldUtil.loadChunks(loc, 2);
-            }
+            spawnLocations.addAll(selectedMode.locs);
 
-            //Spawn
-            MinecartGroup group = MinecartGroup.create();
-            for (int i = spawnLocations.size() - 1; i >= 0; i--) {
-                MinecartMember<?> mm = MinecartMemberStore.spawn(spawnLocations.get(i), types.types.get(i));
-                group.add(mm);
-            }
-            group.updateDirection();
-            group.getProperties().setDefault("spawner");
-            if (spawnForce != 0 && launchDirection != BlockFace.SELF) {
-                group.head().getActions().addActionLaunch(launchDirection, 2, spawnForce);
+            // Invalidated launch direction? Use spawn direction instead.
+            if (launchDirection == BlockFace.SELF) {
+                launchDirection = selectedMode.direction;
             }
-            GroupCreateEvent.call(group);
         }
+        if (spawnLocations.size() < types.types.size()) {
+            return null; // failed
+        }
+
+        return new SpawnPlan(types.types, spawnLocations, launchDirection, spawnForce);
     }
 
     public static SpawnTypes getSpawnTypes(String text) {
@@ -429,6 +468,12 @@ public class SignActionSpawn extends SignAction {
         return result;
     }
 
+    /**
+     * Reads the spawn signs from file. This can be done off the main thread,
+     * the signs only start spawning once {@link #startAll()} is called.
+     *
+     * @param filename to read the spawn signs from
+     */
     public static void init(String filename) {
         spawnSigns.clear();
         new DataReader(filename) {
@@ -437,24 +482,34 @@ public class SignActionSpawn extends SignAction {
                 for (; count > 0; --count) {
                     SpawnSign sign = SpawnSign.read(stream);
                     spawnSigns.put(sign.getWorldName(), sign.getLocation(), sign);
-                    sign.start();
                 }
             }
         }.read();
         hasChanges = false;
     }
 
+    /**
+     * Starts the spawn timers of all spawn signs read using {@link #init(String)}
+     */
+    public static void startAll() {
+        SpawnScheduler.init();
+        for (SpawnSign sign : spawnSigns.values()) {
+            sign.start();
+        }
+    }
+
     public static void deinit() {
         for (SpawnSign sign : spawnSigns.values()) {
             sign.stop();
         }
+        SpawnScheduler.deinit();
     }
 
     public static void save(boolean autosave, String filename) {
         if (autosave && !hasChanges) {
             return;
         }
-        new DataWriter(filename) {
+        new SnapshotDataWriter("spawn signs", filename) {
             public void write(DataOutputStream stream) throws IOException {
                 stream.writeInt(spawnSigns.size());
                 for (SpawnSign sign : spawnSigns.values()) {
@@ -530,6 +585,27 @@ public class SignActionSpawn extends SignAction {
         }
     }
 
+    /**
+     * The carts a spawn sign spawns, where they are spawned and how the train is launched afterwards
+     */
+    public static class SpawnPlan {
+        /** Types of the carts, from the back to the front of the train */
+        public final List<EntityType> types;
+        /** Spawn locations of the carts, in the same order as the types */
+        public final List<Location> locations;
+        /** Direction the train is launched into, SELF to not launch */
+        public final BlockFace launchDirection;
+        /** Velocity the train is launched at */
+        public final double spawnForce;
+
+        public SpawnPlan(List<EntityType> types, List<Location> locations, BlockFace launchDirection, double spawnForce) {
+            this.types = types;
+            this.locations = locations;
+            this.launchDirection = launchDirection;
+            this.spawnForce = spawnForce;
+        }
+    }
+
     private static enum CenterMode {
         NONE, MIDDLE, LEFT, RIGHT
     }
@@ -0,0 +1,195 @@
+package com.bergerkiller.bukkit.tc.signactions.spawner;
+
+import com.bergerkiller.bukkit.common.Task;
+import com.bergerkiller.bukkit.common.utils.MathUtil;
+import com.bergerkiller.bukkit.common.wrappers.LongHashMap;
+import com.bergerkiller.bukkit.tc.TrainCarts;
+import org.bukkit.Chunk;
+import org.bukkit.World;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Spawns the trains of all automatic spawn signs from a single task.<br>
+ * <br>
+ * Spawn signs are kept in a queue sorted by the tick at which they spawn next, so every tick
+ * only the signs that are due are looked at. No more than {@link TrainCarts#maxSpawnedTrainsPerTick}
+ * trains are spawned every tick, signs due at the same time are spread out over the ticks that follow.
+ * Signs whose chunk is not loaded when due are paused, and spawn once their chunk loads again.
+ */
+public class SpawnScheduler {
+    private static final PriorityQueue<Entry> queue = new PriorityQueue<>(16, new Comparator<Entry>() {
+        @Override
+        public int compare(Entry e1, Entry e2) {
+            return Long.compare(e1.tick, e2.tick);
+        }
+    });
+    private static final Map<String, LongHashMap<List<SpawnSign>>> paused = new HashMap<>();
+    private static int scheduledCount = 0;
+    private static int pausedCount = 0;
+    private static long currentTick = 0;
+    private static Task task = null;
+
+    public static void init() {
+        deinit();
+        task = new Task(TrainCarts.plugin) {
+            public void run() {
+                update();
+            }
+        }.start(1, 1);
+    }
+
+    public static void deinit() {
+        Task.stop(task);
+        task = null;
+        queue.clear();
+        paused.clear();
+        scheduledCount = 0;
+        pausedCount = 0;
+    }
+
+    /**
+     * Gets the current tick of the scheduler, which is advanced once every server tick
+     *
+     * @return current tick
+     */
+    public static long getCurrentTick() {
+        return currentTick;
+    }
+
+    /**
+     * Gets the amount of spawn signs waiting for their next spawn
+     *
+     * @return scheduled count
+     */
+    public static int getScheduledCount() {
+        return scheduledCount;
+    }
+
+    /**
+     * Gets the amount of spawn signs that are due, but wait for their chunk to load
+     *
+     * @return paused count
+     */
+    public static int getPausedCount() {
+        return pausedCount;
+    }
+
+    /**
+     * Schedules the next spawn of a spawn sign, replacing the spawn scheduled before
+     *
+     * @param sign to schedule
+     * @param ticks until the next spawn
+     */
+    static void schedule(SpawnSign sign, long ticks) {
+        unschedule(sign);
+        Entry entry = new Entry(sign, currentTick + Math.max(1, ticks));
+        sign.entry = entry;
+        queue.offer(entry);
+        scheduledCount++;
+    }
+
+    /**
+     * Stops a spawn sign from spawning trains until it is scheduled again
+     *
+     * @param sign to unschedule
+     */
+    static void unschedule(SpawnSign sign) {
+        if (sign.entry != null) {
+            // Left in the queue, skipped once it is polled
+            sign.entry.cancelled = true;
+            sign.entry = null;
+            scheduledCount--;
+        }
+        if (sign.paused) {
+            sign.paused = false;
+            pausedCount--;
+        }
+    }
+
+    /**
+     * Resumes the spawn signs paused in a chunk that loaded
+     *
+     * @param chunk that loaded
+     */
+    public static void loadChunk(Chunk chunk) {
+        LongHashMap<List<SpawnSign>> chunks = paused.get(chunk.getWorld().getName());
+        if (chunks == null) {
+            return;
+        }
+        List<SpawnSign> signs = chunks.remove(MathUtil.longHashToLong(chunk.getX(), chunk.getZ()));
+        if (signs == null) {
+            return;
+        }
+        for (SpawnSign sign : signs) {
+            if (sign.paused && !sign.isRemoved()) {
+                sign.paused = false;
+                pausedCount--;
+                schedule(sign, 1);
+            }
+        }
+    }
+
+    private static void update() {
+        currentTick++;
+        int budget = TrainCarts.maxSpawnedTrainsPerTick;
+        Entry entry;
+        while ((entry = queue.peek()) != null && entry.tick <= currentTick) {
+            if (entry.cancelled) {
+                queue.poll();
+                continue;
+            }
+            if (budget <= 0) {
+                break; // Spawned enough this tick, the others are late by a tick
+            }
+            queue.poll();
+            scheduledCount--;
+            SpawnSign sign = entry.sign;
+            sign.entry = null;
+            if (sign.isRemoved()) {
+                continue;
+            }
+            sign.clearWorld();
+            World world = sign.getWorld();
+            if (!sign.isLoaded(world)) {
+                pause(sign);
+                continue;
+            }
+            budget--;
+            sign.spawn(world);
+        }
+    }
+
+    private static void pause(SpawnSign sign) {
+        LongHashMap<List<SpawnSign>> chunks = paused.get(sign.getWorldName());
+        if (chunks == null) {
+            chunks = new LongHashMap<>();
+            paused.put(sign.getWorldName(), chunks);
+        }
+        long key = MathUtil.longHashToLong(sign.getLocation().x >> 4, sign.getLocation().z >> 4);
+        List<SpawnSign> signs = chunks.get(key);
+        if (signs == null) {
+            signs = new ArrayList<>(1);
+            chunks.put(key, signs);
+        }
+        signs.add(sign);
+        sign.paused = true;
+        pausedCount++;
+    }
+
+    static final class Entry {
+        public final SpawnSign sign;
+        public final long tick;
+        public boolean cancelled = false;
+
+        public Entry(SpawnSign sign, long tick) {
+            this.sign = sign;
+            this.tick = tick;
+        }
+    }
+}
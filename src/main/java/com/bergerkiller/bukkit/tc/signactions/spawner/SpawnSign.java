@@ -1,8 +1,6 @@
 package com.bergerkiller.bukkit.tc.signactions.spawner;
 
-import com.bergerkiller.bukkit.common.Task;
 import com.bergerkiller.bukkit.common.bases.IntVector3;
-import com.bergerkiller.bukkit.tc.TrainCarts;
 import com.bergerkiller.bukkit.tc.events.SignActionEvent;
 import com.bergerkiller.bukkit.tc.signactions.SignActionSpawn;
 import com.bergerkiller.bukkit.tc.storage.OfflineSign;
@@ -16,10 +14,11 @@ import java.io.IOException;
 
 public class SpawnSign extends OfflineSign {
     private final long interval;
-    private long lastSpawnTime;
+    private long remaining;
     private String world;
     private World lastWorld;
-    private Task task = null;
+    SpawnScheduler.Entry entry = null;
+    boolean paused = false;
 
     public SpawnSign(Block block, long interval) {
         this(new IntVector3(block), block.getWorld().getName(), interval);
@@ -29,7 +28,7 @@ public class SpawnSign extends OfflineSign {
         super(location);
         this.interval = interval;
         this.world = worldname;
-        this.lastSpawnTime = System.currentTimeMillis();
+        this.remaining = interval;
     }
 
     public static SpawnSign read(DataInputStream stream) throws IOException {
@@ -37,7 +36,7 @@ public class SpawnSign extends OfflineSign {
         String world = stream.readUTF();
         long interval = stream.readLong();
         SpawnSign sign = new SpawnSign(coord, world, interval);
-        sign.lastSpawnTime = System.currentTimeMillis() - (interval - stream.readLong());
+        sign.remaining = Math.max(0, Math.min(interval, stream.readLong()));
         return sign;
     }
 
@@ -68,8 +67,13 @@ public class SpawnSign extends OfflineSign {
     }
 
     public long getRemaining() {
-        long time = this.interval - (System.currentTimeMillis() - lastSpawnTime);
-        return time < 0 ? 0 : time;
+        if (this.entry != null) {
+            return Math.max(0, (this.entry.tick - SpawnScheduler.getCurrentTick()) * 50);
+        } else if (this.paused) {
+            return 0;
+        } else {
+            return this.remaining;
+        }
     }
 
     public long getRemainingTicks() {
@@ -80,45 +84,33 @@ public class SpawnSign extends OfflineSign {
         return this.interval;
     }
 
+    /**
+     * Schedules the next spawn of this sign, after the remaining time of the interval
+     */
     public void start() {
-        this.stop();
-        final SpawnSign sign = this;
-        this.task = new Task(TrainCarts.plugin) {
-            public void run() {
-                // Start a new task which fires more often
-                sign.task = new Task(TrainCarts.plugin) {
-                    public void run() {
-                        sign.updateSpawn();
-                    }
-                }.start(0, 5);
-            }
-        }.start(this.getRemainingTicks());
+        SpawnScheduler.schedule(this, this.getRemainingTicks());
     }
 
     public void stop() {
-        if (this.task != null) {
-            this.task.stop();
-            this.task = null;
-        }
-        this.lastSpawnTime = System.currentTimeMillis();
+        SpawnScheduler.unschedule(this);
+        this.remaining = this.interval;
     }
 
     /**
-     * Updates the spawning state, called in the last few seconds before spawning<br>
-     * Spawns the train itself
+     * Spawns a train at this sign and schedules the next spawn.
+     * Called by the spawn scheduler once the interval has elapsed.
+     *
+     * @param world the sign is on
      */
-    public void updateSpawn() {
-        World world = this.getWorld();
-        if (world == null) {
-            this.start();
-        } else if (this.getRemaining() == 0) {
-            this.clearWorld();
-            this.loadChunks(world);
-            SignActionEvent event = this.getSignEvent(world);
-            if (event != null) {
-                // Spawn a train at the sign
-                SignActionSpawn.spawn(event);
-            }
+    void spawn(World world) {
+        this.loadChunks(world);
+        SignActionEvent event = this.getSignEvent(world);
+        if (event != null) {
+            // Spawn a train at the sign
+            SignActionSpawn.spawn(event);
+        }
+        if (!this.isRemoved()) {
+            this.remaining = this.interval;
             this.start();
         }
     }
@@ -130,9 +122,7 @@ public class SpawnSign extends OfflineSign {
 
     @Override
     public void onRemove(Block signBlock) {
-        if (this.task != null) {
-            this.task.stop();
-        }
+        SpawnScheduler.unschedule(this);
         SignActionSpawn.remove(signBlock);
     }
 }
@@ -0,0 +1,190 @@
+package com.bergerkiller.bukkit.tc.signactions.spawner;
+
+import com.bergerkiller.bukkit.common.collections.BlockMap;
+import com.bergerkiller.bukkit.common.utils.MaterialUtil;
+import com.bergerkiller.bukkit.tc.controller.MinecartGroup;
+import com.bergerkiller.bukkit.tc.controller.MinecartMember;
+import com.bergerkiller.bukkit.tc.controller.TrackOccupancy;
+import com.bergerkiller.bukkit.tc.events.SignActionEvent;
+import com.bergerkiller.bukkit.tc.properties.TrainProperties;
+import com.bergerkiller.bukkit.tc.properties.TrainPropertiesStore;
+import com.bergerkiller.bukkit.tc.signactions.SignActionSpawn;
+import com.bergerkiller.bukkit.tc.signactions.SignActionSpawn.SpawnPlan;
+import org.bukkit.Location;
+import org.bukkit.block.Block;
+import org.bukkit.entity.EntityType;
+import org.bukkit.inventory.InventoryHolder;
+
+import java.util.List;
+
+/**
+ * Returns trains to the spawn sign that spawned them, instead of destroying them and spawning new ones.<br>
+ * <br>
+ * A recycled train is teleported back to the spawn point of its spawn sign, where it waits with its
+ * properties reset. The next time the spawn sign spawns a train with the same carts, the waiting
+ * train is launched instead, so no entities, controllers or train properties are created or removed.
+ * Every spawn sign holds at most one waiting train, as more would be stacked on the same spawn point.
+ * Which train waits at which sign is only kept in memory. A waiting train that unloads is destroyed,
+ * so it can not block the spawn point without the sign knowing about it.
+ */
+public class TrainRecycler {
+    private static final BlockMap<String> waiting = new BlockMap<>(); // Spawn sign -> name of the train waiting there
+    private static int recycledCount = 0;
+    private static int reusedCount = 0;
+    private static int reusedCartCount = 0;
+
+    /**
+     * Gets the amount of trains returned to their spawn sign instead of being destroyed
+     *
+     * @return recycled train count
+     */
+    public static int getRecycledCount() {
+        return recycledCount;
+    }
+
+    /**
+     * Gets the amount of trains launched again by a spawn sign instead of spawning new ones
+     *
+     * @return reused train count
+     */
+    public static int getReusedCount() {
+        return reusedCount;
+    }
+
+    /**
+     * Gets the amount of carts that were reused instead of spawning new ones
+     *
+     * @return reused cart count
+     */
+    public static int getReusedCartCount() {
+        return reusedCartCount;
+    }
+
+    /**
+     * Returns a train to the spawn sign that spawned it
+     *
+     * @param group to recycle
+     * @return True if the train was recycled, False if it could not be and should be destroyed instead
+     */
+    public static boolean recycle(MinecartGroup group) {
+        Block spawner = group.getSpawner();
+        if (spawner == null || getWaiting(spawner) != null) {
+            return false;
+        }
+        if (!spawner.getWorld().isChunkLoaded(spawner.getX() >> 4, spawner.getZ() >> 4) || !MaterialUtil.ISSIGN.get(spawner)) {
+            return false;
+        }
+        SpawnPlan plan = SignActionSpawn.getSpawnPlan(new SignActionEvent(spawner));
+        if (plan == null || !matches(group, plan)) {
+            return false;
+        }
+        for (Location location : plan.locations) {
+            if (TrackOccupancy.isOccupied(location.getBlock(), group)) {
+                return false; // Another train is on the spawn point
+            }
+        }
+
+        // Empty the train and reset it to the state of a newly spawned train
+        for (MinecartMember<?> member : group) {
+            member.eject();
+            if (member.getEntity().getEntity() instanceof InventoryHolder) {
+                ((InventoryHolder) member.getEntity().getEntity()).getInventory().clear();
+            }
+        }
+        group.getActions().clear();
+        group.stop();
+        group.teleport(plan.locations.toArray(new Location[plan.locations.size()]), true);
+        TrainProperties properties = group.getProperties();
+        properties.clearOwners();
+        properties.clearTags();
+        properties.clearTickets();
+        properties.clearDestination();
+        properties.setDefault();
+        properties.setDefault("spawner");
+
+        waiting.put(spawner, properties.getTrainName());
+        recycledCount++;
+        return true;
+    }
+
+    /**
+     * Takes the train waiting at a spawn sign, if it has the carts the sign spawns
+     *
+     * @param spawner sign block
+     * @param plan of the carts the sign spawns
+     * @return the waiting train, or null if a new train has to be spawned
+     */
+    public static MinecartGroup take(Block spawner, SpawnPlan plan) {
+        MinecartGroup group = getWaiting(spawner);
+        waiting.remove(spawner);
+        if (group == null) {
+            return null;
+        }
+        if (!matches(group, plan)) {
+            // The sign was changed since, make room for the new train
+            group.destroy();
+            return null;
+        }
+        group.teleport(plan.locations.toArray(new Location[plan.locations.size()]), true);
+        reusedCount++;
+        reusedCartCount += group.size();
+        return group;
+    }
+
+    /**
+     * Forgets the link between a train and the spawn sign it is waiting at, when the train unloads.
+     * The link is not saved, so the train should be destroyed instead of being stored offline.
+     *
+     * @param group that unloads
+     * @return True if the train was waiting at a spawn sign, False if not
+     */
+    public static boolean unload(MinecartGroup group) {
+        Block spawner = group.getSpawner();
+        if (spawner == null || !group.getProperties().getTrainName().equals(waiting.get(spawner))) {
+            return false;
+        }
+        waiting.remove(spawner);
+        return true;
+    }
+
+    /**
+     * Forgets the train waiting at a spawn sign that was removed
+     *
+     * @param spawner sign block
+     */
+    public static void remove(Block spawner) {
+        waiting.remove(spawner);
+    }
+
+    private static MinecartGroup getWaiting(Block spawner) {
+        String trainName = waiting.get(spawner);
+        TrainProperties properties = TrainPropertiesStore.find(trainName);
+        if (properties == null) {
+            return null;
+        }
+        MinecartGroup group = properties.getHolder();
+        if (group == null || group.isEmpty()) {
+            return null;
+        }
+        for (MinecartMember<?> member : group) {
+            if (member.isUnloaded()) {
+                return null;
+            }
+        }
+        return group;
+    }
+
+    // Members are spawned from the back of the plan to the front
+    private static boolean matches(MinecartGroup group, SpawnPlan plan) {
+        List<EntityType> types = plan.types;
+        if (group.size() != types.size()) {
+            return false;
+        }
+        for (int i = 0; i < group.size(); i++) {
+            if (group.get(i).getEntity().getEntity().getType() != types.get(types.size() - i - 1)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -74,6 +74,43 @@ public class OfflineGroup {
         return false;
     }
 
+    /**
+     * Checks whether a member with the UUID specified is part of this group
+     *
+     * @param memberUUID of the member
+     * @return True if the member is contained, False if not
+     */
+    public boolean containsMember(UUID memberUUID) {
+        for (OfflineMember member : this.members) {
+            if (member.entityUID.equals(memberUUID)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Removes a member from this group and regenerates the chunks covered by the group.
+     * The group may be left without members.
+     *
+     * @param memberUUID of the member to remove
+     * @return True if the member was found and removed, False if not
+     */
+    public boolean removeMember(UUID memberUUID) {
+        if (!this.containsMember(memberUUID)) {
+            return false;
+        }
+        ArrayList<OfflineMember> remaining = new ArrayList<>(this.members.length);
+        for (OfflineMember m : this.members) {
+            if (!m.entityUID.equals(memberUUID)) {
+                remaining.add(m);
+            }
+        }
+        this.members = remaining.toArray(new OfflineMember[0]);
+        this.genChunks();
+        return true;
+    }
+
     public boolean testFullyLoaded() {
         return this.loadedChunks.size() == this.chunks.size();
     }
@@ -0,0 +1,424 @@
+package com.bergerkiller.bukkit.tc.storage;
+
+import com.bergerkiller.bukkit.common.utils.StreamUtil;
+import com.bergerkiller.bukkit.tc.TrainCarts;
+
+import java.io.*;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+
+/**
+ * Append-only journal of the changes made to the offline groups since the groupdata
+ * snapshot file was last written.<br>
+ * <br>
+ * Records are encoded on the main thread at the time the change happens, so the groups
+ * can be modified freely afterwards. Flushing hands the encoded records to the {@link SaveQueue}
+ * writer thread, which appends them to the journal file. Once the journal grows large, the same
+ * thread merges it into the snapshot file (compaction), so no file I/O happens on the main thread.
+ */
+public class OfflineGroupJournal {
+    private static final byte RECORD_STORE = 1;
+    private static final byte RECORD_REMOVE = 2;
+    private static final byte RECORD_RENAME = 3;
+    private static final byte RECORD_REMOVE_MEMBER = 4;
+    private static final int COMPACT_MIN_RECORDS = 256; // Journal records before compaction is considered
+    private final File snapshotFile;
+    private final File journalFile;
+    private List<byte[]> pending = new ArrayList<>();
+    private final AtomicInteger journalRecordCount = new AtomicInteger(); // Records in the journal file, lowered by compaction
+    private volatile boolean compactScheduled = false;
+
+    public OfflineGroupJournal(String snapshotFilename) {
+        this.snapshotFile = new File(snapshotFilename);
+        this.journalFile = new File(snapshotFilename + ".journal");
+    }
+
+    /**
+     * Receives the changes read from the journal file
+     */
+    public interface Handler {
+        void store(UUID worldUUID, OfflineGroup group);
+
+        void remove(String groupName);
+
+        void rename(String oldGroupName, String newGroupName);
+
+        void removeMember(UUID memberUUID);
+    }
+
+    /**
+     * Records that a group was stored, replacing any group by the same name
+     *
+     * @param group that was stored
+     */
+    public void store(OfflineGroup group) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream stream = new DataOutputStream(bytes);
+            stream.writeByte(RECORD_STORE);
+            StreamUtil.writeUUID(stream, group.worldUUID);
+            group.writeTo(stream);
+            stream.close();
+            this.pending.add(bytes.toByteArray());
+        } catch (IOException ex) {
+            // Can not happen for in-memory streams
+            throw new RuntimeException(ex);
+        }
+    }
+
+    /**
+     * Records that a group was removed
+     *
+     * @param groupName of the group that was removed
+     */
+    public void remove(String groupName) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream stream = new DataOutputStream(bytes);
+            stream.writeByte(RECORD_REMOVE);
+            stream.writeUTF(groupName);
+            stream.close();
+            this.pending.add(bytes.toByteArray());
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    /**
+     * Records that a group was renamed
+     *
+     * @param oldGroupName of the group
+     * @param newGroupName of the group
+     */
+    public void rename(String oldGroupName, String newGroupName) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream stream = new DataOutputStream(bytes);
+            stream.writeByte(RECORD_RENAME);
+            stream.writeUTF(oldGroupName);
+            stream.writeUTF(newGroupName);
+            stream.close();
+            this.pending.add(bytes.toByteArray());
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    /**
+     * Records that a single member was removed from the group it was in
+     *
+     * @param memberUUID of the member that was removed
+     */
+    public void removeMember(UUID memberUUID) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream stream = new DataOutputStream(bytes);
+            stream.writeByte(RECORD_REMOVE_MEMBER);
+            StreamUtil.writeUUID(stream, memberUUID);
+            stream.close();
+            this.pending.add(bytes.toByteArray());
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    /**
+     * Reads all records stored in the journal file.
+     * An incomplete record at the end of the file (from a crash while writing) is ignored,
+     * and cut off the file, so records appended later are not lost behind it.
+     * Complete records that fail to be read are skipped and kept in the file.
+     *
+     * @param handler to pass the records to
+     * @return number of records read
+     */
+    public int replay(Handler handler) {
+        ReadResult result = readJournal(this.journalFile, handler);
+        if (result.torn) {
+            try (RandomAccessFile file = new RandomAccessFile(this.journalFile, "rw")) {
+                file.setLength(result.validLength);
+                TrainCarts.plugin.log(Level.WARNING, "Offline trains journal was cut back to the last complete record " +
+                        "(" + result.count + " records kept)");
+            } catch (Throwable t) {
+                TrainCarts.plugin.getLogger().log(Level.SEVERE, "Failed to repair offline trains journal", t);
+            }
+        }
+        this.journalRecordCount.set(result.count);
+        return result.count;
+    }
+
+    /**
+     * Hands all pending records to the background writer. When the journal has grown larger than
+     * the amount of groups stored, compaction into the snapshot file is scheduled as well.
+     *
+     * @param storedGroupCount the number of groups currently stored
+     */
+    public void flush(int storedGroupCount) {
+        if (!this.pending.isEmpty()) {
+            final List<byte[]> records = this.pending;
+            this.pending = new ArrayList<>();
+            this.journalRecordCount.addAndGet(records.size());
+            SaveQueue.execute(new Runnable() {
+                @Override
+                public void run() {
+                    appendJournal(records);
+                }
+            });
+        }
+        final int compactedCount = this.journalRecordCount.get();
+        if (!this.compactScheduled && compactedCount >= Math.max(COMPACT_MIN_RECORDS, storedGroupCount)) {
+            // The count is only lowered once compaction succeeded, so a failed compaction is retried
+            this.compactScheduled = true;
+            SaveQueue.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        if (compact()) {
+                            journalRecordCount.addAndGet(-compactedCount);
+                        }
+                    } finally {
+                        compactScheduled = false;
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Hands all pending records to the background writer and waits until everything is written
+     */
+    public void flushAndWait() {
+        this.flush(Integer.MAX_VALUE);
+        SaveQueue.waitForWrites();
+    }
+
+    /**
+     * Hands all pending records to the background writer. Pending writes are completed
+     * when the {@link SaveQueue} is stopped.
+     */
+    public void close() {
+        this.flush(Integer.MAX_VALUE);
+    }
+
+    private void appendJournal(List<byte[]> records) {
+        long validLength = this.journalFile.length();
+        try (DataOutputStream stream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(this.journalFile, true)))) {
+            for (byte[] record : records) {
+                stream.writeInt(record.length);
+                stream.write(record);
+            }
+        } catch (Throwable t) {
+            TrainCarts.plugin.getLogger().log(Level.SEVERE, "Failed to write offline trains journal", t);
+
+            // Do not leave a partly written record behind, later records would be appended after it
+            try (RandomAccessFile file = new RandomAccessFile(this.journalFile, "rw")) {
+                file.setLength(validLength);
+            } catch (Throwable t2) {
+                TrainCarts.plugin.getLogger().log(Level.SEVERE, "Failed to repair offline trains journal", t2);
+            }
+        }
+    }
+
+    /**
+     * Merges the journal into the snapshot file. Replaying the same journal again on top of the
+     * new snapshot gives the same result, so a crash between replacing the snapshot and clearing
+     * the journal loses nothing. When the journal file can not be read, nothing is changed.
+     * Records that could not be read are kept in a copy of the journal before it is cleared.
+     *
+     * @return True if the journal was merged and cleared, False if compaction failed
+     */
+    private boolean compact() {
+        final Map<UUID, Map<String, OfflineGroup>> worlds = new LinkedHashMap<>();
+        try {
+            if (this.snapshotFile.exists()) {
+                try (DataInputStream stream = new DataInputStream(new BufferedInputStream(new FileInputStream(this.snapshotFile)))) {
+                    final int worldcount = stream.readInt();
+                    for (int worldIdx = 0; worldIdx < worldcount; worldIdx++) {
+                        UUID worldUID = StreamUtil.readUUID(stream);
+                        Map<String, OfflineGroup> groups = getOrCreate(worlds, worldUID);
+                        final int groupcount = stream.readInt();
+                        for (int groupIdx = 0; groupIdx < groupcount; groupIdx++) {
+                            OfflineGroup group = OfflineGroup.readFrom(stream);
+                            group.worldUUID = worldUID;
+                            groups.put(group.name, group);
+                        }
+                    }
+                }
+            }
+        } catch (Throwable t) {
+            TrainCarts.plugin.getLogger().log(Level.SEVERE, "Failed to read offline trains for compaction, journal is kept", t);
+            return false;
+        }
+
+        ReadResult result = readJournal(this.journalFile, new Handler() {
+            @Override
+            public void store(UUID worldUUID, OfflineGroup group) {
+                remove(group.name);
+                getOrCreate(worlds, worldUUID).put(group.name, group);
+            }
+
+            @Override
+            public void remove(String groupName) {
+                for (Map<String, OfflineGroup> groups : worlds.values()) {
+                    if (groups.remove(groupName) != null) {
+                        return;
+                    }
+                }
+            }
+
+            @Override
+            public void rename(String oldGroupName, String newGroupName) {
+                for (Map<String, OfflineGroup> groups : worlds.values()) {
+                    OfflineGroup group = groups.remove(oldGroupName);
+                    if (group != null) {
+                        remove(newGroupName);
+                        group.name = newGroupName;
+                        groups.put(newGroupName, group);
+                        return;
+                    }
+                }
+            }
+
+            @Override
+            public void removeMember(UUID memberUUID) {
+                for (Map<String, OfflineGroup> groups : worlds.values()) {
+                    for (OfflineGroup group : groups.values()) {
+                        if (group.removeMember(memberUUID)) {
+                            if (group.members.length == 0) {
+                                groups.remove(group.name);
+                            }
+                            return;
+                        }
+                    }
+                }
+            }
+        });
+        if (result.failed) {
+            TrainCarts.plugin.log(Level.SEVERE, "Offline trains journal could not be read completely, journal is kept");
+            return false;
+        }
+        if (result.skipped > 0) {
+            // Compaction clears the journal, keep a copy of the records that could not be read
+            File skippedFile = new File(this.journalFile.getPath() + ".skipped");
+            try {
+                Files.copy(this.journalFile.toPath(), skippedFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                TrainCarts.plugin.log(Level.WARNING, result.skipped + " offline trains journal records could not be read, " +
+                        "the journal was copied to " + skippedFile.getName());
+            } catch (Throwable t) {
+                TrainCarts.plugin.getLogger().log(Level.SEVERE, "Failed to copy offline trains journal, journal is kept", t);
+                return false;
+            }
+        }
+
+        // Write the new snapshot to a temporary file, then swap it in
+        File tmpFile = new File(this.snapshotFile.getPath() + ".tmp");
+        try {
+            try (DataOutputStream stream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)))) {
+                int worldcount = 0;
+                for (Map<String, OfflineGroup> groups : worlds.values()) {
+                    if (!groups.isEmpty()) {
+                        worldcount++;
+                    }
+                }
+                stream.writeInt(worldcount);
+                for (Map.Entry<UUID, Map<String, OfflineGroup>> entry : worlds.entrySet()) {
+                    if (entry.getValue().isEmpty()) {
+                        continue;
+                    }
+                    StreamUtil.writeUUID(stream, entry.getKey());
+                    stream.writeInt(entry.getValue().size());
+                    for (OfflineGroup group : entry.getValue().values()) {
+                        group.writeTo(stream);
+                    }
+                }
+            }
+            try {
+                Files.move(tmpFile.toPath(), this.snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException ex) {
+                Files.move(tmpFile.toPath(), this.snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            new FileOutputStream(this.journalFile).close();
+            return true;
+        } catch (Throwable t) {
+            TrainCarts.plugin.getLogger().log(Level.SEVERE, "Failed to compact offline trains journal", t);
+            tmpFile.delete();
+            return false;
+        }
+    }
+
+    private static Map<String, OfflineGroup> getOrCreate(Map<UUID, Map<String, OfflineGroup>> worlds, UUID worldUUID) {
+        Map<String, OfflineGroup> groups = worlds.get(worldUUID);
+        if (groups == null) {
+            groups = new LinkedHashMap<>();
+            worlds.put(worldUUID, groups);
+        }
+        return groups;
+    }
+
+    private static ReadResult readJournal(File file, Handler handler) {
+        ReadResult result = new ReadResult();
+        if (!file.exists()) {
+            return result;
+        }
+        final long fileLength = file.length();
+        try (DataInputStream stream = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            while (result.validLength < fileLength) {
+                // A length that runs past the end of the file is a torn record
+                int length = (fileLength - result.validLength >= 4) ? stream.readInt() : -1;
+                if (length < 0 || length > (fileLength - result.validLength - 4)) {
+                    result.torn = true;
+                    break;
+                }
+                byte[] record = new byte[length];
+                stream.readFully(record);
+                result.validLength += 4 + length;
+                try {
+                    readRecord(new DataInputStream(new ByteArrayInputStream(record)), handler);
+                    result.count++;
+                } catch (Throwable t) {
+                    // The record is complete, only its contents can not be handled. Skip it, keep the ones after it.
+                    result.skipped++;
+                    TrainCarts.plugin.getLogger().log(Level.SEVERE, "Failed to read offline trains journal record " +
+                            (result.count + result.skipped) + ", it is skipped", t);
+                }
+            }
+        } catch (Throwable t) {
+            result.failed = true;
+            TrainCarts.plugin.getLogger().log(Level.SEVERE, "Failed to read offline trains journal after " + result.count + " records", t);
+        }
+        return result;
+    }
+
+    private static void readRecord(DataInputStream recordStream, Handler handler) throws IOException {
+        switch (recordStream.readByte()) {
+            case RECORD_STORE:
+                UUID worldUUID = StreamUtil.readUUID(recordStream);
+                OfflineGroup group = OfflineGroup.readFrom(recordStream);
+                group.worldUUID = worldUUID;
+                handler.store(worldUUID, group);
+                break;
+            case RECORD_REMOVE:
+                handler.remove(recordStream.readUTF());
+                break;
+            case RECORD_RENAME:
+                handler.rename(recordStream.readUTF(), recordStream.readUTF());
+                break;
+            case RECORD_REMOVE_MEMBER:
+                handler.removeMember(StreamUtil.readUUID(recordStream));
+                break;
+            default:
+                throw new IOException("Unknown journal record type");
+        }
+    }
+
+    private static class ReadResult {
+        public int count = 0; // Records read
+        public int skipped = 0; // Complete records that could not be handled
+        public long validLength = 0; // Length of the file up to the end of the last complete record
+        public boolean torn = false; // True if the file ends with an incomplete record
+        public boolean failed = false; // True if reading the file failed before reaching its end
+    }
+}
@@ -1,7 +1,7 @@
 package com.bergerkiller.bukkit.tc.storage;
 
+import com.bergerkiller.bukkit.common.Task;
 import com.bergerkiller.bukkit.common.config.DataReader;
-import com.bergerkiller.bukkit.common.config.DataWriter;
 import com.bergerkiller.bukkit.common.utils.MathUtil;
 import com.bergerkiller.bukkit.common.utils.StreamUtil;
 import com.bergerkiller.bukkit.common.utils.WorldUtil;
@@ -10,13 +10,16 @@ import com.bergerkiller.bukkit.tc.TrainCarts;
 import com.bergerkiller.bukkit.tc.controller.MinecartGroup;
 import com.bergerkiller.bukkit.tc.controller.MinecartMember;
 import com.bergerkiller.bukkit.tc.properties.TrainProperties;
+import com.bergerkiller.bukkit.tc.properties.TrainPropertiesStore;
+import org.bukkit.Bukkit;
 import org.bukkit.Chunk;
+import org.bukkit.Location;
 import org.bukkit.World;
 import org.bukkit.entity.Entity;
 import org.bukkit.entity.Minecart;
+import org.bukkit.entity.Player;
 
 import java.io.DataInputStream;
-import java.io.DataOutputStream;
 import java.io.IOException;
 import java.util.*;
 import java.util.logging.Level;
@@ -25,9 +28,12 @@ public class OfflineGroupManager {
     public static Long lastUnloadChunk = null;
     private static boolean chunkLoadReq = false;
     private static boolean isRefreshingGroups = false;
-    private static Set<String> containedTrains = new HashSet<>();
-    private static HashSet<UUID> containedMinecarts = new HashSet<>();
+    private static final Map<String, OfflineGroup> groupsByName = new HashMap<>();
+    private static final Map<UUID, OfflineGroup> groupsByMember = new HashMap<>();
     private static final Map<UUID, OfflineGroupManager> managers = new HashMap<>();
+    private static OfflineGroupJournal journal = null;
+    private static final Set<OfflineGroup> restoreQueue = new LinkedHashSet<>();
+    private static Task restoreTask = null;
     private OfflineGroupMap groupmap = new OfflineGroupMap();
 
     public static OfflineGroupManager get(UUID uuid) {
@@ -61,7 +67,7 @@ public class OfflineGroupManager {
                             if (group.testFullyLoaded()) {
                                 //a participant to be restored
                                 if (group.updateLoadedChunks(chunk.getWorld())) {
-                                    man.restoreGroup(group, chunk.getWorld());
+                                    queueRestore(group);
                                 } else {
                                     //add it again
                                     man.groupmap.add(group);
@@ -111,6 +117,96 @@ public class OfflineGroupManager {
         }
     }
 
+    /**
+     * Gets the number of trains whose chunks are loaded, and are waiting to be restored
+     *
+     * @return restore backlog
+     */
+    public static int getRestoreBacklog() {
+        synchronized (managers) {
+            return restoreQueue.size();
+        }
+    }
+
+    private static void queueRestore(OfflineGroup group) {
+        restoreQueue.add(group);
+        if (restoreTask == null) {
+            restoreTask = new Task(TrainCarts.plugin) {
+                public void run() {
+                    restoreQueued();
+                }
+            }.start(1, 1);
+        }
+    }
+
+    /**
+     * Restores the trains waiting to be restored, closest to players first, until the amount of
+     * Minecarts restored this tick reaches the limit. Trains whose chunks were unloaded again
+     * are stored again until their chunks load.
+     */
+    private static void restoreQueued() {
+        synchronized (managers) {
+            // Sort by the distance to the nearest player on the same world
+            final Map<OfflineGroup, Double> distances = new HashMap<>(restoreQueue.size());
+            Map<UUID, List<Player>> players = new HashMap<>();
+            for (OfflineGroup group : restoreQueue) {
+                List<Player> worldPlayers = players.get(group.worldUUID);
+                if (worldPlayers == null) {
+                    World world = Bukkit.getWorld(group.worldUUID);
+                    worldPlayers = (world == null) ? Collections.<Player>emptyList() : world.getPlayers();
+                    players.put(group.worldUUID, worldPlayers);
+                }
+                distances.put(group, getDistanceSquared(group, worldPlayers));
+            }
+            List<OfflineGroup> groups = new ArrayList<>(restoreQueue);
+            Collections.sort(groups, new Comparator<OfflineGroup>() {
+                @Override
+                public int compare(OfflineGroup g1, OfflineGroup g2) {
+                    return Double.compare(distances.get(g1), distances.get(g2));
+                }
+            });
+
+            int remaining = TrainCarts.maxRestoredMinecartsPerTick;
+            for (OfflineGroup group : groups) {
+                if (remaining <= 0) {
+                    break;
+                }
+                restoreQueue.remove(group);
+                OfflineGroupManager man = managers.get(group.worldUUID);
+                World world = Bukkit.getWorld(group.worldUUID);
+                if (man == null || world == null || !man.groupmap.contains(group)) {
+                    continue; // Removed or world unloaded since
+                }
+                if (checkChunks(group, world)) {
+                    remaining -= group.members.length;
+                    man.restoreGroup(group, world);
+                } else {
+                    // Chunks unloaded before it could be restored, wait for them to load again
+                    man.groupmap.add(group);
+                }
+            }
+            if (restoreQueue.isEmpty()) {
+                Task.stop(restoreTask);
+                restoreTask = null;
+            }
+        }
+    }
+
+    private static double getDistanceSquared(OfflineGroup group, List<Player> players) {
+        double minDistSq = Double.MAX_VALUE;
+        if (group.members.length > 0) {
+            double x = (group.members[0].cx << 4) + 8.0;
+            double z = (group.members[0].cz << 4) + 8.0;
+            for (Player player : players) {
+                Location loc = player.getLocation();
+                double dx = loc.getX() - x;
+                double dz = loc.getZ() - z;
+                minDistSq = Math.min(minDistSq, dx * dx + dz * dz);
+            }
+        }
+        return minDistSq;
+    }
+
     /**
      * Checks whether the chunks of a group can be loaded, or loads these
      * chunks when keepChunksLoaded is set
@@ -125,7 +221,8 @@ public class OfflineGroupManager {
             return true;
         }
         // Keep chunks loaded property
-        if (!TrainProperties.get(group.name).isKeepingChunksLoaded()) {
+        TrainProperties properties = TrainPropertiesStore.find(group.name);
+        if (properties == null || !properties.isKeepingChunksLoaded()) {
             return false;
         }
         if (TrainCarts.keepChunksLoadedOnlyWhenMoving && !group.isMoving()) {
@@ -165,10 +262,13 @@ public class OfflineGroupManager {
             if (man != null) {
                 for (OfflineGroup wg : man.groupmap) {
                     count++;
-                    containedTrains.remove(wg.name);
+                    groupsByName.remove(wg.name);
+                    if (journal != null) {
+                        journal.remove(wg.name);
+                    }
                     TrainProperties.remove(wg.name);
                     for (OfflineMember wm : wg.members) {
-                        containedMinecarts.remove(wm.entityUID);
+                        groupsByMember.remove(wm.entityUID);
                         // Load the chunk this minecart is in and remove it
                         // We already de-linked the group map, so no worry for replacements
                         Chunk chunk = world.getChunkAt(wm.cx, wm.cz);
@@ -191,8 +291,8 @@ public class OfflineGroupManager {
         // The below three storage points can be safely cleared
         // Disabled worlds don't store anything in them anyway
         TrainProperties.clearAll();
-        containedTrains.clear();
-        containedMinecarts.clear();
+        groupsByName.clear();
+        groupsByMember.clear();
         int count = 0;
         for (World world : WorldUtil.getWorlds()) {
             count += destroyAll(world);
@@ -241,14 +341,45 @@ public class OfflineGroupManager {
         }
     }
 
+    /**
+     * Gets rid of the Minecarts that are stored in a chunk, but are no longer part of the World.
+     * This only looks at a single chunk, and can be used when the chunk is first handled.
+     *
+     * @param chunk to check
+     */
+    public static void removeBuggedMinecarts(Chunk chunk) {
+        List<org.bukkit.entity.Entity> toRemove = null;
+        for (org.bukkit.entity.Entity e : WorldUtil.getEntities(chunk)) {
+            if (e instanceof Minecart && !e.isValid() && !e.isDead()) {
+                if (toRemove == null) {
+                    toRemove = new ArrayList<>();
+                }
+                toRemove.add(e);
+            }
+        }
+        if (toRemove != null) {
+            for (org.bukkit.entity.Entity e : toRemove) {
+                WorldUtil.removeEntity(e);
+            }
+        }
+    }
+
     public static void deinit() {
+        Task.stop(restoreTask);
+        restoreTask = null;
+        restoreQueue.clear();
+        if (journal != null) {
+            journal.close();
+            journal = null;
+        }
         managers.clear();
-        containedMinecarts.clear();
-        containedTrains.clear();
+        groupsByMember.clear();
+        groupsByName.clear();
     }
 
     /**
-     * Loads the buffered groups from file
+     * Loads the buffered groups from file, and applies the changes stored in the journal
+     * that were made after the file was last written
      *
      * @param filename - The groupdata file to read from
      */
@@ -271,11 +402,7 @@ public class OfflineGroupManager {
                             wg.worldUUID = worldUID;
 
                             // Register the new offline group within (this) Manager
-                            for (OfflineMember wm : wg.members) {
-                                containedMinecarts.add(wm.entityUID);
-                            }
-                            man.groupmap.add(wg);
-                            containedTrains.add(wg.name);
+                            man.addGroup(wg);
                             totalmembers += wg.members.length;
                         }
                         totalgroups += groupcount;
@@ -291,36 +418,58 @@ public class OfflineGroupManager {
                     TrainCarts.plugin.log(Level.INFO, msg);
                 }
             }.read();
+
+            // Apply changes made since the file was written. Journal is assigned after,
+            // so these changes are not journaled a second time.
+            OfflineGroupJournal loadedJournal = new OfflineGroupJournal(filename);
+            int changes = loadedJournal.replay(new OfflineGroupJournal.Handler() {
+                @Override
+                public void store(UUID worldUUID, OfflineGroup group) {
+                    removeGroup(group.name);
+                    get(worldUUID).addGroup(group);
+                }
+
+                @Override
+                public void remove(String groupName) {
+                    removeGroup(groupName);
+                }
+
+                @Override
+                public void rename(String oldGroupName, String newGroupName) {
+                    OfflineGroupManager.rename(oldGroupName, newGroupName);
+                }
+
+                @Override
+                public void removeMember(UUID memberUUID) {
+                    OfflineGroupManager.removeMember(memberUUID);
+                }
+            });
+            if (changes > 0) {
+                TrainCarts.plugin.log(Level.INFO, changes + " offline train changes restored from the journal " +
+                        "(" + groupsByName.size() + " Trains stored)");
+            }
+            journal = loadedJournal;
+            journal.flush(groupsByName.size());
         }
     }
 
     /**
-     * Saves the buffered groups to file
+     * Writes the changes made to the buffered groups since the last save to the journal.
+     * Writing happens on a background thread, which also merges the journal into the
+     * groupdata file once it has grown large.
      *
-     * @param filename - The groupdata file to write to
+     * @param autosave - False to wait until all changes are written to disk
      */
-    public static void save(String filename) {
+    public static void save(boolean autosave) {
         synchronized (managers) {
-            new DataWriter(filename) {
-                public void write(DataOutputStream stream) throws IOException {
-                    //clear empty worlds
-                    Iterator<OfflineGroupManager> iter = managers.values().iterator();
-                    while (iter.hasNext()) {
-                        if (iter.next().groupmap.isEmpty()) {
-                            iter.remove();
-                        }
-                    }
-
-                    //Write it
-                    stream.writeInt(managers.size());
-                    for (Map.Entry<UUID, OfflineGroupManager> entry : managers.entrySet()) {
-                        StreamUtil.writeUUID(stream, entry.getKey());
-
-                        stream.writeInt(entry.getValue().groupmap.size());
-                        for (OfflineGroup wg : entry.getValue().groupmap) wg.writeTo(stream);
-                    }
-                }
-            }.write();
+            if (journal == null) {
+                return;
+            }
+            if (autosave) {
+                journal.flush(groupsByName.size());
+            } else {
+                journal.flushAndWait();
+            }
         }
     }
 
@@ -338,13 +487,12 @@ public class OfflineGroupManager {
             return;
         }
         synchronized (managers) {
-            for (MinecartMember<?> mm : group) {
-                containedMinecarts.add(mm.getEntity().getUniqueId());
-            }
             OfflineGroup wg = new OfflineGroup(group);
             wg.updateLoadedChunks(world);
-            get(world).groupmap.add(wg);
-            containedTrains.add(wg.name);
+            get(world).addGroup(wg);
+            if (journal != null) {
+                journal.store(wg);
+            }
         }
     }
 
@@ -355,27 +503,25 @@ public class OfflineGroupManager {
      * @param uniqueId of the Minecart
      */
     public static boolean containsMinecart(UUID uniqueId) {
-        return containedMinecarts.contains(uniqueId);
+        return groupsByMember.containsKey(uniqueId);
     }
 
     public static int getStoredCount() {
-        return containedTrains.size();
+        return groupsByName.size();
     }
 
     public static boolean contains(String trainname) {
-        return containedTrains.contains(trainname);
+        return groupsByName.containsKey(trainname);
     }
 
     public static void rename(String oldtrainname, String newtrainname) {
         synchronized (managers) {
-            for (OfflineGroupManager man : managers.values()) {
-                for (OfflineGroup group : man.groupmap) {
-                    if (group.name.equals(oldtrainname)) {
-                        group.name = newtrainname;
-                        containedTrains.remove(oldtrainname);
-                        containedTrains.add(newtrainname);
-                        return;
-                    }
+            OfflineGroup group = groupsByName.remove(oldtrainname);
+            if (group != null) {
+                group.name = newtrainname;
+                groupsByName.put(newtrainname, group);
+                if (journal != null) {
+                    journal.rename(oldtrainname, newtrainname);
                 }
             }
         }
@@ -383,11 +529,21 @@ public class OfflineGroupManager {
 
     public static void removeMember(UUID memberUUID) {
         synchronized (managers) {
-            if (containedMinecarts.remove(memberUUID)) {
-                for (OfflineGroupManager manager : managers.values()) {
-                    if (manager.groupmap.removeCart(memberUUID)) {
-                        break;
-                    }
+            OfflineGroup group = groupsByMember.remove(memberUUID);
+            if (group != null) {
+                if (journal != null) {
+                    journal.removeMember(memberUUID);
+                }
+                OfflineGroupManager manager = managers.get(group.worldUUID);
+                if (manager != null) {
+                    manager.groupmap.removeCart(group, memberUUID);
+                } else {
+                    group.removeMember(memberUUID);
+                }
+                // A group without members is gone
+                if (group.members.length == 0 && groupsByName.get(group.name) == group) {
+                    groupsByName.remove(group.name);
+                    restoreQueue.remove(group);
                 }
             }
         }
@@ -395,14 +551,11 @@ public class OfflineGroupManager {
 
     public static void removeGroup(String groupName) {
         synchronized (managers) {
-            containedTrains.remove(groupName);
-            for (OfflineGroupManager manager : managers.values()) {
-                OfflineGroup group = manager.groupmap.remove(groupName);
-                if (group != null) {
-                    for (OfflineMember member : group.members) {
-                        containedMinecarts.remove(member.entityUID);
-                    }
-                    break;
+            OfflineGroup group = groupsByName.get(groupName);
+            if (group != null) {
+                unregister(group);
+                if (journal != null) {
+                    journal.remove(groupName);
                 }
             }
         }
@@ -410,15 +563,8 @@ public class OfflineGroupManager {
 
     public static OfflineGroup findGroup(String groupName) {
         synchronized (managers) {
-            for (OfflineGroupManager manager : managers.values()) {
-                for (OfflineGroup group : manager.groupmap.values()) {
-                    if (group.name.equals(groupName)) {
-                        return group;
-                    }
-                }
-            }
+            return groupsByName.get(groupName);
         }
-        return null;
     }
 
     public static OfflineMember findMember(String groupName, UUID uuid) {
@@ -448,8 +594,8 @@ public class OfflineGroupManager {
                 groupsBuffer.clear();
                 groupsBuffer.addAll(this.groupmap.values());
                 for (OfflineGroup group : groupsBuffer) {
-                    if (checkChunks(group, world)) {
-                        restoreGroup(group, world);
+                    if (!restoreQueue.contains(group) && checkChunks(group, world)) {
+                        queueRestore(group);
                     }
                 }
             } while (chunkLoadReq);
@@ -459,12 +605,44 @@ public class OfflineGroupManager {
         isRefreshingGroups = false;
     }
 
-    private void restoreGroup(OfflineGroup group, World world) {
-        containedTrains.remove(group.name);
-        groupmap.remove(group);
+    private void addGroup(OfflineGroup group) {
+        // A stored group replaces any group by the same name
+        OfflineGroup old = groupsByName.get(group.name);
+        if (old != null && old != group) {
+            unregister(old);
+        }
         for (OfflineMember wm : group.members) {
-            containedMinecarts.remove(wm.entityUID);
+            groupsByMember.put(wm.entityUID, group);
+        }
+        groupmap.add(group);
+        groupsByName.put(group.name, group);
+    }
+
+    private void restoreGroup(OfflineGroup group, World world) {
+        unregister(group);
+        if (journal != null) {
+            journal.remove(group.name);
         }
         group.create(world);
     }
+
+    /**
+     * Removes a group from the world it is stored in and from the name and member indices
+     *
+     * @param group to remove
+     */
+    private static void unregister(OfflineGroup group) {
+        if (groupsByName.get(group.name) == group) {
+            groupsByName.remove(group.name);
+        }
+        for (OfflineMember wm : group.members) {
+            if (groupsByMember.get(wm.entityUID) == group) {
+                groupsByMember.remove(wm.entityUID);
+            }
+        }
+        OfflineGroupManager manager = managers.get(group.worldUUID);
+        if (manager != null) {
+            manager.groupmap.remove(group);
+        }
+    }
 }
@@ -26,6 +26,10 @@ public class OfflineGroupMap implements Iterable<OfflineGroup> {
         return this.groups.isEmpty();
     }
 
+    public boolean contains(OfflineGroup group) {
+        return this.groups.contains(group);
+    }
+
     public void add(OfflineGroup group) {
         this.groups.add(group);
         for (long chunk : group.chunks) {
@@ -35,30 +39,14 @@ public class OfflineGroupMap implements Iterable<OfflineGroup> {
         }
     }
 
-    public boolean removeCart(UUID memberUUID) {
-        for (OfflineGroup group : groups) {
-            for (OfflineMember member : group.members) {
-                if (member.entityUID.equals(memberUUID)) {
-                    // Undo previous registration
-                    remove(group);
-                    // Remove this member from the group
-                    ArrayList<OfflineMember> members = new ArrayList<>();
-                    for (OfflineMember m : group.members) {
-                        if (!m.entityUID.equals(memberUUID)) {
-                            members.add(m);
-                        }
-                    }
-                    if (!members.isEmpty()) {
-                        group.members = members.toArray(new OfflineMember[0]);
-                        group.genChunks();
-                        add(group);
-                    }
-                    // Finished
-                    return true;
-                }
-            }
+    public void removeCart(OfflineGroup group, UUID memberUUID) {
+        // Undo previous registration
+        remove(group);
+        // Remove this member from the group
+        group.removeMember(memberUUID);
+        if (group.members.length > 0) {
+            add(group);
         }
-        return false;
     }
 
     public OfflineGroup remove(String groupName) {
@@ -0,0 +1,235 @@
+package com.bergerkiller.bukkit.tc.storage;
+
+import com.bergerkiller.bukkit.common.config.CompressedDataWriter;
+import com.bergerkiller.bukkit.common.config.DataWriter;
+import com.bergerkiller.bukkit.common.config.FileConfiguration;
+import com.bergerkiller.bukkit.tc.TrainCarts;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+/**
+ * Writes the snapshots of the TrainCarts stores to disk on a single background thread.<br>
+ * <br>
+ * Stores produce a snapshot on the main thread: an in-memory byte array, or a configuration
+ * that is no longer referenced by the store. Serializing it, compressing it and replacing the
+ * old file happens on the writer thread. Each file is written to a temporary file first, which
+ * then replaces the original, so a crash while writing never leaves a half-written file behind.
+ */
+public class SaveQueue {
+    private static final int SHUTDOWN_TIMEOUT = 60; // Seconds to wait for pending writes when stopping
+    private static final int SLOW_WRITE_TIME = 250; // Writes taking longer than this many Ms are logged
+    private static ExecutorService writer = null;
+
+    public static void init() {
+        if (writer == null) {
+            writer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    return new Thread(r, "TrainCarts save writer");
+                }
+            });
+        }
+    }
+
+    /**
+     * Stops the writer thread after all pending writes have completed
+     */
+    public static void deinit() {
+        if (writer == null) {
+            return;
+        }
+        writer.shutdown();
+        try {
+            if (!writer.awaitTermination(SHUTDOWN_TIMEOUT, TimeUnit.SECONDS)) {
+                TrainCarts.plugin.log(Level.SEVERE, "Timed out waiting for TrainCarts data to be written to disk!");
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        writer = null;
+    }
+
+    /**
+     * Runs a task on the writer thread, after all writes scheduled before it.
+     * When the writer is not running, the task is run right away.
+     *
+     * @param task to run
+     */
+    public static void execute(Runnable task) {
+        if (writer == null) {
+            task.run();
+        } else {
+            writer.execute(task);
+        }
+    }
+
+    /**
+     * Waits until all writes scheduled so far have completed
+     */
+    public static void waitForWrites() {
+        if (writer == null) {
+            return;
+        }
+        try {
+            writer.submit(new Runnable() {
+                @Override
+                public void run() {
+                }
+            }).get(SHUTDOWN_TIMEOUT, TimeUnit.SECONDS);
+        } catch (Throwable t) {
+            TrainCarts.plugin.getLogger().log(Level.SEVERE, "Failed to wait for TrainCarts data to be written to disk", t);
+        }
+    }
+
+    /**
+     * Creates a new, empty configuration to fill with a snapshot of a store.
+     * Once filled, it should be passed to {@link #writeConfig(String, String, FileConfiguration)}.
+     *
+     * @param filename of the file the configuration is saved to
+     * @return new configuration
+     */
+    public static FileConfiguration createConfig(String filename) {
+        return new FileConfiguration(getTempFile(filename).getPath());
+    }
+
+    /**
+     * Schedules a configuration created using {@link #createConfig(String)} to be saved.
+     * The configuration must not be changed after calling this method.
+     *
+     * @param storeName to display in the log
+     * @param filename  of the file to replace
+     * @param config    to save
+     */
+    public static void writeConfig(String storeName, String filename, final FileConfiguration config) {
+        execute(new ConfigWriteTask(storeName, filename, config));
+    }
+
+    /**
+     * Saves a configuration created using {@link #createConfig(String)} right away.
+     * This should only be called from a task run using {@link #execute(Runnable)}, so that
+     * it does not run at the same time as other writes.
+     *
+     * @param storeName to display in the log
+     * @param filename  of the file to replace
+     * @param config    to save
+     * @return True if the file was replaced, False if saving failed
+     */
+    public static boolean writeConfigNow(String storeName, String filename, FileConfiguration config) {
+        return new ConfigWriteTask(storeName, filename, config).write();
+    }
+
+    /**
+     * Schedules binary data to be saved
+     *
+     * @param storeName  to display in the log
+     * @param filename   of the file to replace
+     * @param data       to write, must not be changed after calling this method
+     * @param compressed whether to write the data compressed, like CompressedDataWriter does
+     */
+    public static void writeData(String storeName, String filename, final byte[] data, boolean compressed) {
+        if (compressed) {
+            execute(new WriteTask(storeName, filename) {
+                @Override
+                protected void writeTo(File tmpFile) {
+                    new CompressedDataWriter(tmpFile.getPath()) {
+                        public void write(DataOutputStream stream) throws IOException {
+                            stream.write(data);
+                        }
+                    }.write();
+                }
+            });
+        } else {
+            execute(new WriteTask(storeName, filename) {
+                @Override
+                protected void writeTo(File tmpFile) {
+                    new DataWriter(tmpFile.getPath()) {
+                        public void write(DataOutputStream stream) throws IOException {
+                            stream.write(data);
+                        }
+                    }.write();
+                }
+            });
+        }
+    }
+
+    private static File getTempFile(String filename) {
+        return new File(filename + ".tmp");
+    }
+
+    private static abstract class WriteTask implements Runnable {
+        private final String storeName;
+        private final File file;
+        private final File tmpFile;
+
+        public WriteTask(String storeName, String filename) {
+            this.storeName = storeName;
+            this.file = new File(filename);
+            this.tmpFile = getTempFile(filename);
+        }
+
+        /**
+         * Writes the snapshot to the temporary file
+         *
+         * @param tmpFile to write to
+         */
+        protected abstract void writeTo(File tmpFile);
+
+        @Override
+        public void run() {
+            this.write();
+        }
+
+        /**
+         * Writes the snapshot and replaces the original file with it
+         *
+         * @return True if the file was replaced, False if writing failed
+         */
+        public boolean write() {
+            long startTime = System.currentTimeMillis();
+            try {
+                this.tmpFile.delete();
+                this.writeTo(this.tmpFile);
+                if (!this.tmpFile.exists()) {
+                    TrainCarts.plugin.log(Level.SEVERE, "Failed to save " + this.storeName + ", " + this.file.getName() + " was left unchanged");
+                    return false;
+                }
+                try {
+                    Files.move(this.tmpFile.toPath(), this.file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } catch (AtomicMoveNotSupportedException ex) {
+                    Files.move(this.tmpFile.toPath(), this.file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                }
+            } catch (Throwable t) {
+                TrainCarts.plugin.getLogger().log(Level.SEVERE, "Failed to save " + this.storeName, t);
+                return false;
+            }
+            long time = System.currentTimeMillis() - startTime;
+            TrainCarts.plugin.log((time >= SLOW_WRITE_TIME) ? Level.INFO : Level.FINE,
+                    "Wrote " + this.storeName + " to " + this.file.getName() + " in " + time + " ms (" + this.file.length() + " bytes)");
+            return true;
+        }
+    }
+
+    private static class ConfigWriteTask extends WriteTask {
+        private final FileConfiguration config;
+
+        public ConfigWriteTask(String storeName, String filename, FileConfiguration config) {
+            super(storeName, filename);
+            this.config = config;
+        }
+
+        @Override
+        protected void writeTo(File tmpFile) {
+            this.config.save();
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.bergerkiller.bukkit.tc.storage;
+
+import com.bergerkiller.bukkit.tc.TrainCarts;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.logging.Level;
+
+/**
+ * Works like a DataWriter, except that the data is written to memory on the calling thread,
+ * and the file is written later on the {@link SaveQueue} writer thread.
+ */
+public abstract class SnapshotDataWriter {
+    private final String storeName;
+    private final String filename;
+    private final boolean compressed;
+
+    public SnapshotDataWriter(String storeName, String filename) {
+        this(storeName, filename, false);
+    }
+
+    public SnapshotDataWriter(String storeName, String filename, boolean compressed) {
+        this.storeName = storeName;
+        this.filename = filename;
+        this.compressed = compressed;
+    }
+
+    /**
+     * Writes the snapshot data to the stream
+     *
+     * @param stream to write to
+     * @throws IOException
+     */
+    public abstract void write(DataOutputStream stream) throws IOException;
+
+    /**
+     * Writes the snapshot to memory and schedules it to be saved to file
+     */
+    public final void write() {
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        try {
+            DataOutputStream stream = new DataOutputStream(data);
+            this.write(stream);
+            stream.close();
+        } catch (IOException ex) {
+            TrainCarts.plugin.getLogger().log(Level.SEVERE, "Failed to create a snapshot of " + this.storeName, ex);
+            return;
+        }
+        SaveQueue.writeData(this.storeName, this.filename, data.toByteArray(), this.compressed);
+    }
+}
@@ -0,0 +1,136 @@
+package com.bergerkiller.bukkit.tc.storage;
+
+import com.bergerkiller.bukkit.common.utils.MathUtil;
+import com.bergerkiller.bukkit.tc.TrainCarts;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Level;
+
+/**
+ * Loads the stores of TrainCarts while the plugin enables.
+ * Stores that only read their own files are loaded on a pool of worker threads, while
+ * the main thread continues with the stages that touch worlds, entities or the scheduler.
+ * The time taken by every stage is recorded, so a breakdown can be logged once enabling completes.
+ */
+public class StoreLoader {
+    private final long startTime = System.nanoTime();
+    private long lastStageTime = startTime;
+    private final ExecutorService executor;
+    private final List<Future<?>> pending = new ArrayList<>();
+    private final Map<String, Long> stageTimes = new LinkedHashMap<>();
+
+    public StoreLoader(int threadCount) {
+        this.executor = Executors.newFixedThreadPool(Math.max(1, threadCount), new ThreadFactory() {
+            private int threadIndex = 0;
+
+            @Override
+            public synchronized Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "TrainCarts loader " + (++threadIndex));
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Loads a store on a worker thread. The store may not be used by the main thread
+     * until {@link #waitForLoads()} is called.
+     *
+     * @param stageName to record the time taken as
+     * @param task that loads the store
+     */
+    public void loadAsync(final String stageName, final Runnable task) {
+        this.pending.add(this.executor.submit(new Runnable() {
+            @Override
+            public void run() {
+                long stageStart = System.nanoTime();
+                task.run();
+                recordTime(stageName + " (async)", System.nanoTime() - stageStart);
+            }
+        }));
+    }
+
+    /**
+     * Records the time spent on the main thread since the previous stage completed
+     *
+     * @param stageName to record the time taken as
+     */
+    public void stageDone(String stageName) {
+        long now = System.nanoTime();
+        recordTime(stageName, now - this.lastStageTime);
+        this.lastStageTime = now;
+    }
+
+    /**
+     * Waits until all stores loaded on worker threads are loaded.
+     * Failures while loading are thrown on the main thread, as if the stores were loaded there.
+     */
+    public void waitForLoads() {
+        if (this.pending.isEmpty()) {
+            return;
+        }
+        try {
+            for (Future<?> future : this.pending) {
+                future.get();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while loading TrainCarts data", ex);
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            } else {
+                throw new RuntimeException(cause);
+            }
+        } finally {
+            this.pending.clear();
+        }
+        this.stageDone("waiting for loaders");
+    }
+
+    /**
+     * Waits for all stores to be loaded, stops the worker threads and logs the time taken by every stage
+     */
+    public void finish() {
+        try {
+            this.waitForLoads();
+        } finally {
+            this.executor.shutdown();
+        }
+        StringBuilder msg = new StringBuilder();
+        msg.append("Enabled in ").append(toMillis(System.nanoTime() - this.startTime)).append(" ms (");
+        synchronized (this.stageTimes) {
+            boolean first = true;
+            for (Map.Entry<String, Long> entry : this.stageTimes.entrySet()) {
+                if (!first) {
+                    msg.append(", ");
+                }
+                first = false;
+                msg.append(entry.getKey()).append(": ").append(toMillis(entry.getValue())).append(" ms");
+            }
+        }
+        msg.append(")");
+        TrainCarts.plugin.log(Level.INFO, msg.toString());
+    }
+
+    private void recordTime(String stageName, long time) {
+        synchronized (this.stageTimes) {
+            this.stageTimes.put(stageName, time);
+        }
+    }
+
+    private static double toMillis(long nanos) {
+        return MathUtil.round(nanos / 1.0E6, 2);
+    }
+}
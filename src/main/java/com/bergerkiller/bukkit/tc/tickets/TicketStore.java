@@ -1,5 +1,6 @@
 package com.bergerkiller.bukkit.tc.tickets;
 
+import java.io.File;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
@@ -21,6 +22,7 @@ import com.bergerkiller.bukkit.tc.Localization;
 import com.bergerkiller.bukkit.tc.TrainCarts;
 import com.bergerkiller.bukkit.tc.controller.MinecartGroup;
 import com.bergerkiller.bukkit.tc.properties.TrainProperties;
+import com.bergerkiller.bukkit.tc.storage.SaveQueue;
 
 public class TicketStore {
     public static final Ticket DEFAULT = new Ticket("");
@@ -438,11 +440,12 @@ public class TicketStore {
             return;
         }
 
-        FileConfiguration config = new FileConfiguration(TrainCarts.plugin, saveFileName);
+        String filename = TrainCarts.plugin.getDataFolder() + File.separator + saveFileName;
+        FileConfiguration config = SaveQueue.createConfig(filename);
         for (Ticket ticket : ticketMap.values()) {
             ticket.save(config.getNode(ticket.getName()));
         }
-        config.save();
+        SaveQueue.writeConfig("tickets", filename, config);
         hasChanges = false;
     }
 }
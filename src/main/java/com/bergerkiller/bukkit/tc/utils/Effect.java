@@ -6,6 +6,7 @@ import com.bergerkiller.bukkit.common.utils.StringUtil;
 
 import org.bukkit.Location;
 import org.bukkit.Sound;
+import org.bukkit.entity.Player;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -14,6 +15,8 @@ import java.util.Locale;
 public class Effect {
     private static final StringMap<Integer> DIR_NAMES = new StringMap<>();
     private static final StringMap<Integer> DISK_NAMES = new StringMap<>();
+    private static final double EFFECT_RADIUS = 64.0; // Distance at which players see effects
+    private static final double SOUND_RADIUS = 16.0; // Distance at which players hear sounds at volume 1
 
     static {
         // Smoke
@@ -64,11 +67,20 @@ public class Effect {
 
     private void play(Location location, org.bukkit.Effect effect, int data) {
         try {
-            location.getWorld().playEffect(location, effect, data);
+            for (Player player : PlayerIndex.getNearby(location, EFFECT_RADIUS)) {
+                player.playEffect(location, effect, data);
+            }
         } catch (Throwable ignored) {
         }
     }
 
+    private void play(Location location, Sound sound) {
+        double radius = SOUND_RADIUS * Math.max(1.0f, volume);
+        for (Player player : PlayerIndex.getNearby(location, radius)) {
+            player.playSound(location, sound, volume, pitch);
+        }
+    }
+
     public void play(Location location) {
         for (String name : effects) {
             if (name.startsWith("SMOKE")) {
@@ -120,7 +132,7 @@ public class Effect {
             }
             Sound sound = ParseUtil.parseEnum(Sound.class, name, null);
             if (sound != null) {
-                location.getWorld().playSound(location, sound, volume, pitch);
+                play(location, sound);
                 continue;
             }
         }
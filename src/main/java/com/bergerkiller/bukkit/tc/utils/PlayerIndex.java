@@ -0,0 +1,120 @@
+package com.bergerkiller.bukkit.tc.utils;
+
+import com.bergerkiller.bukkit.common.Task;
+import com.bergerkiller.bukkit.common.utils.MathUtil;
+import com.bergerkiller.bukkit.common.wrappers.LongHashMap;
+import com.bergerkiller.bukkit.tc.TrainCarts;
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.entity.Player;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Indexes the online players of every world by the chunk they are in, so the players
+ * near a location can be found without looking at every player on the world.<br>
+ * <br>
+ * The index is rebuilt at most once every tick, the first time it is used in that tick.
+ */
+public class PlayerIndex {
+    private static final Map<UUID, LongHashMap<List<Player>>> worlds = new HashMap<>();
+    private static boolean outdated = true;
+    private static Task invalidateTask = null;
+
+    public static void init() {
+        invalidateTask = new Task(TrainCarts.plugin) {
+            public void run() {
+                outdated = true;
+            }
+        }.start(1, 1);
+    }
+
+    public static void deinit() {
+        Task.stop(invalidateTask);
+        invalidateTask = null;
+        worlds.clear();
+        outdated = true;
+    }
+
+    /**
+     * Gets all players on a world within a radius of a location
+     *
+     * @param location to look around
+     * @param radius to look in
+     * @return players within the radius
+     */
+    public static List<Player> getNearby(Location location, double radius) {
+        return getNearby(location.getWorld(), location.getX(), location.getY(), location.getZ(), radius);
+    }
+
+    /**
+     * Gets all players on a world within a radius of a location
+     *
+     * @param world to look in
+     * @param x - coordinate to look around
+     * @param y - coordinate to look around
+     * @param z - coordinate to look around
+     * @param radius to look in
+     * @return players within the radius
+     */
+    public static List<Player> getNearby(World world, double x, double y, double z, double radius) {
+        if (outdated) {
+            rebuild();
+        }
+        LongHashMap<List<Player>> cells = worlds.get(world.getUID());
+        if (cells == null) {
+            return Collections.emptyList();
+        }
+        List<Player> result = new ArrayList<>();
+        final double radiusSquared = radius * radius;
+        final int minX = MathUtil.floor(x - radius) >> 4;
+        final int maxX = MathUtil.floor(x + radius) >> 4;
+        final int minZ = MathUtil.floor(z - radius) >> 4;
+        final int maxZ = MathUtil.floor(z + radius) >> 4;
+        for (int cx = minX; cx <= maxX; cx++) {
+            for (int cz = minZ; cz <= maxZ; cz++) {
+                List<Player> players = cells.get(MathUtil.longHashToLong(cx, cz));
+                if (players == null) {
+                    continue;
+                }
+                for (Player player : players) {
+                    Location loc = player.getLocation();
+                    double dx = loc.getX() - x;
+                    double dy = loc.getY() - y;
+                    double dz = loc.getZ() - z;
+                    if ((dx * dx + dy * dy + dz * dz) <= radiusSquared) {
+                        result.add(player);
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    private static void rebuild() {
+        outdated = false;
+        worlds.clear();
+        for (Player player : Bukkit.getOnlinePlayers()) {
+            Location loc = player.getLocation();
+            UUID worldUUID = loc.getWorld().getUID();
+            LongHashMap<List<Player>> cells = worlds.get(worldUUID);
+            if (cells == null) {
+                cells = new LongHashMap<>();
+                worlds.put(worldUUID, cells);
+            }
+            long key = MathUtil.longHashToLong(loc.getBlockX() >> 4, loc.getBlockZ() >> 4);
+            List<Player> players = cells.get(key);
+            if (players == null) {
+                players = new ArrayList<>(1);
+                cells.put(key, players);
+            }
+            players.add(player);
+        }
+    }
+}
@@ -0,0 +1,208 @@
+package com.bergerkiller.bukkit.tc.utils;
+
+import com.bergerkiller.bukkit.common.utils.MathUtil;
+import com.bergerkiller.bukkit.common.utils.WorldUtil;
+import com.bergerkiller.bukkit.common.wrappers.LongHashMap;
+import com.bergerkiller.bukkit.tc.PowerState;
+import com.bergerkiller.bukkit.tc.SignActionHeader;
+import org.bukkit.Chunk;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.block.BlockState;
+import org.bukkit.block.Sign;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Stores the last known redstone power state of the TrainCarts signs on the server, grouped by chunk.
+ * Within a chunk, the position of every sign is packed into a short, so that a chunk takes up only
+ * a few bytes per sign. Other signs are only stored once their power state is set.<br>
+ * <br>
+ * The signs of a chunk are found when the chunk loads, when the chunk is initialized using
+ * {@link #initChunk(Chunk)}, or the first time the chunk is used. The power of the signs found is
+ * read right away, so that the first change of a sign is compared against its power at that time.
+ */
+public class SignPowerMap {
+    private static final byte STATE_OFF = 0;
+    private static final byte STATE_ON = 1;
+    private final Map<UUID, LongHashMap<ChunkSigns>> worlds = new HashMap<>();
+
+    /**
+     * Finds all the TrainCarts signs in a chunk and reads their power state.
+     * Previously stored states of the chunk are discarded.
+     *
+     * @param chunk to index
+     */
+    public void indexChunk(Chunk chunk) {
+        getWorld(chunk.getWorld()).put(MathUtil.longHashToLong(chunk.getX(), chunk.getZ()), createIndex(chunk));
+    }
+
+    /**
+     * Finds all the TrainCarts signs in a chunk and reads their power state,
+     * unless this was already done for the chunk.
+     *
+     * @param chunk to initialize
+     */
+    public void initChunk(Chunk chunk) {
+        LongHashMap<ChunkSigns> chunks = getWorld(chunk.getWorld());
+        long key = MathUtil.longHashToLong(chunk.getX(), chunk.getZ());
+        if (chunks.get(key) == null) {
+            chunks.put(key, createIndex(chunk));
+        }
+    }
+
+    /**
+     * Discards the states of all signs in a chunk
+     *
+     * @param chunk to remove
+     */
+    public void removeChunk(Chunk chunk) {
+        LongHashMap<ChunkSigns> chunks = this.worlds.get(chunk.getWorld().getUID());
+        if (chunks != null) {
+            chunks.remove(MathUtil.longHashToLong(chunk.getX(), chunk.getZ()));
+        }
+    }
+
+    /**
+     * Discards the states of all signs on a world
+     *
+     * @param world to remove
+     */
+    public void removeWorld(World world) {
+        this.worlds.remove(world.getUID());
+    }
+
+    /**
+     * Gets whether a sign is a TrainCarts sign whose power state is stored
+     *
+     * @param signBlock to check
+     * @return True if the sign is stored
+     */
+    public boolean contains(Block signBlock) {
+        return getChunk(signBlock).indexOf(pack(signBlock)) != -1;
+    }
+
+    /**
+     * Gets the last known power state of a sign. If not stored, it is read from the world.
+     *
+     * @param signBlock to get the power state of
+     * @return True if powered, False if not
+     */
+    public boolean isPowered(Block signBlock) {
+        ChunkSigns signs = getChunk(signBlock);
+        short pos = pack(signBlock);
+        int index = signs.indexOf(pos);
+        if (index == -1) {
+            return PowerState.isSignPowered(signBlock);
+        }
+        return signs.states[index] == STATE_ON;
+    }
+
+    /**
+     * Sets the power state of a sign. If the sign was not stored before, it is added.
+     *
+     * @param signBlock to set the power state of
+     * @param powered state to set to
+     * @return True if the power state changed, False if not
+     */
+    public boolean setPowered(Block signBlock, boolean powered) {
+        ChunkSigns signs = getChunk(signBlock);
+        short pos = pack(signBlock);
+        int index = signs.indexOf(pos);
+        byte newState = powered ? STATE_ON : STATE_OFF;
+        if (index == -1) {
+            // New sign, which was not powered before
+            signs.add(pos, newState);
+            return powered;
+        }
+        byte oldState = signs.states[index];
+        signs.states[index] = newState;
+        return oldState != newState;
+    }
+
+    /**
+     * Discards the power state of a sign
+     *
+     * @param signBlock to remove
+     */
+    public void remove(Block signBlock) {
+        getChunk(signBlock).remove(pack(signBlock));
+    }
+
+    private LongHashMap<ChunkSigns> getWorld(World world) {
+        LongHashMap<ChunkSigns> chunks = this.worlds.get(world.getUID());
+        if (chunks == null) {
+            chunks = new LongHashMap<>();
+            this.worlds.put(world.getUID(), chunks);
+        }
+        return chunks;
+    }
+
+    private ChunkSigns getChunk(Block block) {
+        LongHashMap<ChunkSigns> chunks = getWorld(block.getWorld());
+        long key = MathUtil.longHashToLong(block.getX() >> 4, block.getZ() >> 4);
+        ChunkSigns signs = chunks.get(key);
+        if (signs == null) {
+            // Chunk was loaded before we started tracking it
+            signs = createIndex(block.getChunk());
+            chunks.put(key, signs);
+        }
+        return signs;
+    }
+
+    private static ChunkSigns createIndex(Chunk chunk) {
+        ChunkSigns signs = new ChunkSigns();
+        for (BlockState state : WorldUtil.getBlockStates(chunk)) {
+            if (state instanceof Sign && SignActionHeader.parseFromSign((Sign) state).isValid()) {
+                Block block = state.getBlock();
+                signs.add(pack(block), PowerState.isSignPowered(block) ? STATE_ON : STATE_OFF);
+            }
+        }
+        return signs;
+    }
+
+    private static short pack(Block block) {
+        return (short) (((block.getY() & 0xFF) << 8) | ((block.getZ() & 0xF) << 4) | (block.getX() & 0xF));
+    }
+
+    /**
+     * Positions and power states of the signs in a single chunk
+     */
+    private static final class ChunkSigns {
+        private short[] positions = new short[0];
+        private byte[] states = new byte[0];
+        private int count = 0;
+
+        public int indexOf(short pos) {
+            for (int i = 0; i < this.count; i++) {
+                if (this.positions[i] == pos) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        public void add(short pos, byte state) {
+            if (this.count == this.positions.length) {
+                int newLength = Math.max(4, this.count * 2);
+                this.positions = Arrays.copyOf(this.positions, newLength);
+                this.states = Arrays.copyOf(this.states, newLength);
+            }
+            this.positions[this.count] = pos;
+            this.states[this.count] = state;
+            this.count++;
+        }
+
+        public void remove(short pos) {
+            int index = indexOf(pos);
+            if (index != -1) {
+                this.count--;
+                this.positions[index] = this.positions[this.count];
+                this.states[index] = this.states[this.count];
+            }
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package com.bergerkiller.bukkit.tc;
+
+import static org.junit.Assert.*;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.bergerkiller.bukkit.tc.actions.Action;
+import com.bergerkiller.bukkit.tc.actions.ActionTimerWheel;
+import com.bergerkiller.bukkit.tc.actions.GroupActionWaitTicks;
+import com.bergerkiller.bukkit.tc.harness.TestGroup;
+
+public class ActionTimerWheelTest {
+
+    @After
+    public void cleanup() {
+        ActionTimerWheel.clear();
+    }
+
+    @Test
+    public void testWakeTicks() {
+        // Around the boundaries of the three levels and the overflow, starting at different offsets in the wheel
+        int[] delays = {1, 2, 63, 64, 65, 127, 128, 4095, 4096, 4097, 8191, 262143, 262144, 262145, 300000};
+        for (int offset : new int[] {0, 1, 37, 63}) {
+            for (int delay : delays) {
+                advance(offset);
+                SuspendingAction action = new SuspendingAction(delay);
+                action.doTick();
+                long suspendTick = ActionTimerWheel.getCurrentTick();
+                assertTrue(action.isSuspended());
+                assertEquals(1, ActionTimerWheel.getScheduledCount());
+
+                advance(delay - 1);
+                assertEquals("Woken too early after " + delay + " ticks", 0, action.resumeCount);
+                ActionTimerWheel.advance();
+                assertEquals("Not woken after " + delay + " ticks", 1, action.resumeCount);
+                assertEquals(suspendTick + delay, action.resumeTick);
+                assertEquals(delay - 1, action.skippedTicks);
+                assertEquals(delay, action.elapsedTicks());
+                assertFalse(action.isSuspended());
+                assertEquals(0, ActionTimerWheel.getScheduledCount());
+            }
+        }
+    }
+
+    @Test
+    public void testManyTimers() {
+        SuspendingAction[] actions = new SuspendingAction[5000];
+        long start = ActionTimerWheel.getCurrentTick();
+        for (int i = 0; i < actions.length; i++) {
+            actions[i] = new SuspendingAction(1 + (i * 97) % 10000);
+            actions[i].doTick();
+        }
+        assertEquals(actions.length, ActionTimerWheel.getScheduledCount());
+        advance(10000);
+        for (SuspendingAction action : actions) {
+            assertEquals(1, action.resumeCount);
+            assertEquals(start + action.delay, action.resumeTick);
+        }
+        assertEquals(0, ActionTimerWheel.getScheduledCount());
+    }
+
+    @Test
+    public void testCancel() {
+        SuspendingAction action = new SuspendingAction(5000);
+        action.doTick();
+        advance(100);
+
+        // Cancelling wakes the action right away, counting the ticks it was suspended for
+        action.cancelSuspend();
+        assertFalse(action.isSuspended());
+        assertEquals(1, action.resumeCount);
+        assertEquals(99, action.skippedTicks);
+        assertEquals(0, ActionTimerWheel.getScheduledCount());
+
+        // The cancelled timer no longer wakes it up
+        advance(5000);
+        assertEquals(1, action.resumeCount);
+
+        // A timer cancelled directly does not wake anything up either
+        ActionTimerWheel.Timer timer = ActionTimerWheel.schedule(action, 10);
+        ActionTimerWheel.cancel(timer);
+        ActionTimerWheel.cancel(timer);
+        assertEquals(0, ActionTimerWheel.getScheduledCount());
+        advance(20);
+        assertEquals(1, action.resumeCount);
+    }
+
+    @Test
+    public void testWaitTicks() {
+        for (int ticks : new int[] {0, 1, 2, 3, 63, 64, 65, 100, 4096, 5000}) {
+            GroupActionWaitTicks polled = new GroupActionWaitTicks(ticks) {
+                @Override
+                public int getSuspendTicks() {
+                    return 0;
+                }
+            };
+            GroupActionWaitTicks suspended = new GroupActionWaitTicks(ticks);
+            polled.setGroup(new TestGroup());
+            suspended.setGroup(new TestGroup());
+
+            int polledFinish = -1, suspendedFinish = -1;
+            for (int tick = 1; polledFinish == -1 || suspendedFinish == -1; tick++) {
+                assertTrue("Wait of " + ticks + " ticks did not finish", tick < ticks + 10);
+                ActionTimerWheel.advance();
+                if (polledFinish == -1 && polled.doTick()) {
+                    polledFinish = tick;
+                }
+                if (suspendedFinish == -1 && suspended.doTick()) {
+                    suspendedFinish = tick;
+                }
+            }
+            assertEquals("Wait of " + ticks + " ticks", polledFinish, suspendedFinish);
+            assertEquals(ticks + 1, polledFinish);
+        }
+    }
+
+    private static void advance(int ticks) {
+        for (int i = 0; i < ticks; i++) {
+            ActionTimerWheel.advance();
+        }
+    }
+
+    /**
+     * Action that suspends itself once for a number of ticks, and records when it is woken up
+     */
+    private static class SuspendingAction extends Action {
+        public final int delay;
+        public int resumeCount = 0;
+        public long resumeTick = -1;
+        public int skippedTicks = -1;
+
+        public SuspendingAction(int delay) {
+            this.delay = delay;
+        }
+
+        @Override
+        public boolean update() {
+            return false;
+        }
+
+        @Override
+        public int getSuspendTicks() {
+            return (this.resumeCount == 0) ? this.delay : 0;
+        }
+
+        @Override
+        protected void onResume(int skippedTicks) {
+            this.resumeCount++;
+            this.resumeTick = ActionTimerWheel.getCurrentTick();
+            this.skippedTicks = skippedTicks;
+        }
+    }
+}
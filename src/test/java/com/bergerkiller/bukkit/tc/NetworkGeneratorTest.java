@@ -0,0 +1,186 @@
+package com.bergerkiller.bukkit.tc;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.bergerkiller.bukkit.tc.harness.NetworkGenerator;
+import com.bergerkiller.bukkit.tc.harness.SyntheticNetwork;
+import com.bergerkiller.bukkit.tc.harness.TrafficPattern;
+import com.bergerkiller.bukkit.tc.harness.TrafficSimulation;
+import com.bergerkiller.bukkit.tc.harness.TrainModel;
+import com.bergerkiller.bukkit.tc.pathfinding.PathConnection;
+import com.bergerkiller.bukkit.tc.pathfinding.PathNode;
+import com.bergerkiller.bukkit.tc.signactions.SignActionSpawn;
+import com.bergerkiller.bukkit.tc.signactions.spawner.SpawnSign;
+
+public class NetworkGeneratorTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testLayouts() {
+        NetworkGenerator generator = new NetworkGenerator();
+        generator.switcherCount = 9;
+        generator.destinationCount = 20;
+        for (NetworkGenerator.Layout layout : NetworkGenerator.Layout.values()) {
+            SyntheticNetwork network = generator.generate(layout);
+            assertEquals(20, network.getDestinations().size());
+            assertFalse(network.getSpawnPoints().isEmpty());
+            for (SyntheticNetwork.Node node : network.getNodes()) {
+                assertNotNull(network.world.getRails(node.rails));
+                assertFalse("Node " + node.index + " of " + layout + " is not connected", node.connections.isEmpty());
+            }
+
+            // Same seed, same network
+            SyntheticNetwork again = generator.generate(layout);
+            assertEquals(network.getNodes().size(), again.getNodes().size());
+            for (int i = 0; i < network.getNodes().size(); i++) {
+                assertEquals(network.getNodes().get(i).name, again.getNodes().get(i).name);
+                assertEquals(network.getNodes().get(i).rails.getX(), again.getNodes().get(i).rails.getX());
+                assertEquals(network.getNodes().get(i).rails.getZ(), again.getNodes().get(i).rails.getZ());
+            }
+
+            // Every destination can be reached from every node
+            network.loadPathNodes();
+            try {
+                for (SyntheticNetwork.Node node : network.getNodes()) {
+                    PathNode pathNode = PathNode.get(node.rails);
+                    assertNotNull(pathNode);
+                    for (String destination : network.getDestinations()) {
+                        if (!destination.equals(node.name)) {
+                            assertNotNull("No route from node " + node.index + " of " + layout + " to " + destination,
+                                    pathNode.findConnection(destination));
+                        }
+                    }
+                }
+            } finally {
+                PathNode.clearAll();
+            }
+        }
+    }
+
+    @Test
+    public void testWriteFiles() throws IOException {
+        final SyntheticNetwork network = new NetworkGenerator().generate(NetworkGenerator.Layout.GRID);
+        File destinations = folder.newFile("destinations.dat");
+        File spawnSigns = folder.newFile("spawnsigns.dat");
+        network.writeDestinations(destinations);
+        network.writeSpawnSigns(spawnSigns);
+
+        // The destination graph is read back by the path finding
+        PathNode.init(destinations.getPath());
+        try {
+            assertEquals(network.getNodes().size(), PathNode.getAll().size());
+            for (SyntheticNetwork.Node node : network.getNodes()) {
+                PathNode pathNode = PathNode.get(node.rails);
+                assertNotNull(pathNode);
+                if (node.isSwitcher()) {
+                    assertTrue(pathNode.containsOnlySwitcher());
+                } else {
+                    assertTrue(pathNode.containsName(node.name));
+                }
+                for (SyntheticNetwork.Connection connection : node.connections) {
+                    // The neighbours are the closest nodes, and the path finding adds one for leaving the start node
+                    PathNode to = PathNode.get(connection.to.rails);
+                    PathConnection found = pathNode.findConnection(to);
+                    assertNotNull(found);
+                    assertEquals(2, pathNode.findRoute(to).length);
+                    assertEquals(connection.direction, found.direction);
+                    assertEquals(connection.distance + 1, found.distance);
+                }
+            }
+        } finally {
+            PathNode.clearAll();
+        }
+
+        // The spawn signs are read back with their interval
+        SignActionSpawn.init(spawnSigns.getPath());
+        for (SyntheticNetwork.SpawnPoint point : network.getSpawnPoints()) {
+            SpawnSign sign = SignActionSpawn.getSpawnSign(point.rails.getRelative(0, -2, 0));
+            assertNotNull(sign);
+            assertEquals(network.world.getWorld().getName(), sign.getWorldName());
+            assertEquals(point.intervalSeconds * 1000L, sign.getSpawnInterval());
+        }
+    }
+
+    @Test
+    public void testTraffic() {
+        SyntheticNetwork network = new NetworkGenerator().generate(NetworkGenerator.Layout.GRID);
+        TrafficPattern pattern = new TrafficPattern();
+        pattern.maxTrains = 100;
+        pattern.spawnInterval = 5;
+        TrafficSimulation traffic = new TrafficSimulation(network, pattern);
+        try {
+            traffic.run(2000);
+            assertEquals(100, traffic.getSpawnedCount());
+            assertTrue(traffic.getArrivalCount() > 0);
+        } finally {
+            traffic.close();
+        }
+    }
+
+    @Test
+    public void testRoutesAcrossLoops() {
+        // A single train spawned on the first loop, driving to the destination furthest away from it
+        SyntheticNetwork network = new NetworkGenerator().generate(NetworkGenerator.Layout.GRID);
+        SyntheticNetwork.Node furthest = null;
+        for (SyntheticNetwork.Node node : network.getNodes()) {
+            if (!node.isSwitcher() && (furthest == null || (node.rails.getX() + node.rails.getZ()) > (furthest.rails.getX() + furthest.rails.getZ()))) {
+                furthest = node;
+            }
+        }
+        assertTrue(furthest.rails.getX() > 48 && furthest.rails.getZ() > 48);
+        TrafficPattern pattern = new TrafficPattern().weight(furthest.name, 1);
+        pattern.maxTrains = 1;
+        pattern.spawnInterval = 1;
+        TrafficSimulation traffic = new TrafficSimulation(network, pattern);
+        try {
+            for (int tick = 0; tick < 10000 && traffic.getArrivalCount() == 0; tick++) {
+                traffic.tick();
+            }
+            assertEquals(1, traffic.getArrivalCount());
+            assertTrue(traffic.getSwitchCount() > 0);
+        } finally {
+            traffic.close();
+        }
+    }
+
+    @Test
+    public void testSharedSpawnPoint() {
+        SyntheticNetwork network = new NetworkGenerator().generate(NetworkGenerator.Layout.RING);
+        SyntheticNetwork.SpawnPoint point = network.getSpawnPoints().get(0);
+        network.addSpawnPoint(point.rails, point.direction, point.intervalSeconds);
+        TrafficPattern pattern = new TrafficPattern();
+        pattern.maxTrains = 2;
+        pattern.spawnInterval = 1;
+        pattern.minCarts = 4;
+        pattern.maxCarts = 4;
+        TrafficSimulation traffic = new TrafficSimulation(network, pattern);
+        try {
+            // Both spawn points are due, but the second may not spawn on top of the first train
+            traffic.tick();
+            assertEquals(1, traffic.getSpawnedCount());
+            assertEquals(1, traffic.getBlockedSpawnCount());
+
+            // Once the first train left the spawn, the second one spawns behind it
+            traffic.run(100);
+            assertEquals(2, traffic.getSpawnedCount());
+            TrainModel.Train first = traffic.getModel().getTrains().get(0);
+            TrainModel.Train second = traffic.getModel().getTrains().get(1);
+            for (int i = 0; i < first.size(); i++) {
+                for (int j = 0; j < second.size(); j++) {
+                    assertFalse(first.getRails(i).equals(second.getRails(j)));
+                }
+            }
+        } finally {
+            traffic.close();
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package com.bergerkiller.bukkit.tc;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.bukkit.block.Block;
+import org.bukkit.block.BlockFace;
+import org.junit.Test;
+
+import com.bergerkiller.bukkit.tc.harness.TestWorld;
+import com.bergerkiller.bukkit.tc.harness.TrackBuilder;
+import com.bergerkiller.bukkit.tc.harness.TrainModel;
+
+public class TrainModelTest {
+
+    @Test
+    public void testSpacingConverges() {
+        TestWorld world = new TestWorld("straight");
+        new TrackBuilder(world, 0, 64, 0, BlockFace.EAST).straight(2000);
+        TrainModel model = new TrainModel(world);
+        try {
+            TrainModel.Train train = model.spawn(world.getBlockAt(20, 64, 0), BlockFace.EAST, 10, 1.0);
+            assertNotNull(train);
+
+            model.run(1000);
+            for (int i = 0; i < train.size() - 1; i++) {
+                assertEquals(TrainCarts.cartDistance, train.getSpacing(i), 0.01);
+            }
+            assertFalse(train.isAtEnd());
+        } finally {
+            model.close();
+        }
+    }
+
+    @Test
+    public void testFollowsRails() {
+        TestWorld world = new TestWorld("curves");
+        TrackBuilder builder = new TrackBuilder(world, 0, 64, 0, BlockFace.EAST);
+        builder.straight(10).turn(BlockFace.SOUTH).straight(10).turn(BlockFace.WEST).straight(5).turn(BlockFace.SOUTH).straight(3);
+        TrainModel model = new TrainModel(world);
+        try {
+            TrainModel.Train train = model.spawn(builder.getPlaced().get(0), BlockFace.EAST, 1, 1.0);
+            assertNotNull(train);
+
+            // The head visits every rails placed, in the order they were placed, and stops at the last one
+            List<Block> visited = new ArrayList<>();
+            visited.add(train.getRails(0));
+            for (int tick = 0; tick < 1000 && !train.isAtEnd(); tick++) {
+                model.tick();
+                Block rails = train.getRails(0);
+                if (!isSameBlock(rails, visited.get(visited.size() - 1))) {
+                    visited.add(rails);
+                }
+            }
+            assertTrue(train.isAtEnd());
+            List<Block> placed = builder.getPlaced();
+            assertEquals(placed.size(), visited.size());
+            for (int i = 0; i < placed.size(); i++) {
+                assertTrue(isSameBlock(placed.get(i), visited.get(i)));
+            }
+        } finally {
+            model.close();
+        }
+    }
+
+    @Test
+    public void testEndOfTrackAndUnloadedChunks() {
+        TestWorld world = new TestWorld("end");
+        new TrackBuilder(world, 0, 64, 0, BlockFace.EAST).straight(100);
+        final List<String> signs = new ArrayList<>();
+        world.setSign(50, 62, 0, "[train]", "announce", "halfway");
+        TrainModel model = new TrainModel(world);
+        try {
+            model.setSignListener(new TrainModel.SignListener() {
+                @Override
+                public void onSign(TrainModel.Train train, Block signBlock, String[] lines, BlockFace direction) {
+                    signs.add(lines[2]);
+                }
+            });
+            TrainModel.Train train = model.spawn(world.getBlockAt(10, 64, 0), BlockFace.EAST, 3, 1.5);
+
+            // Head enters chunk 2 at x=32, after which it stays frozen
+            world.setChunkLoaded(2, 0, false);
+            model.run(200);
+            assertEquals(2, train.getRails(0).getX() >> 4);
+            assertTrue(model.getFrozenTrains() > 0);
+            assertTrue(signs.isEmpty());
+
+            world.setChunkLoaded(2, 0, true);
+            model.run(1000);
+            assertTrue(train.isAtEnd());
+            assertEquals(99, train.getRails(0).getX());
+            assertEquals(1, signs.size());
+            assertEquals("halfway", signs.get(0));
+        } finally {
+            model.close();
+        }
+    }
+
+    @Test
+    public void testSwitchingRails() {
+        // A straight track east, with a spur branching off south at x=10
+        final TestWorld world = new TestWorld("junction");
+        new TrackBuilder(world, 0, 64, 0, BlockFace.EAST).straight(30);
+        new TrackBuilder(world, 10, 64, 1, BlockFace.SOUTH).straight(10);
+        world.setSign(10, 62, 0, "[train]", "switcher");
+        TrainModel model = new TrainModel(world);
+        try {
+            model.setSignListener(new TrainModel.SignListener() {
+                @Override
+                public void onSign(TrainModel.Train train, Block signBlock, String[] lines, BlockFace direction) {
+                    world.setRailsFromTo(signBlock.getRelative(BlockFace.UP, 2), direction.getOppositeFace(), BlockFace.SOUTH);
+                }
+            });
+            TrainModel.Train train = model.spawn(world.getBlockAt(5, 64, 0), BlockFace.EAST, 2, 1.5);
+            model.run(1000);
+            assertTrue(train.isAtEnd());
+            assertEquals(10, train.getRails(0).getX());
+            assertEquals(10, train.getRails(0).getZ());
+        } finally {
+            model.close();
+        }
+    }
+
+    @Test
+    public void testWaitsForOccupiedRails() {
+        TestWorld world = new TestWorld("waiting");
+        new TrackBuilder(world, 0, 64, 0, BlockFace.EAST).straight(100);
+        TrainModel model = new TrainModel(world);
+        try {
+            TrainModel.Train front = model.spawn(world.getBlockAt(40, 64, 0), BlockFace.EAST, 3, 1.5);
+            TrainModel.Train back = model.spawn(world.getBlockAt(20, 64, 0), BlockFace.EAST, 3, 1.5);
+            front.speed = 0.0;
+            assertNull(model.spawn(world.getBlockAt(41, 64, 0), BlockFace.EAST, 3, 1.5));
+
+            // The train behind drives up to the standing train, and waits right behind its last cart
+            model.run(500);
+            assertTrue(model.getWaitingTrains() > 0);
+            assertEquals(front.getRails(front.size() - 1).getX() - 1, back.getRails(0).getX());
+
+            // Once the train in front leaves, the train behind follows it
+            front.speed = 0.4;
+            model.run(500);
+            assertTrue(back.getRails(0).getX() > 40);
+            assertTrue(back.getRails(0).getX() < front.getRails(front.size() - 1).getX());
+        } finally {
+            model.close();
+        }
+    }
+
+    @Test
+    public void testRingIsDeterministic() {
+        double[] first = runRing();
+        double[] second = runRing();
+        assertArrayEquals(first, second, 0.0);
+        for (double value : first) {
+            assertFalse(Double.isNaN(value));
+        }
+    }
+
+    private static double[] runRing() {
+        TestWorld world = new TestWorld("ring");
+        new TrackBuilder(world, 0, 64, 0, BlockFace.EAST).ring(40, 24);
+        TrainModel model = new TrainModel(world);
+        try {
+            model.spawn(world.getBlockAt(10, 64, 0), BlockFace.EAST, 5, 1.5);
+            model.spawn(world.getBlockAt(30, 64, 0), BlockFace.EAST, 3, 1.5);
+            model.run(5000);
+        } finally {
+            model.close();
+        }
+
+        List<Double> values = new ArrayList<>();
+        for (TrainModel.Train train : model.getTrains()) {
+            assertFalse(train.isAtEnd());
+            for (int i = 0; i < train.size(); i++) {
+                values.add(train.getX(i));
+                values.add(train.getZ(i));
+                if (i < train.size() - 1) {
+                    assertTrue(train.getSpacing(i) > 1.0 && train.getSpacing(i) < 2.5);
+                }
+            }
+        }
+        double[] result = new double[values.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = values.get(i);
+        }
+        return result;
+    }
+
+    private static boolean isSameBlock(Block a, Block b) {
+        return a.getX() == b.getX() && a.getY() == b.getY() && a.getZ() == b.getZ();
+    }
+}
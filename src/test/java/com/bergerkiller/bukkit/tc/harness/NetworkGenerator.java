@@ -0,0 +1,268 @@
+package com.bergerkiller.bukkit.tc.harness;
+
+import org.bukkit.block.Block;
+import org.bukkit.block.BlockFace;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+/**
+ * Generates rail networks of a configurable size for load testing.<br>
+ * <br>
+ * Every network is made of closed loops of track, so trains keep running without reaching the end of the track.
+ * Trains drive around every loop in the same direction. Loops next to each other are joined by two straight
+ * spurs of track, one leading from the first loop to the second and one leading back. Both ends of a spur
+ * branch off the loop at a junction with a switcher sign, which connects to the next node along its loop
+ * and, at the start of the spur, to the switcher at its end. The switchers and destinations are spread
+ * evenly over the loops in an order shuffled using the seed, away from the junctions, and connect to the
+ * next node along their loop in the destination graph. The same settings and seed always generate the
+ * same network.
+ */
+public class NetworkGenerator {
+    private static final int GAP = 8;
+    /** Rails behind a spawn point without junctions, so trains spawn on the track of the loop */
+    private static final int SPAWN_CLEARANCE = 16;
+    /** Amount of switchers placed on the loops, grids and yards have more loops with more switchers */
+    public int switcherCount = 8;
+    /** Amount of destinations */
+    public int destinationCount = 16;
+    /** Seconds between the spawns of every spawn sign */
+    public int spawnInterval = 30;
+    public long seed = 0;
+
+    /**
+     * Generates a network. Besides the switchers set, every junction between loops gets a switcher.
+     *
+     * @param layout of the network
+     * @return generated network
+     */
+    public SyntheticNetwork generate(Layout layout) {
+        TestWorld world = new TestWorld(layout.name().toLowerCase() + "_" + this.seed);
+        SyntheticNetwork network = new SyntheticNetwork(layout, world);
+        int nodeCount = this.switcherCount + this.destinationCount;
+        int gridSide = (int) Math.ceil(Math.sqrt(Math.max(1, this.switcherCount)));
+        List<TrackBuilder> loops = new ArrayList<>();
+        switch (layout) {
+        case RING:
+            loops.add(loop(world, 0, 0, Math.max(64, 8 * nodeCount), 32));
+            break;
+        case LINE:
+            // A line with a station every 24 blocks, returning on the track next to it
+            loops.add(loop(world, 0, 0, Math.max(128, 24 * nodeCount), 4));
+            break;
+        case GRID:
+            for (int x = 0; x < gridSide; x++) {
+                for (int z = 0; z < gridSide; z++) {
+                    loops.add(loop(world, x * (48 + GAP), z * (48 + GAP), 48, 48));
+                }
+            }
+            break;
+        case YARD:
+            int tracks = Math.max(2, this.switcherCount / 2 + 1);
+            for (int i = 0; i < tracks; i++) {
+                loops.add(loop(world, 0, i * (4 + GAP), 96, 4));
+            }
+            break;
+        }
+
+        // Join the loops next to each other with spurs
+        List<Spur> spurs = new ArrayList<>();
+        if (layout == Layout.GRID) {
+            for (int x = 0; x < gridSide; x++) {
+                for (int z = 0; z < gridSide; z++) {
+                    int index = x * gridSide + z;
+                    if (x > 0) {
+                        join(world, loops, index - gridSide, index, BlockFace.EAST, spurs);
+                    }
+                    if (z > 0) {
+                        join(world, loops, index - 1, index, BlockFace.SOUTH, spurs);
+                    }
+                }
+            }
+        } else if (layout == Layout.YARD) {
+            for (int i = 1; i < loops.size(); i++) {
+                join(world, loops, i - 1, i, BlockFace.SOUTH, spurs);
+            }
+        }
+
+        // Place the switchers at both ends of every spur, and connect the start to the end
+        List<Map<Integer, SyntheticNetwork.Node>> loopNodes = new ArrayList<>();
+        for (int i = 0; i < loops.size(); i++) {
+            loopNodes.add(new TreeMap<Integer, SyntheticNetwork.Node>());
+        }
+        for (Spur spur : spurs) {
+            SyntheticNetwork.Node start = network.addNode(null, loops.get(spur.fromLoop).getPlaced().get(spur.fromIndex));
+            SyntheticNetwork.Node end = network.addNode(null, loops.get(spur.toLoop).getPlaced().get(spur.toIndex));
+            start.connect(end, spur.length, spur.direction);
+            loopNodes.get(spur.fromLoop).put(spur.fromIndex, start);
+            loopNodes.get(spur.toLoop).put(spur.toIndex, end);
+        }
+
+        // Decide which of the other nodes are switchers
+        Random random = new Random(this.seed);
+        List<Boolean> roles = new ArrayList<>();
+        for (int i = 0; i < this.switcherCount; i++) {
+            roles.add(Boolean.TRUE);
+        }
+        for (int i = 0; i < this.destinationCount; i++) {
+            roles.add(Boolean.FALSE);
+        }
+        Collections.shuffle(roles, random);
+
+        // Place the nodes on every loop away from the junctions, and connect them in driving order
+        int destinationIndex = 0;
+        for (int i = 0; i < loops.size(); i++) {
+            List<Block> rails = loops.get(i).getPlaced();
+            List<BlockFace> directions = loops.get(i).getPlacedDirections();
+            Map<Integer, SyntheticNetwork.Node> nodes = loopNodes.get(i);
+            int loopCount = (roles.size() - i + loops.size() - 1) / loops.size();
+            for (int n = 0; n < loopCount; n++) {
+                int railIndex = 1 + (n * rails.size()) / loopCount;
+                for (int tries = 0; isNearNode(nodes, railIndex, rails.size()); tries++) {
+                    if (tries == rails.size()) {
+                        throw new IllegalStateException("Loop " + i + " is too short for its nodes");
+                    }
+                    railIndex = (railIndex + 1) % rails.size();
+                }
+                String name = roles.get(i + n * loops.size()) ? null : ("dest" + (++destinationIndex));
+                nodes.put(railIndex, network.addNode(name, rails.get(railIndex)));
+            }
+            List<Integer> railIndices = new ArrayList<>(nodes.keySet());
+            for (int n = 0; n < railIndices.size() && railIndices.size() > 1; n++) {
+                int from = railIndices.get(n);
+                int to = railIndices.get((n + 1) % railIndices.size());
+                int distance = (to - from + rails.size()) % rails.size();
+                nodes.get(from).connect(nodes.get(to), distance, directions.get(from));
+            }
+
+            // Spawn in the middle of the loop, with no sign below and no junction behind it
+            int spawnIndex = rails.size() / 2 + 2;
+            for (int tries = 0; !isClearForSpawn(world, loops.get(i), spurs, i, spawnIndex); tries++) {
+                if (tries == rails.size()) {
+                    throw new IllegalStateException("Loop " + i + " has no room for a spawn point");
+                }
+                spawnIndex = (spawnIndex + 1) % rails.size();
+            }
+            network.addSpawnPoint(rails.get(spawnIndex), directions.get(spawnIndex), this.spawnInterval);
+        }
+        return network;
+    }
+
+    private static TrackBuilder loop(TestWorld world, int x, int z, int length, int width) {
+        return new TrackBuilder(world, x, 64, z, BlockFace.EAST).ring(length, width);
+    }
+
+    /**
+     * Joins two loops with a spur leading from the first loop to the second a third along their sides,
+     * and a spur leading back two thirds along their sides
+     */
+    private static void join(TestWorld world, List<TrackBuilder> loops, int first, int second, BlockFace direction, List<Spur> spurs) {
+        boolean acrossX = (direction.getModX() == 0);
+        int min = Integer.MAX_VALUE, max = Integer.MIN_VALUE;
+        for (Block rails : loops.get(first).getPlaced()) {
+            int across = acrossX ? rails.getX() : rails.getZ();
+            min = Math.min(min, across);
+            max = Math.max(max, across);
+        }
+        spurs.add(spur(world, loops, first, second, direction, min + (max - min) / 3));
+        spurs.add(spur(world, loops, second, first, direction.getOppositeFace(), min + 2 * (max - min) / 3));
+    }
+
+    /**
+     * Lays a straight spur from the side of a loop facing a direction, until it reaches the rails of another loop
+     */
+    private static Spur spur(TestWorld world, List<TrackBuilder> loops, int fromLoop, int toLoop, BlockFace direction, int across) {
+        // The junction is the rails furthest into the direction, on the row or column of the spur
+        List<Block> fromRails = loops.get(fromLoop).getPlaced();
+        int fromIndex = -1;
+        int furthest = Integer.MIN_VALUE;
+        for (int i = 0; i < fromRails.size(); i++) {
+            Block rails = fromRails.get(i);
+            if ((direction.getModX() == 0 ? rails.getX() : rails.getZ()) == across) {
+                int along = rails.getX() * direction.getModX() + rails.getZ() * direction.getModZ();
+                if (along > furthest) {
+                    furthest = along;
+                    fromIndex = i;
+                }
+            }
+        }
+        Block block = fromRails.get(fromIndex).getRelative(direction);
+        int length = 1;
+        while (world.getRails(block) == null) {
+            if (length > 4 * GAP) {
+                throw new IllegalStateException("Spur from loop " + fromLoop + " does not reach loop " + toLoop);
+            }
+            world.setRails(block.getX(), block.getY(), block.getZ(), direction, false);
+            block = block.getRelative(direction);
+            length++;
+        }
+        int toIndex = loops.get(toLoop).getPlaced().indexOf(block);
+        if (toIndex == -1) {
+            throw new IllegalStateException("Spur from loop " + fromLoop + " runs into other track than loop " + toLoop);
+        }
+        return new Spur(fromLoop, fromIndex, toLoop, toIndex, length, direction);
+    }
+
+    private static boolean isNearNode(Map<Integer, SyntheticNetwork.Node> nodes, int railIndex, int railCount) {
+        for (int index : nodes.keySet()) {
+            int distance = Math.abs(index - railIndex);
+            if (Math.min(distance, railCount - distance) <= 2) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isClearForSpawn(TestWorld world, TrackBuilder loop, List<Spur> spurs, int loopIndex, int railIndex) {
+        List<Block> rails = loop.getPlaced();
+        if (world.getSignLines(rails.get(railIndex).getRelative(0, -2, 0)) != null) {
+            return false;
+        }
+        for (Spur spur : spurs) {
+            for (int behind = 0; behind <= SPAWN_CLEARANCE; behind++) {
+                int index = (railIndex - behind + rails.size()) % rails.size();
+                if ((spur.fromLoop == loopIndex && spur.fromIndex == index) || (spur.toLoop == loopIndex && spur.toIndex == index)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Straight track leading from the rails of one loop to the rails of another
+     */
+    private static class Spur {
+        public final int fromLoop, fromIndex;
+        public final int toLoop, toIndex;
+        public final int length;
+        public final BlockFace direction;
+
+        public Spur(int fromLoop, int fromIndex, int toLoop, int toIndex, int length, BlockFace direction) {
+            this.fromLoop = fromLoop;
+            this.fromIndex = fromIndex;
+            this.toLoop = toLoop;
+            this.toIndex = toIndex;
+            this.length = length;
+            this.direction = direction;
+        }
+    }
+
+    /**
+     * The shape of a generated network
+     */
+    public enum Layout {
+        /** A single large loop */
+        RING,
+        /** A long narrow loop with many stations, like a line driven there and back */
+        LINE,
+        /** A square grid of loops, each joined to the loops next to it */
+        GRID,
+        /** Parallel narrow loops next to each other, each joined to the next */
+        YARD
+    }
+}
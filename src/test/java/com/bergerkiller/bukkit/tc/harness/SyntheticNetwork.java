@@ -0,0 +1,207 @@
+package com.bergerkiller.bukkit.tc.harness;
+
+import com.bergerkiller.bukkit.common.BlockLocation;
+import com.bergerkiller.bukkit.common.bases.IntVector3;
+import com.bergerkiller.bukkit.common.config.CompressedDataWriter;
+import com.bergerkiller.bukkit.common.config.DataWriter;
+import com.bergerkiller.bukkit.common.utils.FaceUtil;
+import com.bergerkiller.bukkit.tc.pathfinding.PathNode;
+import com.bergerkiller.bukkit.tc.signactions.spawner.SpawnSign;
+import org.bukkit.block.Block;
+import org.bukkit.block.BlockFace;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A rail network generated by the {@link NetworkGenerator}. Holds the track and signs in a test world,
+ * the destination graph connecting the switcher and destination signs, and the spawn points of trains.<br>
+ * <br>
+ * The destination graph can be loaded into the {@link PathNode} path finding, to route trains over the track.
+ * The network can be written to the destinations.dat and spawnsigns.dat files of a server, in the same
+ * format TrainCarts saves them, to load the same network on a server or in other tools.
+ */
+public class SyntheticNetwork {
+    public final NetworkGenerator.Layout layout;
+    public final TestWorld world;
+    private final List<Node> nodes = new ArrayList<>();
+    private final List<SpawnPoint> spawnPoints = new ArrayList<>();
+
+    public SyntheticNetwork(NetworkGenerator.Layout layout, TestWorld world) {
+        this.layout = layout;
+        this.world = world;
+    }
+
+    public List<Node> getNodes() {
+        return Collections.unmodifiableList(this.nodes);
+    }
+
+    public List<SpawnPoint> getSpawnPoints() {
+        return Collections.unmodifiableList(this.spawnPoints);
+    }
+
+    /**
+     * Gets the names of all destinations in this network
+     *
+     * @return destination names
+     */
+    public List<String> getDestinations() {
+        List<String> names = new ArrayList<>();
+        for (Node node : this.nodes) {
+            if (node.name != null) {
+                names.add(node.name);
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Adds a switcher or destination node, and places its sign below the rails
+     *
+     * @param name of the destination, null for a switcher
+     * @param rails the sign is below
+     * @return the added node
+     */
+    public Node addNode(String name, Block rails) {
+        Node node = new Node(this.nodes.size(), name, rails);
+        if (name == null) {
+            this.world.setSign(rails.getX(), rails.getY() - 2, rails.getZ(), "[train]", "switcher");
+        } else {
+            this.world.setSign(rails.getX(), rails.getY() - 2, rails.getZ(), "[train]", "destination", name);
+        }
+        this.nodes.add(node);
+        return node;
+    }
+
+    /**
+     * Adds a spawn point, and places its spawn sign below the rails
+     *
+     * @param rails the trains spawn on
+     * @param direction the trains are launched into
+     * @param intervalSeconds between the spawns of the sign
+     * @return the added spawn point
+     */
+    public SpawnPoint addSpawnPoint(Block rails, BlockFace direction, int intervalSeconds) {
+        SpawnPoint point = new SpawnPoint(rails, direction, intervalSeconds);
+        this.world.setSign(rails.getX(), rails.getY() - 2, rails.getZ(),
+                "[train]", "spawn 0.4 " + (intervalSeconds / 60) + ":" + (intervalSeconds % 60), "mmm");
+        this.spawnPoints.add(point);
+        return point;
+    }
+
+    /**
+     * Replaces all path nodes of the path finding with the destination graph of this network.
+     * Switchers are named after their location, like the switcher signs of a server.
+     * Use {@link PathNode#clearAll()} to remove them again.
+     */
+    public void loadPathNodes() {
+        PathNode.clearAll();
+        PathNode[] pathNodes = new PathNode[this.nodes.size()];
+        for (Node node : this.nodes) {
+            BlockLocation location = new BlockLocation(node.rails);
+            pathNodes[node.index] = PathNode.getOrCreate(node.isSwitcher() ? location.toString() : node.name, location);
+        }
+        for (Node node : this.nodes) {
+            for (Connection connection : node.connections) {
+                pathNodes[node.index].addNeighbour(pathNodes[connection.to.index], connection.distance, connection.direction);
+            }
+        }
+    }
+
+    /**
+     * Writes the destination graph in the format of destinations.dat
+     *
+     * @param file to write to
+     */
+    public void writeDestinations(File file) {
+        new CompressedDataWriter(file.getPath()) {
+            public void write(DataOutputStream stream) throws IOException {
+                stream.writeInt(nodes.size());
+                for (Node node : nodes) {
+                    stream.writeUTF(node.name == null ? "" : node.name);
+                    stream.writeUTF(world.getWorld().getName());
+                    stream.writeInt(node.rails.getX());
+                    stream.writeInt(node.rails.getY());
+                    stream.writeInt(node.rails.getZ());
+                }
+                for (Node node : nodes) {
+                    stream.writeInt(node.connections.size());
+                    for (Connection connection : node.connections) {
+                        stream.writeInt(connection.to.index);
+                        stream.writeInt(connection.distance);
+                        stream.writeByte(FaceUtil.faceToNotch(connection.direction) >> 1);
+                    }
+                }
+            }
+        }.write();
+    }
+
+    /**
+     * Writes the spawn signs in the format of spawnsigns.dat
+     *
+     * @param file to write to
+     */
+    public void writeSpawnSigns(File file) {
+        new DataWriter(file.getPath()) {
+            public void write(DataOutputStream stream) throws IOException {
+                stream.writeInt(spawnPoints.size());
+                for (SpawnPoint point : spawnPoints) {
+                    Block sign = point.rails.getRelative(0, -2, 0);
+                    new SpawnSign(new IntVector3(sign), world.getWorld().getName(), point.intervalSeconds * 1000L).write(stream);
+                }
+            }
+        }.write();
+    }
+
+    /**
+     * A switcher or destination sign, and the nodes it connects to
+     */
+    public static class Node {
+        public final int index;
+        public final String name;
+        public final Block rails;
+        public final List<Connection> connections = new ArrayList<>(2);
+
+        public Node(int index, String name, Block rails) {
+            this.index = index;
+            this.name = name;
+            this.rails = rails;
+        }
+
+        public boolean isSwitcher() {
+            return this.name == null;
+        }
+
+        public void connect(Node to, int distance, BlockFace direction) {
+            this.connections.add(new Connection(to, distance, direction));
+        }
+    }
+
+    public static class Connection {
+        public final Node to;
+        public final int distance;
+        public final BlockFace direction;
+
+        public Connection(Node to, int distance, BlockFace direction) {
+            this.to = to;
+            this.distance = distance;
+            this.direction = direction;
+        }
+    }
+
+    public static class SpawnPoint {
+        public final Block rails;
+        public final BlockFace direction;
+        public final int intervalSeconds;
+
+        public SpawnPoint(Block rails, BlockFace direction, int intervalSeconds) {
+            this.rails = rails;
+            this.direction = direction;
+            this.intervalSeconds = intervalSeconds;
+        }
+    }
+}
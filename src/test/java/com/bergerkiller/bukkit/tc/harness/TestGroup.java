@@ -0,0 +1,16 @@
+package com.bergerkiller.bukkit.tc.harness;
+
+import com.bergerkiller.bukkit.tc.controller.MinecartGroup;
+
+/**
+ * Train without members or entities, for testing group actions without a server.
+ * It reports itself as not empty, so that actions bound to it are updated.
+ */
+public class TestGroup extends MinecartGroup {
+    private static final long serialVersionUID = 1;
+
+    @Override
+    public boolean isEmpty() {
+        return false;
+    }
+}
@@ -0,0 +1,120 @@
+package com.bergerkiller.bukkit.tc.harness;
+
+import com.bergerkiller.bukkit.common.bases.IntVector3;
+import com.bergerkiller.bukkit.common.wrappers.BlockData;
+import com.bergerkiller.bukkit.tc.controller.MinecartMember;
+import com.bergerkiller.bukkit.tc.rails.logic.RailLogic;
+import com.bergerkiller.bukkit.tc.rails.type.RailType;
+import com.bergerkiller.bukkit.tc.rails.type.RailTypeRegular;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.block.BlockFace;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Rail type that reads the rails of a test world, so that track walking code using {@link RailType},
+ * like the TrackIterator, can run without a server. The rail types of TrainCarts read block data
+ * from the server, so they are unregistered while this type is installed.<br>
+ * <br>
+ * Rails follow the same next-rails logic as {@link RailTypeRegular}. There is no rail logic
+ * for minecarts, so this type can not be used for the physics of trains.
+ */
+public class TestRailType extends RailType {
+    private final TestWorld world;
+    private final List<RailType> replaced = new ArrayList<>();
+
+    private TestRailType(TestWorld world) {
+        this.world = world;
+    }
+
+    /**
+     * Replaces all registered rail types with a rail type reading the rails of a test world
+     *
+     * @param world to read the rails of
+     * @return the installed rail type, to uninstall afterwards
+     */
+    public static TestRailType install(TestWorld world) {
+        TestRailType type = new TestRailType(world);
+        type.replaced.addAll(RailType.values());
+        for (RailType replaced : type.replaced) {
+            RailType.unregister(replaced);
+        }
+        RailType.register(type, true);
+        return type;
+    }
+
+    /**
+     * Registers the rail types that were registered before this type was installed again
+     */
+    public void uninstall() {
+        RailType.unregister(this);
+        for (RailType type : this.replaced) {
+            RailType.register(type, false);
+        }
+        this.replaced.clear();
+    }
+
+    @Override
+    public boolean isRail(BlockData blockData) {
+        return false; // Rails are looked up by position
+    }
+
+    @Override
+    public boolean isRail(World world, int x, int y, int z) {
+        return world == this.world.getWorld() && this.world.getRails(x, y, z) != null;
+    }
+
+    @Override
+    public IntVector3 findRail(MinecartMember<?> member, World world, IntVector3 pos) {
+        return isRail(world, pos.x, pos.y, pos.z) ? pos : null;
+    }
+
+    @Override
+    public Block findRail(Block pos) {
+        // Try to find the rail at the current position or one below
+        if (isRail(pos)) {
+            return pos;
+        }
+        if (isRail(pos, BlockFace.DOWN)) {
+            return pos.getRelative(BlockFace.DOWN);
+        }
+        return null;
+    }
+
+    @Override
+    public Block findMinecartPos(Block trackBlock) {
+        return trackBlock;
+    }
+
+    @Override
+    public BlockFace[] getPossibleDirections(Block trackBlock) {
+        return RailTypeRegular.getPossibleDirections(this.getDirection(trackBlock));
+    }
+
+    @Override
+    public Block getNextPos(Block currentTrack, BlockFace currentDirection) {
+        TestWorld.Rail rail = this.world.getRails(currentTrack);
+        if (rail == null) {
+            return null;
+        }
+        return RailTypeRegular.getNextPos(currentTrack, currentDirection, rail.direction, rail.sloped);
+    }
+
+    @Override
+    public BlockFace getDirection(Block railsBlock) {
+        TestWorld.Rail rail = this.world.getRails(railsBlock);
+        return (rail == null) ? BlockFace.SELF : rail.direction;
+    }
+
+    @Override
+    public BlockFace getSignColumnDirection(Block railsBlock) {
+        return BlockFace.DOWN;
+    }
+
+    @Override
+    public RailLogic getLogic(MinecartMember<?> member, Block railsBlock) {
+        throw new UnsupportedOperationException("Test rails have no rail logic");
+    }
+}
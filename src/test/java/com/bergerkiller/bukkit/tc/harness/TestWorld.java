@@ -0,0 +1,314 @@
+package com.bergerkiller.bukkit.tc.harness;
+
+import com.bergerkiller.bukkit.common.bases.IntVector3;
+import com.bergerkiller.bukkit.common.utils.FaceUtil;
+import com.bergerkiller.bukkit.common.utils.MathUtil;
+import org.bukkit.Chunk;
+import org.bukkit.Location;
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.block.BlockFace;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * In-memory world used to run train logic without a server.<br>
+ * <br>
+ * Stores a sparse grid of rails and signs and the load state of chunks. The {@link World},
+ * {@link Block} and {@link Chunk} instances handed out are proxies backed by this grid, which
+ * only implement what the track walking logic needs: coordinates, relative blocks, block types,
+ * chunk lookups and equality. All other methods throw an {@link UnsupportedOperationException}.
+ * Chunks are loaded unless they are unloaded explicitly.
+ */
+public class TestWorld {
+    private final String name;
+    private final UUID uid;
+    private final World world;
+    private final Map<IntVector3, Rail> rails = new HashMap<>();
+    private final Map<IntVector3, String[]> signs = new HashMap<>();
+    private final Set<Long> unloadedChunks = new HashSet<>();
+
+    public TestWorld(String name) {
+        this.name = name;
+        this.uid = UUID.nameUUIDFromBytes(name.getBytes());
+        this.world = (World) Proxy.newProxyInstance(TestWorld.class.getClassLoader(),
+                new Class<?>[] {World.class}, new WorldHandler());
+    }
+
+    /**
+     * Gets the Bukkit World backed by this test world
+     *
+     * @return world
+     */
+    public World getWorld() {
+        return this.world;
+    }
+
+    public Block getBlockAt(int x, int y, int z) {
+        return (Block) Proxy.newProxyInstance(TestWorld.class.getClassLoader(),
+                new Class<?>[] {Block.class}, new BlockHandler(x, y, z));
+    }
+
+    public Chunk getChunkAt(int x, int z) {
+        return (Chunk) Proxy.newProxyInstance(TestWorld.class.getClassLoader(),
+                new Class<?>[] {Chunk.class}, new ChunkHandler(x, z));
+    }
+
+    /**
+     * Places rails at a block
+     *
+     * @param x - coordinate of the rails
+     * @param y - coordinate of the rails
+     * @param z - coordinate of the rails
+     * @param direction of the rails, a sub-cardinal direction for curves
+     * @param sloped - whether the rails slope upwards into the direction
+     */
+    public void setRails(int x, int y, int z, BlockFace direction, boolean sloped) {
+        this.rails.put(new IntVector3(x, y, z), new Rail(direction, sloped));
+    }
+
+    /**
+     * Changes the rails at a block to lead from one face to another, like a switcher sign does
+     *
+     * @param rails block to change
+     * @param from face the train comes from
+     * @param to face the train leaves through
+     */
+    public void setRailsFromTo(Block rails, BlockFace from, BlockFace to) {
+        if (from == to.getOppositeFace()) {
+            this.setRails(rails.getX(), rails.getY(), rails.getZ(), to, false);
+        } else {
+            // Curves are stored by the direction opposite to the two faces they connect
+            BlockFace connected = FaceUtil.combine(from, to);
+            this.setRails(rails.getX(), rails.getY(), rails.getZ(), connected.getOppositeFace(), false);
+        }
+    }
+
+    /**
+     * Gets the rails at a block
+     *
+     * @param block to get the rails at
+     * @return rails, or null if there are no rails
+     */
+    public Rail getRails(Block block) {
+        return this.rails.get(new IntVector3(block));
+    }
+
+    /**
+     * Gets the rails at a block
+     *
+     * @param x - coordinate of the block
+     * @param y - coordinate of the block
+     * @param z - coordinate of the block
+     * @return rails, or null if there are no rails
+     */
+    public Rail getRails(int x, int y, int z) {
+        return this.rails.get(new IntVector3(x, y, z));
+    }
+
+    /**
+     * Gets the amount of rails blocks in this world
+     *
+     * @return rails count
+     */
+    public int getRailsCount() {
+        return this.rails.size();
+    }
+
+    /**
+     * Places a sign with the lines specified
+     *
+     * @param x - coordinate of the sign
+     * @param y - coordinate of the sign
+     * @param z - coordinate of the sign
+     * @param lines of the sign
+     */
+    public void setSign(int x, int y, int z, String... lines) {
+        String[] signLines = new String[4];
+        for (int i = 0; i < signLines.length; i++) {
+            signLines[i] = (i < lines.length) ? lines[i] : "";
+        }
+        this.signs.put(new IntVector3(x, y, z), signLines);
+    }
+
+    /**
+     * Gets the lines of the sign at a block
+     *
+     * @param block to get the sign at
+     * @return sign lines, or null if there is no sign
+     */
+    public String[] getSignLines(Block block) {
+        return this.signs.get(new IntVector3(block));
+    }
+
+    public void setChunkLoaded(int x, int z, boolean loaded) {
+        if (loaded) {
+            this.unloadedChunks.remove(MathUtil.longHashToLong(x, z));
+        } else {
+            this.unloadedChunks.add(MathUtil.longHashToLong(x, z));
+        }
+    }
+
+    public boolean isChunkLoaded(int x, int z) {
+        return !this.unloadedChunks.contains(MathUtil.longHashToLong(x, z));
+    }
+
+    private Material getType(int x, int y, int z) {
+        IntVector3 position = new IntVector3(x, y, z);
+        if (this.rails.containsKey(position)) {
+            return Material.RAILS;
+        } else if (this.signs.containsKey(position)) {
+            return Material.SIGN_POST;
+        } else {
+            return Material.AIR;
+        }
+    }
+
+    /**
+     * Rails placed in a test world
+     */
+    public static class Rail {
+        public final BlockFace direction;
+        public final boolean sloped;
+
+        public Rail(BlockFace direction, boolean sloped) {
+            this.direction = direction;
+            this.sloped = sloped;
+        }
+    }
+
+    private static Object unsupported(Method method) {
+        throw new UnsupportedOperationException(method.getDeclaringClass().getSimpleName() + "." +
+                method.getName() + " is not available in a test world");
+    }
+
+    private class WorldHandler implements InvocationHandler {
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            switch (method.getName()) {
+            case "getName":
+                return name;
+            case "getUID":
+                return uid;
+            case "getBlockAt":
+                if (args.length == 3) {
+                    return TestWorld.this.getBlockAt((Integer) args[0], (Integer) args[1], (Integer) args[2]);
+                } else {
+                    Location loc = (Location) args[0];
+                    return TestWorld.this.getBlockAt(loc.getBlockX(), loc.getBlockY(), loc.getBlockZ());
+                }
+            case "getChunkAt":
+                if (args.length == 2) {
+                    return TestWorld.this.getChunkAt((Integer) args[0], (Integer) args[1]);
+                }
+                break;
+            case "isChunkLoaded":
+                if (args.length == 2) {
+                    return TestWorld.this.isChunkLoaded((Integer) args[0], (Integer) args[1]);
+                }
+                break;
+            case "equals":
+                return proxy == args[0];
+            case "hashCode":
+                return uid.hashCode();
+            case "toString":
+                return "TestWorld{" + name + "}";
+            }
+            return unsupported(method);
+        }
+    }
+
+    private class BlockHandler implements InvocationHandler {
+        private final int x, y, z;
+
+        public BlockHandler(int x, int y, int z) {
+            this.x = x;
+            this.y = y;
+            this.z = z;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            switch (method.getName()) {
+            case "getX":
+                return x;
+            case "getY":
+                return y;
+            case "getZ":
+                return z;
+            case "getWorld":
+                return world;
+            case "getChunk":
+                return getChunkAt(x >> 4, z >> 4);
+            case "getType":
+                return TestWorld.this.getType(x, y, z);
+            case "getLocation":
+                if (args == null) {
+                    return new Location(world, x, y, z);
+                }
+                break;
+            case "getRelative":
+                if (args.length == 3) {
+                    return getBlockAt(x + (Integer) args[0], y + (Integer) args[1], z + (Integer) args[2]);
+                } else {
+                    BlockFace face = (BlockFace) args[0];
+                    int distance = (args.length == 2) ? (Integer) args[1] : 1;
+                    return getBlockAt(x + face.getModX() * distance, y + face.getModY() * distance, z + face.getModZ() * distance);
+                }
+            case "equals":
+                if (args[0] instanceof Block) {
+                    Block other = (Block) args[0];
+                    return other.getWorld() == world && other.getX() == x && other.getY() == y && other.getZ() == z;
+                }
+                return false;
+            case "hashCode":
+                return (y << 24) ^ (x * 31) ^ z;
+            case "toString":
+                return "TestBlock{" + x + ", " + y + ", " + z + "}";
+            }
+            return unsupported(method);
+        }
+    }
+
+    private class ChunkHandler implements InvocationHandler {
+        private final int x, z;
+
+        public ChunkHandler(int x, int z) {
+            this.x = x;
+            this.z = z;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            switch (method.getName()) {
+            case "getX":
+                return x;
+            case "getZ":
+                return z;
+            case "getWorld":
+                return world;
+            case "isLoaded":
+                return isChunkLoaded(x, z);
+            case "equals":
+                if (args[0] instanceof Chunk) {
+                    Chunk other = (Chunk) args[0];
+                    return other.getWorld() == world && other.getX() == x && other.getZ() == z;
+                }
+                return false;
+            case "hashCode":
+                return x * 31 + z;
+            case "toString":
+                return "TestChunk{" + x + ", " + z + "}";
+            }
+            return unsupported(method);
+        }
+    }
+}
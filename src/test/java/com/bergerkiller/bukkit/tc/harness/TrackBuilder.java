@@ -0,0 +1,118 @@
+package com.bergerkiller.bukkit.tc.harness;
+
+import com.bergerkiller.bukkit.common.utils.FaceUtil;
+import org.bukkit.block.Block;
+import org.bukkit.block.BlockFace;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Lays out flat track in a test world, one rails block at a time.
+ * Starts at a position facing a direction, and places curves where the track turns.
+ * The rails placed are remembered in the order they were placed, which is the order trains drive over them.
+ */
+public class TrackBuilder {
+    private final TestWorld world;
+    private int x, y, z;
+    private BlockFace direction;
+    private final List<Block> placed = new ArrayList<>();
+    private final List<BlockFace> placedDirections = new ArrayList<>();
+
+    public TrackBuilder(TestWorld world, int x, int y, int z, BlockFace direction) {
+        this.world = world;
+        this.x = x;
+        this.y = y;
+        this.z = z;
+        this.direction = direction;
+    }
+
+    /**
+     * Gets the block at which the next rails are placed
+     *
+     * @return next block
+     */
+    public Block getBlock() {
+        return this.world.getBlockAt(this.x, this.y, this.z);
+    }
+
+    public BlockFace getDirection() {
+        return this.direction;
+    }
+
+    /**
+     * Gets all rails placed by this builder, in the order they were placed
+     *
+     * @return rails blocks
+     */
+    public List<Block> getPlaced() {
+        return Collections.unmodifiableList(this.placed);
+    }
+
+    /**
+     * Gets the direction trains leave every rails block placed by this builder
+     *
+     * @return directions, in the same order as {@link #getPlaced()}
+     */
+    public List<BlockFace> getPlacedDirections() {
+        return Collections.unmodifiableList(this.placedDirections);
+    }
+
+    /**
+     * Places straight rails in the current direction
+     *
+     * @param length in blocks
+     * @return this builder
+     */
+    public TrackBuilder straight(int length) {
+        for (int i = 0; i < length; i++) {
+            this.world.setRails(this.x, this.y, this.z, this.direction, false);
+            this.place();
+            this.advance();
+        }
+        return this;
+    }
+
+    /**
+     * Places a curve that turns the track into a new direction
+     *
+     * @param to direction, left or right of the current direction
+     * @return this builder
+     */
+    public TrackBuilder turn(BlockFace to) {
+        // Curves are stored by the direction opposite to the two faces they connect
+        BlockFace connected = FaceUtil.combine(this.direction.getOppositeFace(), to);
+        this.world.setRails(this.x, this.y, this.z, connected.getOppositeFace(), false);
+        this.direction = to;
+        this.place();
+        this.advance();
+        return this;
+    }
+
+    /**
+     * Places a closed rectangular ring, turning the same way at every corner.
+     * The builder ends up where it started.
+     *
+     * @param length of the sides along the start direction, including the corners
+     * @param width of the sides across the start direction, including the corners
+     * @return this builder
+     */
+    public TrackBuilder ring(int length, int width) {
+        for (int side = 0; side < 4; side++) {
+            this.straight(((side & 1) == 0 ? length : width) - 2);
+            this.turn(FaceUtil.rotate(this.direction, 2));
+        }
+        return this;
+    }
+
+    private void place() {
+        this.placed.add(this.getBlock());
+        this.placedDirections.add(this.direction);
+    }
+
+    private void advance() {
+        this.x += this.direction.getModX();
+        this.z += this.direction.getModZ();
+    }
+}
@@ -0,0 +1,70 @@
+package com.bergerkiller.bukkit.tc.harness;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Describes the trains spawned into a synthetic network: how many, how often, how long,
+ * and the mix of destinations they drive to. Used by the {@link TrafficSimulation}.
+ */
+public class TrafficPattern {
+    /** Amount of trains after which spawning stops */
+    public int maxTrains = 100;
+    /** Ticks between the spawns of every spawn point, 0 to use the interval of the spawn signs */
+    public int spawnInterval = 0;
+    public int minCarts = 1;
+    public int maxCarts = 5;
+    public double speed = 0.4;
+    public long seed = 0;
+    private final Map<String, Integer> destinationWeights = new LinkedHashMap<>();
+
+    /**
+     * Sets how often a destination is picked compared to the other destinations.
+     * When no weights are set, all destinations of the network are picked equally often.
+     *
+     * @param destination name
+     * @param weight of the destination
+     * @return this pattern
+     */
+    public TrafficPattern weight(String destination, int weight) {
+        this.destinationWeights.put(destination, weight);
+        return this;
+    }
+
+    /**
+     * Picks the destination of a train
+     *
+     * @param random to pick with
+     * @param destinations of the network, used when no weights are set
+     * @return picked destination, or null if there are none
+     */
+    public String pickDestination(Random random, List<String> destinations) {
+        if (this.destinationWeights.isEmpty()) {
+            return destinations.isEmpty() ? null : destinations.get(random.nextInt(destinations.size()));
+        }
+        int total = 0;
+        for (int weight : this.destinationWeights.values()) {
+            total += weight;
+        }
+        int value = random.nextInt(Math.max(1, total));
+        for (Map.Entry<String, Integer> entry : this.destinationWeights.entrySet()) {
+            value -= entry.getValue();
+            if (value < 0) {
+                return entry.getKey();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Picks the amount of carts of a train
+     *
+     * @param random to pick with
+     * @return cart count
+     */
+    public int pickCartCount(Random random) {
+        return this.minCarts + random.nextInt(Math.max(1, this.maxCarts - this.minCarts + 1));
+    }
+}
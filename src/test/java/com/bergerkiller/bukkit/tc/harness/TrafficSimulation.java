@@ -0,0 +1,203 @@
+package com.bergerkiller.bukkit.tc.harness;
+
+import com.bergerkiller.bukkit.tc.TrainCarts;
+import com.bergerkiller.bukkit.tc.pathfinding.PathConnection;
+import com.bergerkiller.bukkit.tc.pathfinding.PathNode;
+import org.bukkit.block.Block;
+import org.bukkit.block.BlockFace;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Runs the trains of a traffic pattern on a synthetic network using the {@link TrainModel},
+ * and measures the throughput and tick cost.<br>
+ * <br>
+ * Trains are spawned at the spawn points of the network in turn, until the pattern has spawned all its trains.
+ * Like a spawn sign, a spawn point does not spawn while another train is on the rails the new train would be
+ * placed on. Every train drives to a destination picked from the destination mix of the pattern. Once it passes
+ * the sign of its destination it counts as an arrival, and a new destination is picked for it.<br>
+ * <br>
+ * The destination graph of the network is loaded into the {@link PathNode} path finding while the simulation
+ * exists. Like a switcher sign, every switcher a train reaches finds the route to its destination with
+ * {@link PathNode#findConnection(String)}, and switches the rails to the direction found before the train
+ * drives onto them. Trains wait for the rails in front of them to be clear of other trains, see {@link TrainModel}.
+ * The numbers measured are those of the harness only, and are not the throughput of the network on a server:
+ * the carts move with the model of the harness, not with the physics of TrainCarts.
+ */
+public class TrafficSimulation {
+    private final SyntheticNetwork network;
+    private final TrafficPattern pattern;
+    private final TrainModel model;
+    private final Random random;
+    private final List<String> destinations;
+    private final List<String> trainDestinations = new ArrayList<>();
+    private long arrivals = 0;
+    private long switches = 0;
+    private long blockedSpawns = 0;
+    private long ticks = 0;
+    private long tickNanos = 0;
+
+    public TrafficSimulation(SyntheticNetwork network, TrafficPattern pattern) {
+        this.network = network;
+        this.pattern = pattern;
+        this.model = new TrainModel(network.world);
+        this.random = new Random(pattern.seed);
+        this.destinations = network.getDestinations();
+        network.loadPathNodes();
+        this.model.setSignListener(new TrainModel.SignListener() {
+            @Override
+            public void onSign(TrainModel.Train train, Block signBlock, String[] lines, BlockFace direction) {
+                String destination = trainDestinations.get(train.id);
+                if (lines[1].equals("switcher")) {
+                    // The signs of a synthetic network are two blocks below the rails
+                    route(signBlock.getRelative(BlockFace.UP, 2), direction, destination);
+                } else if (lines[1].equals("destination") && lines[2].equals(destination)) {
+                    arrivals++;
+                    trainDestinations.set(train.id, pattern.pickDestination(random, destinations));
+                }
+            }
+        });
+    }
+
+    public TrainModel getModel() {
+        return this.model;
+    }
+
+    /**
+     * Closes the train model, see {@link TrainModel#close()}, and removes the path nodes of the network
+     */
+    public void close() {
+        this.model.close();
+        PathNode.clearAll();
+    }
+
+    /**
+     * Gets the amount of trains spawned so far
+     *
+     * @return spawned train count
+     */
+    public int getSpawnedCount() {
+        return this.model.getTrains().size();
+    }
+
+    /**
+     * Gets the amount of times a train passed the sign of its destination
+     *
+     * @return arrival count
+     */
+    public long getArrivalCount() {
+        return this.arrivals;
+    }
+
+    /**
+     * Gets the amount of times a switcher found a route to the destination of a train, and switched its rails
+     *
+     * @return switch count
+     */
+    public long getSwitchCount() {
+        return this.switches;
+    }
+
+    /**
+     * Gets the amount of times a train was due at a spawn point, but did not spawn because
+     * another train was on the rails
+     *
+     * @return blocked spawn count
+     */
+    public long getBlockedSpawnCount() {
+        return this.blockedSpawns;
+    }
+
+    public long getTicks() {
+        return this.ticks;
+    }
+
+    /**
+     * Gets the average time it took to run a tick, including the spawning of trains
+     *
+     * @return average tick time in nanoseconds
+     */
+    public double getAverageTickNanos() {
+        return (this.ticks == 0) ? 0.0 : ((double) this.tickNanos / this.ticks);
+    }
+
+    /**
+     * Spawns all remaining trains of the pattern as fast as the spawn points allow, instead of spreading
+     * them out over time. Trains are moved while waiting for the spawn points to clear, without
+     * counting these ticks. Stops early when no train could spawn for a minute.
+     */
+    public void spawnAll() {
+        int waited = 0;
+        while (this.getSpawnedCount() < this.pattern.maxTrains && waited < 1200) {
+            if (this.spawnRound()) {
+                waited = 0;
+            } else {
+                this.model.tick();
+                waited++;
+            }
+        }
+    }
+
+    public void run(int tickCount) {
+        for (int i = 0; i < tickCount; i++) {
+            this.tick();
+        }
+    }
+
+    /**
+     * Spawns the trains that are due, and moves all trains once
+     */
+    public void tick() {
+        long start = System.nanoTime();
+        this.ticks++;
+        List<SyntheticNetwork.SpawnPoint> points = this.network.getSpawnPoints();
+        for (int i = 0; i < points.size() && this.getSpawnedCount() < this.pattern.maxTrains; i++) {
+            int interval = (this.pattern.spawnInterval > 0) ? this.pattern.spawnInterval : (points.get(i).intervalSeconds * 20);
+            if (this.ticks % Math.max(1, interval) == 0) {
+                this.spawn(points.get(i));
+            }
+        }
+        this.model.tick();
+        this.tickNanos += System.nanoTime() - start;
+    }
+
+    private boolean spawnRound() {
+        boolean spawned = false;
+        for (SyntheticNetwork.SpawnPoint point : this.network.getSpawnPoints()) {
+            if (this.getSpawnedCount() >= this.pattern.maxTrains) {
+                break;
+            }
+            if (this.spawn(point)) {
+                spawned = true;
+            }
+        }
+        return spawned;
+    }
+
+    private boolean spawn(SyntheticNetwork.SpawnPoint point) {
+        int cartCount = this.pattern.pickCartCount(this.random);
+        TrainModel.Train train = this.model.spawn(point.rails, point.direction, cartCount, TrainCarts.cartDistance);
+        if (train == null) {
+            this.blockedSpawns++;
+            return false;
+        }
+        train.speed = this.pattern.speed;
+        this.trainDestinations.add(this.pattern.pickDestination(this.random, this.destinations));
+        return true;
+    }
+
+    // Switches the rails of a switcher like SignActionSwitcher does for trains with a destination
+    private void route(Block rails, BlockFace direction, String destination) {
+        PathNode node = PathNode.get(rails);
+        if (node == null || destination == null || node.containsName(destination)) {
+            return;
+        }
+        PathConnection connection = node.findConnection(destination);
+        if (connection != null) {
+            this.network.world.setRailsFromTo(rails, direction.getOppositeFace(), connection.direction);
+            this.switches++;
+        }
+    }
+}
@@ -0,0 +1,398 @@
+package com.bergerkiller.bukkit.tc.harness;
+
+import com.bergerkiller.bukkit.tc.TrainCarts;
+import com.bergerkiller.bukkit.tc.controller.components.PhysicsBuffer;
+import com.bergerkiller.bukkit.tc.utils.TrackMovingPoint;
+import org.bukkit.block.Block;
+import org.bukkit.block.BlockFace;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Rail walking and cart spacing model of trains moving over the track of a test world, one tick at a time,
+ * without a server. This is not the physics of {@link com.bergerkiller.bukkit.tc.controller.MinecartGroup},
+ * and can not catch regressions in it: the members and minecart entities it needs can not be created without
+ * a server, so there are no velocities, collisions, rail logic or sign actions. It only runs the parts of the
+ * train update that work on their own.<br>
+ * <br>
+ * The head of every train walks the rails with a {@link TrackMovingPoint}, like the rail tracker of a train,
+ * on the rails of the world read through a {@link TestRailType}. The rail type is installed while the model
+ * exists, and is removed again by {@link #close()}. The carts behind the head are kept apart by the
+ * {@link PhysicsBuffer} speed factors, using the cart distance settings of {@link TrainCarts}. Carts are
+ * points on the path walked by the head, so a run only depends on the track, the trains spawned and the
+ * settings, and two runs of the same scenario produce exactly the same positions.<br>
+ * <br>
+ * Trains stop at the end of the track, and do not move while their head is in an unloaded chunk.
+ * A train does not move onto rails another train is on, and waits until these are clear. The rails
+ * from the last cart of a train up to the end of the path walked by its head count as taken by it.
+ * Signs one or two blocks below the rails are reported to the sign listener right before the path of
+ * a train reaches the rails above them, which is up to a block in front of the head. The listener
+ * can still change these rails, like a switcher sign does, and the train follows the changed rails.
+ */
+public class TrainModel {
+    private final TestWorld world;
+    private final TestRailType railType;
+    private final List<Train> trains = new ArrayList<>();
+    private final Map<Block, Train> occupied = new HashMap<>();
+    private final PhysicsBuffer buffer = new PhysicsBuffer();
+    private SignListener signListener = null;
+    private long ticks = 0;
+    private long movedCarts = 0;
+    private long frozenTrains = 0;
+    private long waitingTrains = 0;
+
+    public TrainModel(TestWorld world) {
+        this.world = world;
+        this.railType = TestRailType.install(world);
+    }
+
+    /**
+     * Removes the rail type of the test world again, after which the model can no longer be used
+     */
+    public void close() {
+        this.railType.uninstall();
+    }
+
+    public TestWorld getWorld() {
+        return this.world;
+    }
+
+    public List<Train> getTrains() {
+        return Collections.unmodifiableList(this.trains);
+    }
+
+    public void setSignListener(SignListener listener) {
+        this.signListener = listener;
+    }
+
+    /**
+     * Gets the amount of ticks simulated
+     *
+     * @return tick count
+     */
+    public long getTicks() {
+        return this.ticks;
+    }
+
+    /**
+     * Gets the total amount of cart moves performed, one per cart per tick it was not frozen
+     *
+     * @return moved cart count
+     */
+    public long getMovedCarts() {
+        return this.movedCarts;
+    }
+
+    /**
+     * Gets the total amount of ticks trains did not move because their head was in an unloaded chunk
+     *
+     * @return frozen train ticks
+     */
+    public long getFrozenTrains() {
+        return this.frozenTrains;
+    }
+
+    /**
+     * Gets the total amount of ticks trains could not move further because the rails in front of them
+     * were taken by another train
+     *
+     * @return waiting train ticks
+     */
+    public long getWaitingTrains() {
+        return this.waitingTrains;
+    }
+
+    /**
+     * Spawns a train with its head on the rails specified. The carts are placed on the rails
+     * behind the head, opposite to the direction the train moves into. Like a spawn sign, no
+     * train is spawned on top of another train that has not left these rails yet.
+     *
+     * @param head rails of the head cart
+     * @param direction the train moves into
+     * @param cartCount of the train
+     * @param spacing between the carts at the start
+     * @return the spawned train, or null if there is not enough track behind the head
+     *         or another train is on the rails
+     */
+    public Train spawn(Block head, BlockFace direction, int cartCount, double spacing) {
+        // Walk backwards to find the rails the carts are placed on
+        List<Block> behind = new ArrayList<>();
+        TrackMovingPoint point = new TrackMovingPoint(head, direction.getOppositeFace());
+        int needed = (int) Math.ceil((cartCount - 1) * spacing) + 1;
+        while (behind.size() < needed) {
+            if (!point.hasNext()) {
+                return null;
+            }
+            point.next();
+            if (this.occupied.containsKey(point.currentTrack)) {
+                return null;
+            }
+            behind.add(point.currentTrack);
+        }
+        BlockFace backwards = point.currentDirection;
+        Collections.reverse(behind);
+
+        Train train = new Train(this.trains.size(), cartCount, backwards.getOppositeFace());
+        for (Block block : behind) {
+            train.addRails(block);
+        }
+        train.walker = new TrackMovingPoint(head, direction);
+        train.walker.next();
+        double headDistance = train.getPathLength();
+        for (int i = 0; i < cartCount; i++) {
+            train.distance[i] = headDistance - (i * spacing);
+            train.updateIndex(i);
+        }
+        this.trains.add(train);
+        return train;
+    }
+
+    /**
+     * Runs the simulation for a number of ticks
+     *
+     * @param tickCount to run
+     */
+    public void run(int tickCount) {
+        for (int i = 0; i < tickCount; i++) {
+            this.tick();
+        }
+    }
+
+    /**
+     * Moves all trains once
+     */
+    public void tick() {
+        this.ticks++;
+        for (Train train : this.trains) {
+            Block headRails = train.getRails(0);
+            if (!this.world.isChunkLoaded(headRails.getX() >> 4, headRails.getZ() >> 4)) {
+                this.frozenTrains++;
+                continue;
+            }
+            this.move(train);
+            this.movedCarts += train.size();
+        }
+    }
+
+    private void move(Train train) {
+        final int size = train.size();
+        final double speed = train.speed;
+        if (size > 1) {
+            this.buffer.resize(size);
+            for (int i = 0; i < size; i++) {
+                int index = train.pathIndex[i];
+                boolean turned = (i < size - 1) && train.pathDirections.get(index) != train.pathDirections.get(train.pathIndex[i + 1]);
+                this.buffer.set(i, train.getX(i), train.getY(i), train.getZ(i), speed, turned);
+            }
+            this.buffer.computeSpeedFactors(TrainCarts.cartDistance, TrainCarts.cartDistanceForcer,
+                    TrainCarts.turnedCartDistance, TrainCarts.turnedCartDistanceForcer, TrainCarts.nearCartDistanceFactor);
+        }
+
+        // Extend the path in front of the head far enough for this tick, up to rails taken by another train
+        double headTarget = train.distance[0] + speed * (size > 1 ? Math.max(0.0, this.buffer.getSpeedFactor(0)) : 1.0);
+        while (!train.atEnd && train.getPathLength() < headTarget + 1.0) {
+            if (!train.walker.hasNext()) {
+                train.atEnd = true;
+                break;
+            }
+            Train other = this.occupied.get(train.walker.nextTrack);
+            if (other != null && other != train) {
+                this.waitingTrains++;
+                break;
+            }
+            // Signs are handled before the walker takes the next rails, which switchers may still change
+            this.handleSigns(train, train.walker.nextTrack, train.walker.nextDirection);
+            train.walker.next();
+            train.addRails(train.walker.currentTrack);
+        }
+
+        // Carts are moved along the path, but never past the end of the track
+        double end = train.getPathLength();
+        for (int i = 0; i < size; i++) {
+            double factor = (size > 1) ? Math.max(0.0, this.buffer.getSpeedFactor(i)) : 1.0;
+            train.distance[i] = Math.min(end, train.distance[i] + speed * factor);
+            train.updateIndex(i);
+        }
+        train.releaseRails();
+        train.trimPath();
+    }
+
+    private void handleSigns(Train train, Block rails, BlockFace direction) {
+        if (this.signListener == null) {
+            return;
+        }
+        for (int dy = 1; dy <= 2; dy++) {
+            Block signBlock = rails.getRelative(0, -dy, 0);
+            String[] lines = this.world.getSignLines(signBlock);
+            if (lines != null) {
+                this.signListener.onSign(train, signBlock, lines, direction);
+            }
+        }
+    }
+
+    private static BlockFace getDirection(Block from, Block to, BlockFace def) {
+        int dx = to.getX() - from.getX();
+        int dz = to.getZ() - from.getZ();
+        for (BlockFace face : CARDINAL) {
+            if (face.getModX() == dx && face.getModZ() == dz) {
+                return face;
+            }
+        }
+        return def;
+    }
+
+    private static final BlockFace[] CARDINAL = {BlockFace.NORTH, BlockFace.EAST, BlockFace.SOUTH, BlockFace.WEST};
+
+    /**
+     * Listens for the signs below the rails reached by a train
+     */
+    public interface SignListener {
+        /**
+         * Called right before a train reaches the rails above a sign
+         *
+         * @param train reaching the rails
+         * @param signBlock of the sign
+         * @param lines of the sign
+         * @param direction the train moves into the rails with
+         */
+        void onSign(Train train, Block signBlock, String[] lines, BlockFace direction);
+    }
+
+    /**
+     * A train moving in the simulation. Cart 0 is the head of the train.
+     */
+    public class Train {
+        public final int id;
+        public double speed = 0.4;
+        private boolean atEnd = false;
+        private int released = 0; // Amount of path points behind the last cart no longer taken by this train
+        private TrackMovingPoint walker; // At the rails at the end of the path
+        private final double[] distance; // Distance of every cart along the path
+        private final int[] pathIndex; // Index of the path point at or before every cart
+        private final List<Block> path = new ArrayList<>();
+        private final List<BlockFace> pathDirections = new ArrayList<>();
+        private final List<double[]> pathPoints = new ArrayList<>(); // x, y, z, distance
+
+        private Train(int id, int cartCount, BlockFace tailDirection) {
+            this.id = id;
+            this.distance = new double[cartCount];
+            this.pathIndex = new int[cartCount];
+            this.pathDirections.add(tailDirection);
+        }
+
+        public int size() {
+            return this.distance.length;
+        }
+
+        /**
+         * Gets whether the head of this train reached the end of the track
+         *
+         * @return True if at the end of the track
+         */
+        public boolean isAtEnd() {
+            return this.atEnd;
+        }
+
+        /**
+         * Gets the rails a cart is on
+         *
+         * @param index of the cart
+         * @return rails block
+         */
+        public Block getRails(int index) {
+            return this.path.get(this.pathIndex[index]);
+        }
+
+        public double getX(int index) {
+            return this.interpolate(index, 0);
+        }
+
+        public double getY(int index) {
+            return this.interpolate(index, 1);
+        }
+
+        public double getZ(int index) {
+            return this.interpolate(index, 2);
+        }
+
+        /**
+         * Gets the distance along the track between a cart and the cart behind it
+         *
+         * @param index of the cart
+         * @return distance to the next cart
+         */
+        public double getSpacing(int index) {
+            return this.distance[index] - this.distance[index + 1];
+        }
+
+        private double getPathLength() {
+            return this.pathPoints.isEmpty() ? 0.0 : this.pathPoints.get(this.pathPoints.size() - 1)[3];
+        }
+
+        private void addRails(Block rails) {
+            double x = rails.getX() + 0.5;
+            double y = rails.getY();
+            double z = rails.getZ() + 0.5;
+            double length = 0.0;
+            if (!this.path.isEmpty()) {
+                double[] last = this.pathPoints.get(this.pathPoints.size() - 1);
+                double dx = x - last[0], dy = y - last[1], dz = z - last[2];
+                length = last[3] + Math.sqrt(dx * dx + dy * dy + dz * dz);
+                this.pathDirections.add(getDirection(this.path.get(this.path.size() - 1), rails,
+                        this.pathDirections.get(this.pathDirections.size() - 1)));
+            }
+            this.path.add(rails);
+            this.pathPoints.add(new double[] {x, y, z, length});
+            occupied.put(rails, this);
+        }
+
+        // Frees the rails the last cart has left, so other trains can move onto them
+        private void releaseRails() {
+            int tail = this.pathIndex[this.size() - 1];
+            for (; this.released < tail; this.released++) {
+                Block rails = this.path.get(this.released);
+                if (occupied.get(rails) == this) {
+                    occupied.remove(rails);
+                }
+            }
+        }
+
+        private void updateIndex(int cart) {
+            int index = this.pathIndex[cart];
+            while (index < this.pathPoints.size() - 1 && this.pathPoints.get(index + 1)[3] <= this.distance[cart]) {
+                index++;
+            }
+            this.pathIndex[cart] = index;
+        }
+
+        private double interpolate(int cart, int axis) {
+            int index = this.pathIndex[cart];
+            double[] from = this.pathPoints.get(index);
+            if (index == this.pathPoints.size() - 1) {
+                return from[axis];
+            }
+            double[] to = this.pathPoints.get(index + 1);
+            double theta = (this.distance[cart] - from[3]) / (to[3] - from[3]);
+            return from[axis] + theta * (to[axis] - from[axis]);
+        }
+
+        // Forgets the path behind the last cart, so long runs use constant memory
+        private void trimPath() {
+            int removed = this.pathIndex[this.size() - 1];
+            if (removed < 64) {
+                return;
+            }
+            this.path.subList(0, removed).clear();
+            this.pathDirections.subList(0, removed).clear();
+            this.pathPoints.subList(0, removed).clear();
+            this.released -= removed;
+            for (int i = 0; i < this.pathIndex.length; i++) {
+                this.pathIndex[i] -= removed;
+            }
+        }
+    }
+}
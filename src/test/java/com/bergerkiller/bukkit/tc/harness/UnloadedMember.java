@@ -0,0 +1,15 @@
+package com.bergerkiller.bukkit.tc.harness;
+
+import com.bergerkiller.bukkit.tc.controller.type.MinecartMemberRideable;
+
+/**
+ * Minecart member that is not attached to an entity and is marked unloaded from the start.
+ * Code handling members, like detector regions, skips looking up the train of unloaded members,
+ * so this member can be passed to it without a server.
+ */
+public class UnloadedMember extends MinecartMemberRideable {
+
+    public UnloadedMember() {
+        this.unloaded = true;
+    }
+}